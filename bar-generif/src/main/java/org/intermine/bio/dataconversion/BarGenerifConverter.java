@@ -14,15 +14,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.apache.tools.ant.BuildException;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 /**
@@ -42,6 +39,10 @@ public class BarGenerifConverter extends BioFileConverter
 
     private Map<String, String> pubItems = new HashMap<String, String>();
     private Map<String, String> geneItems = new HashMap<String, String>();
+    // the same genes have many GeneRIFs, only resolve each once
+    private CachingIdResolver athResolver = null;
+    private String resolverSnapshot = null;
+    private String resolverSnapshotSources = null;
 
     /**
      * Constructor
@@ -55,6 +56,26 @@ public class BarGenerifConverter extends BioFileConverter
         createOrganismItem();
     }
 
+    /**
+     * A file to save the resolved gene identifiers in, so the next run only needs to make the
+     * id resolver for genes that weren't in the file before.  Needs resolverSnapshotSources.
+     *
+     * @param resolverSnapshot the snapshot file
+     */
+    public void setResolverSnapshot(String resolverSnapshot) {
+        this.resolverSnapshot = resolverSnapshot.trim();
+    }
+
+    /**
+     * The files the Arabidopsis id resolver is made from, or directories of them, separated by
+     * commas.  The resolver snapshot isn't used if any of them have changed.
+     *
+     * @param resolverSnapshotSources files or directories
+     */
+    public void setResolverSnapshotSources(String resolverSnapshotSources) {
+        this.resolverSnapshotSources = resolverSnapshotSources;
+    }
+
     /**
      *
      *
@@ -63,8 +84,16 @@ public class BarGenerifConverter extends BioFileConverter
     public void process(Reader reader) throws Exception {
         File currentFile = getCurrentFile();
 
-        if ("generifs_basic".equals(currentFile.getName())) {
-            processFile(reader, org);
+        if ("generifs_basic".equals(CompressedInput.getUncompressedName(currentFile))) {
+            Reader in = CompressedInput.getReader(currentFile, reader);
+            try {
+                processFile(in, org);
+            } finally {
+                // a reader of the uncompressed file is ours to close, unlike the one passed in
+                if (in != reader) {
+                    in.close();
+                }
+            }
         } else {
             LOG.info("WWSS skipping file: " + currentFile.getName());
         }
@@ -90,42 +119,47 @@ public class BarGenerifConverter extends BioFileConverter
      */
     private void processFile(Reader reader, Item organism)
         throws IOException, ObjectStoreException {
-        Iterator<?> tsvIter;
-        try {
-            tsvIter = FormattedTextParser.parseTabDelimitedReader(reader);
-        } catch (Exception e) {
-            throw new BuildException("cannot parse file: " + getCurrentFile(), e);
+        TabTokenizer tokenizer = new TabTokenizer(reader);
+        if (athResolver == null) {
+            // the resolver is only made if a gene isn't in the snapshot
+            athResolver = new CachingIdResolver(new CachingIdResolver.ResolverFactory() {
+                @Override
+                public IdResolver getResolver() {
+                    return IdResolverService.getIdResolverByOrganism(ATH_TAXID);
+                }
+            }, CachingIdResolver.DEFAULT_SIZE);
+            if (resolverSnapshot != null) {
+                athResolver.useSnapshot(new File(resolverSnapshot), ATH_TAXID,
+                        resolverSnapshotSources == null ? "" : resolverSnapshotSources);
+            }
         }
-        IdResolver athResolver = IdResolverService.getIdResolverByOrganism("3702");
         String pid = null;
 
         int lineNumber = 0;
 
-        while (tsvIter.hasNext()) {
-            String[] line = (String[]) tsvIter.next();
+        while (tokenizer.next()) {
 
             // this can be omitted
             if (lineNumber == 0) {
-                checkHeader(line);
+                checkHeader(tokenizer);
                 lineNumber++;
                 continue;
             }
 
-            String taxid = line[0];
-            String geneId = line [1];
-            String pubMedId = line [2];
-            String timeStamp = line[3];
-            String annotation = line [4];
-
-            // dealing only with ATH for now
-            if (!taxid.equalsIgnoreCase(ATH_TAXID)) {
+            // dealing only with ATH for now, most of the file is other organisms so check
+            // before making Strings of the columns
+            if (!tokenizer.equals(0, ATH_TAXID)) {
                 continue;
             }
 
-            int resCount = athResolver.countResolutions(taxid, geneId);
-            if (resCount != 1) {
-                LOG.info("RESOLVER: failed to resolve gene to one identifier, ignoring gene: "
-                        + geneId + " count: " + resCount);
+            String taxid = ATH_TAXID;
+            String geneId = tokenizer.getString(1);
+            String pubMedId = tokenizer.getString(2);
+            String timeStamp = tokenizer.getString(3);
+            String annotation = tokenizer.getString(4);
+
+            pid = athResolver.resolveOne(taxid, geneId);
+            if (pid == null) {
                 continue;
             }
 
@@ -137,7 +171,6 @@ public class BarGenerifConverter extends BioFileConverter
             //          }
 
 
-            pid = athResolver.resolveId(taxid, geneId).iterator().next();
             // Asher: For now just go set pid = geneId. Delete the following line after Intermine pull request
             // pid = geneId;
 
@@ -154,25 +187,29 @@ public class BarGenerifConverter extends BioFileConverter
 
             lineNumber++;
         }
+        athResolver.saveSnapshot();
+        LOG.info("Read " + lineNumber + " GeneRIFs, " + athResolver);
     }
 
     /**
      * @param line
      */
-    private void checkHeader(String[] line) {
+    private void checkHeader(TabTokenizer line) {
         // column headers - strip off any extra columns - FlyAtlas
         // not necessary
         String[] headers;
         int end = 0;
-        for (int i = 0; i < line.length; i++) {
+        for (int i = 0; i < line.getColumnCount(); i++) {
             // if (StringUtils.isEmpty(line[i])) {
-            if (line[i].isEmpty()) {
+            if (line.getLength(i) == 0) {
                 break;
             }
             end++;
         }
         headers = new String[end];
-        System.arraycopy(line, 0, headers, 0, end);
+        for (int i = 0; i < end; i++) {
+            headers[i] = line.getString(i);
+        }
     }
 
 
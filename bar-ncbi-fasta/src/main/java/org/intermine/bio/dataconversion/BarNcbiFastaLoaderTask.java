@@ -11,9 +11,6 @@ package org.intermine.bio.dataconversion;
  */
 
 
-import org.biojava.nbio.core.sequence.DNASequence;
-import org.biojava.nbio.core.sequence.template.Sequence;
-
 /**
  * See https://intermine.readthedocs.io/en/latest/database/data-sources/library/fasta/ for details on the FASTA source.
  * This is inspired from: https://github.com/intermine/intermine/blob/dev/bio/sources/fasta/src/main/java/org/intermine/bio/dataconversion/NCBIFastaLoaderTask.java
@@ -25,8 +22,8 @@ public class BarNcbiFastaLoaderTask extends FastaLoaderTask
      * {@inheritDoc}
      */
     @Override
-    protected String getIdentifier(Sequence bioJavaSequence) {
-        String header = ((DNASequence) bioJavaSequence).getOriginalHeader();
+    protected String getIdentifier(FastaRecord record) {
+        String header = record.getHeader();
 
         // This part can be improve later on.
         if (header.contains("chromosome 1")) {
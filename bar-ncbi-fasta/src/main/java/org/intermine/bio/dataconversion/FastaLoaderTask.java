@@ -13,28 +13,15 @@ package org.intermine.bio.dataconversion;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
-import org.biojava.nbio.core.exceptions.ParserException;
-import org.biojava.nbio.core.sequence.DNASequence;
-import org.biojava.nbio.core.sequence.ProteinSequence;
-import org.biojava.nbio.core.sequence.compound.AmbiguityDNACompoundSet;
-import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
-import org.biojava.nbio.core.sequence.io.DNASequenceCreator;
-import org.biojava.nbio.core.sequence.io.FastaReader;
-import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
-import org.biojava.nbio.core.sequence.io.PlainFastaHeaderParser;
-import org.biojava.nbio.core.sequence.template.Sequence;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
-import org.intermine.metadata.Util;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.BioEntity;
 import org.intermine.model.bio.DataSet;
@@ -228,31 +215,18 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         try {
             System.err.println("reading " + sequenceType + " sequence from: " + file);
             LOG.debug("FastaLoaderTask loading file " + file.getName());
-            if ("dna".equalsIgnoreCase(sequenceType)) {
-                FastaReader<DNASequence, NucleotideCompound> aFastaReader
-                        = new FastaReader<DNASequence, NucleotideCompound>(file,
-                        new PlainFastaHeaderParser<DNASequence, NucleotideCompound>(),
-                        new DNASequenceCreator(AmbiguityDNACompoundSet.getDNACompoundSet()));
-
-                LinkedHashMap<String, DNASequence> b = aFastaReader.process();
-                for (Entry<String, DNASequence> entry : b.entrySet()) {
-                    Sequence bioJavaSequence = entry.getValue();
-                    processSequence(getOrganism(bioJavaSequence), bioJavaSequence);
-                }
-            } else {
-                LinkedHashMap<String, ProteinSequence> b =
-                        FastaReaderHelper.readFastaProteinSequence(file);
-                for (Entry<String, ProteinSequence> entry : b.entrySet()) {
-                    Sequence bioJavaSequence = entry.getValue();
-                    processSequence(getOrganism((ProteinSequence) bioJavaSequence),
-                            bioJavaSequence);
+            // may be compressed
+            InputStream in = CompressedInput.open(file);
+            try {
+                FastaRecordReader reader = new FastaRecordReader(in,
+                        !"dna".equalsIgnoreCase(sequenceType));
+                FastaRecord record;
+                while ((record = reader.next()) != null) {
+                    processSequence(getOrganism(record), record);
                 }
+            } finally {
+                in.close();
             }
-        } catch (ParserException e) {
-            throw new BuildException("sequence not in fasta format or wrong alphabet for: "
-                    + file, e);
-        } catch (NoSuchElementException e) {
-            throw new BuildException("no fasta sequences in: " + file, e);
         } catch (FileNotFoundException e) {
             throw new BuildException("problem reading file - file not found: " + file, e);
         } catch (ObjectStoreException e) {
@@ -264,11 +238,11 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
 
     /**
      * Get and store() the Organism object to reference when creating new objects.
-     * @param bioJavaSequence the biojava sequence to be parsed
+     * @param record the FASTA record to be parsed
      * @throws ObjectStoreException if there is a problem
      * @return the new Organism
      */
-    protected Organism getOrganism(Sequence bioJavaSequence) throws ObjectStoreException {
+    protected Organism getOrganism(FastaRecord record) throws ObjectStoreException {
         if (org == null) {
             org = getDirectDataLoader().createObject(Organism.class);
             org.setTaxonId(fastaTaxonId);
@@ -278,12 +252,12 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     }
 
     /**
-     * Create a FlyMine Sequence and an object of type className for the given BioJava Sequence.
+     * Create a FlyMine Sequence and an object of type className for the given FASTA record.
      * @param organism the Organism to reference from new objects
-     * @param bioJavaSequence the Sequence object
+     * @param record the FASTA record
      * @throws ObjectStoreException if store() fails
      */
-    private void processSequence(Organism organism, Sequence bioJavaSequence)
+    private void processSequence(Organism organism, FastaRecord record)
             throws ObjectStoreException {
         // some fasta files are not filtered - they contain sequences from organisms not
         // specified in project.xml
@@ -294,11 +268,11 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         org.intermine.model.bio.Sequence flymineSequence = getDirectDataLoader().createObject(
                 org.intermine.model.bio.Sequence.class);
 
-        String sequence = bioJavaSequence.getSequenceAsString();
-        String md5checksum = Util.getMd5checksum(sequence);
+        // the residues were hashed while they were read, PendingClob needs them as a String
+        String md5checksum = record.getMd5checksum();
 
-        flymineSequence.setResidues(new PendingClob(sequence));
-        flymineSequence.setLength(bioJavaSequence.getLength());
+        flymineSequence.setResidues(new PendingClob(record.getResidues().toString()));
+        flymineSequence.setLength(record.getLength());
         flymineSequence.setMd5checksum(md5checksum);
 
         Class<? extends InterMineObject> imClass;
@@ -317,7 +291,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
         BioEntity imo = (BioEntity) getDirectDataLoader().createObject(imClass);
 
-        String attributeValue = getIdentifier(bioJavaSequence);
+        String attributeValue = getIdentifier(record);
         try {
             imo.setFieldValue(classAttribute, attributeValue);
         } catch (Exception e) {
@@ -345,7 +319,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             // Ignore - we don't care if the field doesn't exist.
         }
 
-        extraProcessing(bioJavaSequence, flymineSequence, imo, organism, getDataSet());
+        extraProcessing(record, flymineSequence, imo, organism, getDataSet());
 
         if (StringUtils.isEmpty(dataSetTitle)) {
             throw new RuntimeException("DataSet title (fasta.dataSetTitle) not set");
@@ -385,30 +359,29 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     /**
      * Do any extra processing needed for this record (extra attributes, objects, references etc.)
      * This method is called before the new objects are stored
-     * @param bioJavaSequence the BioJava Sequence
+     * @param record the FASTA record
      * @param flymineSequence the FlyMine Sequence
      * @param bioEntity the object that references the flymineSequence
      * @param organism the Organism object for the new InterMineObject
      * @param dataSet the DataSet object
      * @throws ObjectStoreException if a store() fails during processing
      */
-    protected void  extraProcessing(Sequence bioJavaSequence, org.intermine.model.bio.Sequence
+    protected void  extraProcessing(FastaRecord record, org.intermine.model.bio.Sequence
             flymineSequence, BioEntity bioEntity, Organism organism, DataSet dataSet)
             throws ObjectStoreException {
         // default - no extra processing
     }
 
     /**
-     * For the given BioJava Sequence object, return an identifier to be used when creating
+     * For the given FASTA record, return an identifier to be used when creating
      * the corresponding BioEntity.
      * if | is present the middle bit is returned, eg sp|Q9V8R9-2|41_DROME
-     * @param bioJavaSequence the Sequenece
+     * @param record the FASTA record
      * @return an identifier
      */
-    protected String getIdentifier(Sequence bioJavaSequence) {
-        String name = bioJavaSequence.getAccession().getID() + idSuffix;
-        // getID does not seem to work properly
-        // quick fix to get only the primaryidentifier
+    protected String getIdentifier(FastaRecord record) {
+        String name = record.getHeader() + idSuffix;
+        // only the first word of the header is the primaryidentifier
         if (name.contains(" ")) {
             String[] bits = name.split(" ");
             name = bits[0];
@@ -460,24 +433,5 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
     }
 
-    /**
-     * Get and store() the Organism object to reference when creating new objects.
-     * @param bioJavaSequence the biojava sequence to be parsed
-     * @throws ObjectStoreException if there is a problem
-     * @return the new Organism
-     *
-     * there is a specialised method getOrganism in the subclass UniProtFastaLoaderTask
-     * which is actually used.
-     */
-    protected Organism getOrganism(ProteinSequence bioJavaSequence)
-            throws ObjectStoreException {
-        if (org == null) {
-            org = getDirectDataLoader().createObject(Organism.class);
-            org.setTaxonId(fastaTaxonId);
-            getDirectDataLoader().store(org);
-        }
-        return org;
-    }
-
 }
 
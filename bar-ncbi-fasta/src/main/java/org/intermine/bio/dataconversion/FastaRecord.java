@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * One record of a FASTA file, as returned by FastaRecordReader.  The residues are kept as one
+ * byte per residue rather than as BioJava compounds, and are added to the MD5 checksum as they
+ * are read so the sequence doesn't need to be turned into a String to be hashed.
+ *
+ * Records are reused by the reader, so the contents are only valid until the next record is
+ * read.
+ */
+public class FastaRecord
+{
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private String header = "";
+    private byte[] residues = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+    // residues before this have been added to the checksum
+    private int digested = 0;
+    private final MessageDigest md5;
+    private String md5checksum = null;
+
+    /**
+     * Construct an empty record.
+     */
+    FastaRecord() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    /**
+     * @return the header line without the leading '&gt;'
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return number of residues
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return MD5 checksum of the residues in lower case hex, the same as
+     * Util.getMd5checksum() of the residues as a String
+     */
+    public String getMd5checksum() {
+        if (md5checksum == null) {
+            digest();
+            byte[] bytes = md5.digest();
+            char[] hex = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+            }
+            md5checksum = new String(hex);
+        }
+        return md5checksum;
+    }
+
+    /**
+     * @return the residues, backed by the record rather than copied
+     */
+    public CharSequence getResidues() {
+        return new Residues(0, length);
+    }
+
+    void clear(String newHeader) {
+        header = newHeader;
+        length = 0;
+        digested = 0;
+        md5.reset();
+        md5checksum = null;
+    }
+
+    // add the residues appended since the last call to the checksum
+    void digest() {
+        if (length > digested) {
+            md5.update(residues, digested, length - digested);
+            digested = length;
+        }
+    }
+
+    void append(byte residue) {
+        if (length == residues.length) {
+            grow();
+        }
+        residues[length++] = residue;
+    }
+
+    private void grow() {
+        if (residues.length == Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("FASTA record too long: " + header);
+        }
+        int capacity = (int) Math.min(residues.length * 2L, Integer.MAX_VALUE - 8);
+        byte[] bigger = new byte[capacity];
+        System.arraycopy(residues, 0, bigger, 0, length);
+        residues = bigger;
+    }
+
+    /**
+     * A view of some of the residue bytes.
+     */
+    private class Residues implements CharSequence
+    {
+        private final int start;
+        private final int end;
+
+        Residues(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index: " + index);
+            }
+            return (char) (residues[start + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to) {
+                throw new IndexOutOfBoundsException("from: " + from + " to: " + to);
+            }
+            return new Residues(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(residues, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
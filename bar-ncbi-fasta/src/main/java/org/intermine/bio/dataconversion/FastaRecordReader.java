@@ -0,0 +1,219 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads a FASTA file one record at a time, so a file of whole chromosomes can be loaded
+ * without holding more than one of them in memory.
+ *
+ * The file is parsed the same way as the BioJava FastaReader: lines are trimmed, blank lines
+ * and lines starting with ';' are ignored and the header is the rest of the line after the
+ * '&gt;'.  Records with residues that aren't in the DNA or protein alphabet are skipped with a
+ * warning and protein residues are upper cased.
+ */
+public class FastaRecordReader
+{
+    private static final Logger LOG = Logger.getLogger(FastaRecordReader.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String DNA_RESIDUES = "ACGTNRYKMSWBDHVI-";
+    private static final String PROTEIN_RESIDUES = "ABCDEFGHIJKLMNOPQRSTUVWXYZ*-.";
+    private static final byte[] DNA_ALPHABET = new byte[256];
+    private static final byte[] PROTEIN_ALPHABET = new byte[256];
+
+    static {
+        for (char c : DNA_RESIDUES.toCharArray()) {
+            DNA_ALPHABET[c] = (byte) c;
+            DNA_ALPHABET[Character.toLowerCase(c)] = (byte) Character.toLowerCase(c);
+        }
+        for (char c : PROTEIN_RESIDUES.toCharArray()) {
+            PROTEIN_ALPHABET[c] = (byte) c;
+            PROTEIN_ALPHABET[Character.toLowerCase(c)] = (byte) c;
+        }
+    }
+
+    // where the reader is in the current line
+    private static final int LINE_START = 0;
+    private static final int RESIDUES = 1;
+    private static final int COMMENT = 2;
+
+    private final InputStream in;
+    private final byte[] alphabet;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int state = LINE_START;
+    private byte[] headerBytes = new byte[256];
+
+    private final FastaRecord record = new FastaRecord();
+    // a header or residues have been read for the current record
+    private boolean inRecord = false;
+    // header of the record after the current one
+    private String nextHeader = null;
+    // trailing white space seen in the current residue line
+    private boolean space = false;
+    private int invalidResidue = -1;
+
+    /**
+     * Construct a reader.
+     * @param in the FASTA file, closing it is up to the caller
+     * @param protein true to read protein sequences, false for DNA
+     */
+    public FastaRecordReader(InputStream in, boolean protein) {
+        this.in = in;
+        this.alphabet = protein ? PROTEIN_ALPHABET : DNA_ALPHABET;
+    }
+
+    /**
+     * Read the next record.  The same FastaRecord object is returned each time.
+     * @return the next record or null at the end of the file
+     * @throws IOException if the file can't be read
+     */
+    public FastaRecord next() throws IOException {
+        if (nextHeader != null) {
+            startRecord(nextHeader);
+            nextHeader = null;
+        }
+        while (true) {
+            if (pos == limit && !fill()) {
+                if (inRecord) {
+                    inRecord = false;
+                    // the last header without residues is dropped too
+                    if (record.getLength() > 0 && isValid()) {
+                        return record;
+                    }
+                }
+                return null;
+            }
+            int b = buffer[pos++] & 0xff;
+            if (b == '\n' || b == '\r') {
+                if (state == RESIDUES) {
+                    // hash each line while it is still in the cache
+                    record.digest();
+                }
+                state = LINE_START;
+                space = false;
+                continue;
+            }
+            switch (state) {
+                case LINE_START:
+                    if (b <= ' ') {
+                        continue;
+                    }
+                    if (b == '>') {
+                        String header = readHeader();
+                        if (record.getLength() > 0) {
+                            // like BioJava, a header without any residues is dropped
+                            nextHeader = header;
+                            if (isValid()) {
+                                return record;
+                            }
+                            startRecord(nextHeader);
+                            nextHeader = null;
+                        } else {
+                            startRecord(header);
+                        }
+                        continue;
+                    }
+                    if (b == ';') {
+                        state = COMMENT;
+                        continue;
+                    }
+                    state = RESIDUES;
+                    inRecord = true;
+                    addResidue(b);
+                    break;
+                case RESIDUES:
+                    addResidue(b);
+                    break;
+                default:
+                    // comment, skip to the end of the line
+                    break;
+            }
+        }
+    }
+
+    private void startRecord(String header) {
+        record.clear(header);
+        inRecord = true;
+        invalidResidue = -1;
+    }
+
+    private boolean isValid() {
+        if (invalidResidue < 0) {
+            return true;
+        }
+        LOG.warn("Sequence with header '" + record.getHeader() + "' has unrecognised residue '"
+                + (char) invalidResidue + "', it will be ignored");
+        return false;
+    }
+
+    private void addResidue(int b) {
+        if (b <= ' ') {
+            // only allowed at the end of the line
+            space = true;
+            return;
+        }
+        if (invalidResidue >= 0) {
+            return;
+        }
+        byte residue = alphabet[b];
+        if (space) {
+            invalidResidue = ' ';
+        } else if (residue == 0) {
+            invalidResidue = b;
+        } else {
+            record.append(residue);
+        }
+    }
+
+    // the rest of the current line, without trailing white space
+    private String readHeader() throws IOException {
+        int length = 0;
+        while (pos < limit || fill()) {
+            byte b = buffer[pos];
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            pos++;
+            if (length == headerBytes.length) {
+                byte[] bigger = new byte[length * 2];
+                System.arraycopy(headerBytes, 0, bigger, 0, length);
+                headerBytes = bigger;
+            }
+            headerBytes[length++] = b;
+        }
+        while (length > 0 && (headerBytes[length - 1] & 0xff) <= ' ') {
+            length--;
+        }
+        // BioJava reads the file with the default character set
+        return new String(headerBytes, 0, length, Charset.defaultCharset());
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        while (read == 0) {
+            read = in.read(buffer, 0, buffer.length);
+        }
+        if (read < 0) {
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2019 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Util;
+
+/**
+ * Tests for the FastaRecordReader and FastaRecord classes.
+ */
+public class FastaRecordReaderTest extends TestCase
+{
+    public void testMultiLineRecords() throws Exception {
+        String file = ">chr1 first\nACGTN\nacgta\n\n;comment\nAC\n>chr2\nGGCC\n";
+        assertEquals(Arrays.asList("chr1 first:ACGTNacgtaAC", "chr2:GGCC"), readAll(file, false));
+    }
+
+    public void testWindowsLineEnds() throws Exception {
+        String file = ">chr1 first \r\nACGTN\r\nACGTA\r\n>chr2\r\nGGCC\r\n";
+        assertEquals(Arrays.asList("chr1 first:ACGTNACGTA", "chr2:GGCC"), readAll(file, false));
+        FastaRecord record = reader(file, false).next();
+        assertEquals("6dd2ea8ce477d9c1471cfb2304cefda3", record.getMd5checksum());
+    }
+
+    public void testEmptyLastRecord() throws Exception {
+        assertEquals(Arrays.asList("chr1:ACGT"), readAll(">chr1\nACGT\n>chr2\n", false));
+        assertEquals(Arrays.asList("chr1:ACGT"), readAll(">chr1\nACGT\n>chr2", false));
+        assertEquals(Arrays.asList(), readAll(">chr1\n\n", false));
+    }
+
+    public void testHeaderWithoutResidues() throws Exception {
+        assertEquals(Arrays.asList("chr2:ACGT", "chr4:TT"),
+                readAll(">chr1\n>chr2\nACGT\n>chr3\n>chr4\nTT\n", false));
+    }
+
+    public void testInvalidResidues() throws Exception {
+        // DNA with a protein residue, and a space inside a line
+        assertEquals(Arrays.asList("ok:AC"),
+                readAll(">bad\nACGE\n>ok\nAC\n>space\nAC GT\n", false));
+        // proteins are upper cased
+        assertEquals(Arrays.asList("P1:MKVLA*"), readAll(">P1\nmkvla*\n", true));
+    }
+
+    public void testMd5checksum() throws Exception {
+        FastaRecord record = reader(">P1\nMKV\nLA\n", true).next();
+        assertEquals("78f24a5d046064dc4f4b7bf0b4386891", record.getMd5checksum());
+        // the same again, once worked out
+        assertEquals("78f24a5d046064dc4f4b7bf0b4386891", record.getMd5checksum());
+    }
+
+    public void testMd5checksumOfLongRecord() throws Exception {
+        // longer than the reader's buffer, so it is hashed a line and a buffer at a time
+        StringBuilder file = new StringBuilder(">long\n");
+        for (int i = 0; i < 100000; i++) {
+            file.append("ACGT".charAt((i * 7 + i / 3) % 4));
+            if (i % 60 == 59) {
+                file.append('\n');
+            }
+        }
+        file.append("\n>short\nAC\n");
+        FastaRecordReader reader = reader(file.toString(), false);
+        FastaRecord record = reader.next();
+        assertEquals(100000, record.getLength());
+        assertEquals("6fd7f600dfd25a999d1138c99c9829ad", record.getMd5checksum());
+        // the record is reused, with a new checksum
+        record = reader.next();
+        assertEquals("short", record.getHeader());
+        assertEquals(Util.getMd5checksum("AC"), record.getMd5checksum());
+        assertNull(reader.next());
+    }
+
+    public void testResidues() throws Exception {
+        FastaRecord record = reader(">chr1\nACGTN\n", false).next();
+        CharSequence residues = record.getResidues();
+        assertEquals(5, residues.length());
+        assertEquals('G', residues.charAt(2));
+        assertEquals("GT", residues.subSequence(2, 4).toString());
+        try {
+            residues.charAt(5);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    private static FastaRecordReader reader(String file, boolean protein) throws IOException {
+        return new FastaRecordReader(new ByteArrayInputStream(file.getBytes("US-ASCII")),
+                protein);
+    }
+
+    // header:residues of each record
+    private static List<String> readAll(String file, boolean protein) throws IOException {
+        FastaRecordReader reader = reader(file, protein);
+        List<String> records = new ArrayList<String>();
+        FastaRecord record;
+        while ((record = reader.next()) != null) {
+            records.add(record.getHeader() + ":" + record.getResidues());
+        }
+        return records;
+    }
+}
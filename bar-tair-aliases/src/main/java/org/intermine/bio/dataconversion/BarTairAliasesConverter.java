@@ -19,8 +19,6 @@ import java.io.File;
 import java.io.Reader;
 import java.util.*;
 
-import static org.intermine.util.FormattedTextParser.parseTabDelimitedReader;
-
 /**
  * This is the main program
  * @author Asher
@@ -52,80 +50,70 @@ public class BarTairAliasesConverter extends BioFileConverter
 
         // Only load Functional Descriptions file at this point.
         if (currentFile.getName().startsWith("gene_aliases_")) {
-            // Create a Iterator and open the tsv file from TAIR.
-            Iterator<?> tsvIter = null;
-
+            // Create a tokenizer and open the tsv file from TAIR.
+            Reader in = CompressedInput.getReader(currentFile, reader);
             try {
-                tsvIter = parseTabDelimitedReader(reader);
-            } catch (Exception e) {
-                System.err.println("Cannot parse file: " + getCurrentFile());
-            }
+                TabTokenizer tokenizer = new TabTokenizer(in);
 
-            // Just a variable to skip the header
-            boolean firstLine = true;
-            String currentGene = "";
-            // Store gene aliases
-            String geneAlias = "";
-            List<String> aliases = new ArrayList<>();
+                String currentGene = "";
+                // Store gene aliases
+                String geneAlias = "";
+                List<String> aliases = new ArrayList<>();
 
-            assert tsvIter != null;
-            while (tsvIter.hasNext()) {
-
-                // Skip header
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
-                }
+                // The header is dropped by the gene id check below
+                while (tokenizer.next()) {
 
-                // Now start reading the lines.
-                String[] line = (String[]) tsvIter.next();
+                    // Check length
+                    if (tokenizer.getColumnCount() < 2) {
+                        continue;
+                    }
 
-                // Check length
-                if (line.length < 2) {
-                    continue;
-                }
+                    // Now check if Gene Id is in the form of AT1G01010.1.
+                    // It would start with AT, and is 9 characters long (Avoiding regex for speed).
+                    // Checked before making Strings of the columns.
+                    if (!tokenizer.startsWith(0, "AT") || tokenizer.getLength(0) != 9) {
+                        continue;
+                    }
 
-                // Get data: short_description    Curator_summary    Computational_description
-                String geneId = line[0];
-                String symbol = line[1];
+                    // Get data: short_description    Curator_summary    Computational_description
+                    String geneId = tokenizer.getString(0).toUpperCase();
+                    String symbol = tokenizer.getString(1);
 
-                // NULLs
-                if (symbol == "NULL") {
-                    symbol = "";
-                }
-
-                // Now check if Gene Id is in the form of AT1G01010.1.
-                // It would start with AT, and is 9 characters long (Avoiding regex for speed).
-                if (geneId.startsWith("AT") && geneId.length() == 9) {
-                    geneId = geneId.toUpperCase();
-                } else {
-                    continue;
-                }
+                    // NULLs
+                    if (symbol == "NULL") {
+                        symbol = "";
+                    }
 
-                if (currentGene.isEmpty()) {
-                    // New Gene, So create one
-                    currentGene = geneId;
-                    aliases.add(symbol);
-                } else if (currentGene.equals(geneId)) {
-                    // The Gene is already seen. So append gene alias
-                    // Also, check if alias is present. (Example: See ABI3 gene data)
-                    if (!aliases.contains(symbol)) {
+                    if (currentGene.isEmpty()) {
+                        // New Gene, So create one
+                        currentGene = geneId;
                         aliases.add(symbol);
-                    }
-                } else {
-                    // The Gene has changed. First save the old data, then save the now data
-                    if (aliases.isEmpty()) {
-                        geneAlias = "";
+                    } else if (currentGene.equals(geneId)) {
+                        // The Gene is already seen. So append gene alias
+                        // Also, check if alias is present. (Example: See ABI3 gene data)
+                        if (!aliases.contains(symbol)) {
+                            aliases.add(symbol);
+                        }
                     } else {
-                        geneAlias = String.join(", ", aliases);
+                        // The Gene has changed. First save the old data, then save the now data
+                        if (aliases.isEmpty()) {
+                            geneAlias = "";
+                        } else {
+                            geneAlias = String.join(", ", aliases);
+                        }
+                        aliases.clear();
+
+                        createBioEntity(currentGene, geneAlias);
+
+                        // Creating new data
+                        currentGene = geneId;
+                        aliases.add(symbol);
                     }
-                    aliases.clear();
-
-                    createBioEntity(currentGene, geneAlias);
-
-                    // Creating new data
-                    currentGene = geneId;
-                    aliases.add(symbol);
+                }
+            } finally {
+                // a reader of the uncompressed file is ours to close, unlike the one passed in
+                if (in != reader) {
+                    in.close();
                 }
             }
         } else {
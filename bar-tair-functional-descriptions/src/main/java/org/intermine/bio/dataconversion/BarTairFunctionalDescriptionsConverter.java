@@ -18,11 +18,8 @@ import org.intermine.xml.full.Item;
 import java.io.File;
 import java.io.Reader;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
-import static org.intermine.util.FormattedTextParser.parseTabDelimitedReader;
-
 /**
  * This is the main program.
  * @author Asher
@@ -53,65 +50,55 @@ public class BarTairFunctionalDescriptionsConverter extends BioFileConverter
 
         // Only load Functional Descriptions file at this point.
         if (currentFile.getName().startsWith("Araport11_functional_descriptions_")) {
-            // Create a Iterator and open the tsv file from TAIR.
-            Iterator<?> tsvIter = null;
-
+            // Create a tokenizer and open the tsv file from TAIR.
+            Reader in = CompressedInput.getReader(currentFile, reader);
             try {
-                tsvIter = parseTabDelimitedReader(reader);
-            } catch (Exception e) {
-                System.err.println("Cannot parse file: " + getCurrentFile());
-            }
-
-            // Just a variable to skip the header
-            boolean firstLine = true;
-
-            assert tsvIter != null;
-            while (tsvIter.hasNext()) {
-
-                // Skip header
-                if (firstLine) {
-                    firstLine = false;
-                    continue;
+                TabTokenizer tokenizer = new TabTokenizer(in);
+
+                // The header is dropped by the gene id check below
+                while (tokenizer.next()) {
+
+                    // Check length
+                    if (tokenizer.getColumnCount() < 5) {
+                        continue;
+                    }
+
+                    // Now check if Gene Id is in the form of AT1G01010.1.
+                    // It would start with AT, end with .1 and is 11 characters long (Avoiding regex for speed).
+                    // Checked before making Strings of the columns.
+                    CharSequence id = tokenizer.getColumn(0);
+                    if (!tokenizer.startsWith(0, "AT") || id.length() != 11
+                            || id.charAt(9) != '.' || id.charAt(10) != '1') {
+                        continue;
+                    }
+
+                    // Get data: short_description	Curator_summary	Computational_description
+                    String geneId = tokenizer.getString(0).substring(0, 9).toUpperCase();
+                    String shortDescription = tokenizer.getString(2);
+                    String curatorSummary = tokenizer.getString(3);
+                    String computationalDescription = tokenizer.getString(4);
+
+                    // NULLs
+                    if (shortDescription == "NULL") {
+                        shortDescription = "";
+                    }
+
+                    if (curatorSummary == "NULL") {
+                        curatorSummary = "";
+                    }
+
+                    if (computationalDescription == "NULL") {
+                        computationalDescription = "";
+                    }
+
+                    // Create and store data if it doesn't exists
+                    createBioEntity(geneId, shortDescription, curatorSummary, computationalDescription);
                 }
-
-                // Now start reading the lines.
-                String[] line = (String[]) tsvIter.next();
-
-                // Check length
-                if (line.length < 5) {
-                    continue;
+            } finally {
+                // a reader of the uncompressed file is ours to close, unlike the one passed in
+                if (in != reader) {
+                    in.close();
                 }
-
-
-                // Get data: short_description	Curator_summary	Computational_description
-                String geneId = line[0];
-                String shortDescription = line[2];
-                String curatorSummary = line[3];
-                String computationalDescription = line[4];
-
-                // NULLs
-                if (shortDescription == "NULL") {
-                    shortDescription = "";
-                }
-
-                if (curatorSummary == "NULL") {
-                    curatorSummary = "";
-                }
-
-                if (computationalDescription == "NULL") {
-                    computationalDescription = "";
-                }
-
-                // Now check if Gene Id is in the form of AT1G01010.1.
-                // It would start with AT, end with .1 and is 11 characters long (Avoiding regex for speed).
-                if (geneId.startsWith("AT") && geneId.endsWith(".1") && geneId.length() == 11) {
-                    geneId = geneId.substring(0, geneId.length() - 2).toUpperCase();
-                } else {
-                    continue;
-                }
-
-                // Create and store data if it doesn't exists
-                createBioEntity(geneId, shortDescription, curatorSummary, computationalDescription);
             }
         } else {
             System.err.println("The file: " + currentFile.getName() + " can not be loaded by this loader!");
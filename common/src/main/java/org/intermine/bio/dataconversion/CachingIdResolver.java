@@ -0,0 +1,292 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Remembers what an IdResolver made of each identifier, for converters that look up the same
+ * genes on many lines.  An identifier is resolved by asking the IdResolver how many
+ * resolutions it has and then for the one resolution, so without this each line costs a few
+ * lookups, and more when a failure is logged.  Here each distinct identifier is resolved and
+ * any failure logged once, as long as it stays in the cache.
+ *
+ * The cache holds up to a fixed number of identifiers, dropping the least recently used.  It
+ * can be used from several threads, like the threads GoConverter parses lines with.
+ *
+ * Building a resolver from its files can take minutes, so the resolver can be made when it's
+ * first needed and the answers saved in a snapshot file, see useSnapshot().  A later run with
+ * the same resolver files then only builds the resolver for identifiers that aren't in the
+ * snapshot.
+ */
+public class CachingIdResolver
+{
+    private static final Logger LOG = Logger.getLogger(CachingIdResolver.class);
+    /**
+     * Default number of identifiers to remember.
+     */
+    public static final int DEFAULT_SIZE = 1000000;
+    private static final int SEGMENTS = 16;
+    // cached for identifiers that don't resolve to exactly one identifier
+    private static final String UNRESOLVED = new String("unresolved");
+
+    private ResolverFactory factory;
+    private IdResolver resolver = null;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<String, Boolean> taxa = new ConcurrentHashMap<String, Boolean>();
+    private File snapshotFile = null;
+    private long fingerprint;
+    private ResolverSnapshot snapshot = null;
+    private final AtomicLong snapshotHits = new AtomicLong();
+    // identifiers looked up in the resolver, to add to the snapshot
+    private final Map<String, String> learned = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Makes the resolver when it is first needed, eg. with IdResolverService.
+     */
+    public interface ResolverFactory
+    {
+        /**
+         * @return the resolver, null if there isn't one
+         */
+        IdResolver getResolver();
+    }
+
+    /**
+     * @param resolver the resolver to look identifiers up in
+     * @param size number of identifiers to remember
+     */
+    public CachingIdResolver(final IdResolver resolver, int size) {
+        this(new ResolverFactory() {
+            @Override
+            public IdResolver getResolver() {
+                return resolver;
+            }
+        }, size);
+    }
+
+    /**
+     * @param factory makes the resolver to look identifiers up in, when it is needed
+     * @param size number of identifiers to remember
+     */
+    public CachingIdResolver(ResolverFactory factory, int size) {
+        this.factory = factory;
+        int segmentSize = Math.max(1, size / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * @return the resolver identifiers are looked up in, made if it hasn't been yet
+     */
+    public synchronized IdResolver getResolver() {
+        if (factory != null) {
+            long start = System.currentTimeMillis();
+            resolver = factory.getResolver();
+            factory = null;
+            LOG.info("Made id resolver in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return resolver;
+    }
+
+    /**
+     * Answer lookups from a snapshot file, and add the identifiers looked up in the resolver to
+     * it in saveSnapshot().  The snapshot is only used if it was made from the same resolver
+     * files.  A resolver made from files isn't changed by anything else, so the answers saved
+     * are still right as long as the files are the same.
+     * @param file the snapshot file, doesn't need to exist
+     * @param name what the resolver is, eg. "fly", so that snapshots of other resolvers aren't
+     * used
+     * @param sources the files the resolver is built from, or directories of them, separated by
+     * commas
+     * @throws IOException if the snapshot can't be read
+     */
+    public void useSnapshot(File file, String name, String sources) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (String source : sources.split(",")) {
+            if (source.trim().length() > 0) {
+                files.add(new File(source.trim()));
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No resolver files given for the snapshot " + file
+                    + ", they are needed to tell when the snapshot is out of date");
+        }
+        snapshotFile = file;
+        fingerprint = ResolverSnapshot.fingerprint(name, files);
+        long start = System.currentTimeMillis();
+        snapshot = ResolverSnapshot.open(file, fingerprint);
+        if (snapshot != null) {
+            LOG.info("Opened resolver snapshot " + file + " with " + snapshot.getEntryCount()
+                    + " identifiers in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Write the snapshot file given to useSnapshot(), if any identifiers were looked up in the
+     * resolver.
+     * @throws IOException if the snapshot can't be written
+     */
+    public void saveSnapshot() throws IOException {
+        if (snapshotFile == null || (snapshot != null && learned.isEmpty()
+                && snapshot.getTaxa().keySet().containsAll(taxa.keySet()))) {
+            return;
+        }
+        Map<String, Boolean> allTaxa = new HashMap<String, Boolean>();
+        Map<String, String> entries;
+        if (snapshot != null) {
+            allTaxa.putAll(snapshot.getTaxa());
+            entries = snapshot.getEntries(UNRESOLVED);
+        } else {
+            entries = new HashMap<String, String>();
+        }
+        allTaxa.putAll(taxa);
+        entries.putAll(learned);
+        ResolverSnapshot.write(snapshotFile, fingerprint, allTaxa, entries, UNRESOLVED);
+        LOG.info("Wrote resolver snapshot " + snapshotFile + " with " + entries.size()
+                + " identifiers");
+    }
+
+    /**
+     * @param taxonId a taxon id
+     * @return true if the resolver has identifiers for the taxon
+     */
+    public boolean hasTaxon(String taxonId) {
+        Boolean hasTaxon = taxa.get(taxonId);
+        if (hasTaxon == null && snapshot != null) {
+            hasTaxon = snapshot.hasTaxon(taxonId);
+        }
+        if (hasTaxon == null) {
+            IdResolver idResolver = getResolver();
+            hasTaxon = Boolean.valueOf(idResolver != null && idResolver.hasTaxon(taxonId));
+            taxa.put(taxonId, hasTaxon);
+        }
+        return hasTaxon.booleanValue();
+    }
+
+    /**
+     * Find the current identifier of a gene.
+     * @param taxonId the taxon of the gene
+     * @param identifier any identifier of the gene
+     * @return the identifier, null if the resolver doesn't find exactly one
+     */
+    public String resolveOne(String taxonId, String identifier) {
+        String key = taxonId + '\t' + identifier;
+        Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+        String resolved;
+        synchronized (segment) {
+            resolved = segment.get(key);
+        }
+        if (resolved != null) {
+            hits.incrementAndGet();
+        } else {
+            if (snapshot != null) {
+                resolved = snapshot.get(key, UNRESOLVED);
+            }
+            if (resolved != null) {
+                snapshotHits.incrementAndGet();
+            } else {
+                // another thread might resolve it at the same time, which is harmless
+                misses.incrementAndGet();
+                resolved = resolve(taxonId, identifier);
+                if (snapshotFile != null) {
+                    learned.put(key, resolved);
+                }
+            }
+            synchronized (segment) {
+                segment.put(key, resolved);
+            }
+        }
+        return resolved == UNRESOLVED ? null : resolved;
+    }
+
+    private String resolve(String taxonId, String identifier) {
+        IdResolver idResolver = getResolver();
+        if (idResolver == null) {
+            LOG.info("RESOLVER: no id resolver, ignoring gene: " + identifier);
+            return UNRESOLVED;
+        }
+        int resCount = idResolver.countResolutions(taxonId, identifier);
+        Set<String> resolved = idResolver.resolveId(taxonId, identifier);
+        if (resCount != 1) {
+            LOG.info("RESOLVER: failed to resolve gene to one identifier, ignoring gene: "
+                    + identifier + " count: " + resCount + " ID: " + resolved);
+            return UNRESOLVED;
+        }
+        return resolved.iterator().next();
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups answered from the snapshot
+     */
+    public long getSnapshotHits() {
+        return snapshotHits.get();
+    }
+
+    /**
+     * @return number of lookups made in the resolver
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        long hitCount = hits.get();
+        long total = hitCount + snapshotHits.get() + misses.get();
+        return "resolver cache hits: " + hitCount + " of " + total + " lookups ("
+            + (total == 0 ? 0 : hitCount * 100 / total) + "%), snapshot hits: "
+            + snapshotHits.get() + ", resolver lookups: " + misses.get();
+    }
+
+    /**
+     * Part of the cache, in access order to drop the least recently used identifiers.
+     */
+    private static class Segment extends LinkedHashMap<String, String>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Opens data files that may be compressed, so sources can read .gz, .bgz and .zst files
+ * without unpacking them to disk first.  The compression is chosen by the file extension,
+ * any other file is read as it is.
+ *
+ * Block compressed (BGZF) files, as written by bgzip, are inflated on several threads ahead
+ * of the reader.  Plain gzip and zstd files can only be decompressed by one thread.
+ */
+public final class CompressedInput
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    // most blocks inflated ahead of the reader, per thread
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int GZIP_HEADER_SIZE = 18;
+
+    private CompressedInput() {
+        // don't
+    }
+
+    /**
+     * @param file a data file
+     * @return true if the file will be decompressed by open()
+     */
+    public static boolean isCompressed(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".gz") || name.endsWith(".bgz") || name.endsWith(".zst");
+    }
+
+    /**
+     * @param file a data file
+     * @return the file name without any compression extension, eg. uniprot_sprot.xml for
+     * uniprot_sprot.xml.gz
+     */
+    public static String getUncompressedName(File file) {
+        String name = file.getName();
+        if (isCompressed(file)) {
+            return name.substring(0, name.lastIndexOf('.'));
+        }
+        return name;
+    }
+
+    /**
+     * Open a file, decompressing it if needed.  Uses up to 4 threads for block compressed
+     * files.
+     * @param file a data file
+     * @return stream of the uncompressed contents
+     * @throws IOException if the file can't be read
+     */
+    public static InputStream open(File file) throws IOException {
+        return open(file, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Open a file, decompressing it if needed.
+     * @param file a data file
+     * @param threads number of threads to inflate block compressed files with
+     * @return stream of the uncompressed contents
+     * @throws IOException if the file can't be read
+     */
+    public static InputStream open(File file, int threads) throws IOException {
+        String name = file.getName().toLowerCase();
+        InputStream in = new FileInputStream(file);
+        try {
+            if (name.endsWith(".zst")) {
+                return new BufferedInputStream(new ZstdInputStream(in), BUFFER_SIZE);
+            }
+            if (name.endsWith(".gz") || name.endsWith(".bgz")) {
+                PushbackInputStream pushback = new PushbackInputStream(in, GZIP_HEADER_SIZE);
+                byte[] header = new byte[GZIP_HEADER_SIZE];
+                int read = readFully(pushback, header, 0, header.length);
+                pushback.unread(header, 0, read);
+                if (threads > 1 && read == header.length && isBgzfHeader(header)) {
+                    return new BgzfInputStream(pushback, threads);
+                }
+                return new GZIPInputStream(pushback, BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a file as characters, decompressing it if needed.  Uses the default character
+     * set like FileReader does.
+     * @param file a data file
+     * @return reader of the uncompressed contents
+     * @throws IOException if the file can't be read
+     */
+    public static Reader openReader(File file) throws IOException {
+        return new InputStreamReader(open(file));
+    }
+
+    /**
+     * For converters that are handed a reader of the current file: the reader if the file
+     * isn't compressed, otherwise a new reader of the uncompressed contents.
+     * @param file the file being converted, may be null
+     * @param reader reader of the file as it is on disk
+     * @return reader to parse
+     * @throws IOException if the file can't be read
+     */
+    public static Reader getReader(File file, Reader reader) throws IOException {
+        if (file == null || !isCompressed(file)) {
+            return reader;
+        }
+        return openReader(file);
+    }
+
+    // gzip member with an extra field holding the BGZF "BC" sub field
+    private static boolean isBgzfHeader(byte[] header) {
+        return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139
+                && (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C';
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off, int len)
+        throws IOException {
+        int total = 0;
+        while (total < len) {
+            int read = in.read(buf, off + total, len - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Reads a BGZF file.  The compressed blocks are read by the calling thread and inflated
+     * by a pool of threads, the uncompressed blocks are returned in order.
+     */
+    private static class BgzfInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final ExecutorService executor;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        private final int maxPending;
+        private boolean eof = false;
+        private byte[] block = new byte[0];
+        private int pos = 0;
+
+        BgzfInputStream(InputStream in, int threads) {
+            this.in = in;
+            this.maxPending = threads * BLOCKS_PER_THREAD;
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 10L,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "bgzf-inflater");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // threads go away if the stream isn't closed
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return block[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, block.length - pos);
+            System.arraycopy(block, pos, buf, off, count);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            executor.shutdownNow();
+            in.close();
+        }
+
+        // make sure there is something left in the current block, false at the end
+        private boolean fill() throws IOException {
+            while (pos >= block.length) {
+                while (!eof && pending.size() < maxPending) {
+                    byte[] compressed = readBlock();
+                    if (compressed == null) {
+                        eof = true;
+                    } else {
+                        pending.add(executor.submit(new Inflate(compressed)));
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    block = pending.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to inflate BGZF block", e.getCause());
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        // the next whole gzip member, or null at the end of the file
+        private byte[] readBlock() throws IOException {
+            byte[] header = new byte[GZIP_HEADER_SIZE];
+            int read = readFully(in, header, 0, header.length);
+            if (read == 0) {
+                return null;
+            }
+            if (read < header.length || !isBgzfHeader(header)) {
+                throw new IOException("Not a BGZF block, use gzip rather than bgzip input");
+            }
+            int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+            byte[] compressed = new byte[blockSize];
+            System.arraycopy(header, 0, compressed, 0, header.length);
+            if (readFully(in, compressed, header.length, blockSize - header.length)
+                    < blockSize - header.length) {
+                throw new EOFException("Truncated BGZF block");
+            }
+            return compressed;
+        }
+    }
+
+    /**
+     * Inflates one BGZF block and checks its CRC.
+     */
+    private static class Inflate implements Callable<byte[]>
+    {
+        private final byte[] compressed;
+
+        Inflate(byte[] compressed) {
+            this.compressed = compressed;
+        }
+
+        @Override
+        public byte[] call() throws IOException, DataFormatException {
+            int extraLength = (compressed[10] & 0xff) | ((compressed[11] & 0xff) << 8);
+            int dataStart = 12 + extraLength;
+            int trailer = compressed.length - 8;
+            int size = readInt(compressed, trailer + 4);
+            byte[] result = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed, dataStart, trailer - dataStart);
+                int inflated = 0;
+                while (inflated < size && !inflater.finished()) {
+                    int count = inflater.inflate(result, inflated, size - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != size) {
+                    throw new IOException("Corrupt BGZF block, expected " + size
+                            + " bytes but got " + inflated);
+                }
+            } finally {
+                inflater.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(result, 0, size);
+            if ((int) crc.getValue() != readInt(compressed, trailer)) {
+                throw new IOException("Corrupt BGZF block, CRC doesn't match");
+            }
+            return result;
+        }
+
+        private static int readInt(byte[] buf, int off) {
+            return (buf[off] & 0xff) | ((buf[off + 1] & 0xff) << 8)
+                    | ((buf[off + 2] & 0xff) << 16) | ((buf[off + 3] & 0xff) << 24);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A file of what an IdResolver made of identifiers, written at the end of a run so the next
+ * run can answer them without building the resolver.  The identifiers are sorted by their
+ * bytes and the file is memory mapped, so it's ready as soon as it's opened and lookups are a
+ * binary search in the file.
+ *
+ * The file starts with a fingerprint of the files the resolver was built from, a file with
+ * another fingerprint is ignored.
+ *
+ * Format: magic, version, fingerprint, the taxa the resolver was asked about and whether it
+ * had them, the number of entries, the offset of each entry, then the entries.  An entry is
+ * the length and UTF-8 bytes of "taxonId\tidentifier" and of the resolved identifier, -1 for
+ * an identifier that didn't resolve to exactly one.
+ */
+class ResolverSnapshot
+{
+    private static final Logger LOG = Logger.getLogger(ResolverSnapshot.class);
+    private static final int MAGIC = 0x49445253;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MappedByteBuffer buffer;
+    private final Map<String, Boolean> taxa;
+    private final int entryCount;
+    // offset of the entry offsets
+    private final int index;
+    // offset the entry offsets are from
+    private final int data;
+
+    private ResolverSnapshot(MappedByteBuffer buffer, Map<String, Boolean> taxa, int entryCount,
+            int index) {
+        this.buffer = buffer;
+        this.taxa = taxa;
+        this.entryCount = entryCount;
+        this.index = index;
+        this.data = index + 4 * entryCount;
+    }
+
+    /**
+     * Open a snapshot file.
+     * @param file the file
+     * @param fingerprint fingerprint of the resolver's files now
+     * @return the snapshot, null if there isn't one or it was made from other files
+     * @throws IOException if the file can't be read
+     */
+    static ResolverSnapshot open(File file, long fingerprint) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        if (file.length() > Integer.MAX_VALUE) {
+            LOG.warn("Ignoring resolver snapshot " + file + ", it is too big to map");
+            return null;
+        }
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            LOG.warn("Ignoring resolver snapshot " + file + ", it isn't a snapshot file or is "
+                    + "from another version");
+            return null;
+        }
+        if (buffer.getLong(8) != fingerprint) {
+            LOG.info("Ignoring resolver snapshot " + file + ", the resolver files have changed");
+            return null;
+        }
+        buffer.position(16);
+        int taxonCount = buffer.getInt();
+        Map<String, Boolean> taxa = new HashMap<String, Boolean>();
+        for (int i = 0; i < taxonCount; i++) {
+            byte[] taxonId = new byte[buffer.getShort() & 0xffff];
+            buffer.get(taxonId);
+            taxa.put(new String(taxonId, StandardCharsets.UTF_8), buffer.get() != 0);
+        }
+        int entryCount = buffer.getInt();
+        return new ResolverSnapshot(buffer, taxa, entryCount, buffer.position());
+    }
+
+    /**
+     * @param taxonId a taxon id
+     * @return whether the resolver had the taxon, null if it wasn't asked
+     */
+    Boolean hasTaxon(String taxonId) {
+        return taxa.get(taxonId);
+    }
+
+    /**
+     * @return number of identifiers in the snapshot
+     */
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Look up an identifier.  Can be called from several threads.
+     * @param key "taxonId\tidentifier"
+     * @param unresolved returned for an identifier that didn't resolve to exactly one
+     * @return the resolved identifier, unresolved, or null if the identifier isn't in the
+     * snapshot
+     */
+    String get(String key, String unresolved) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = data + buffer.getInt(index + 4 * mid);
+            int cmp = compare(buffer, entry + 2, buffer.getShort(entry) & 0xffff, bytes);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return value(entry, unresolved);
+            }
+        }
+        return null;
+    }
+
+    private String value(int entry, String unresolved) {
+        int valueAt = entry + 2 + (buffer.getShort(entry) & 0xffff);
+        int length = buffer.getShort(valueAt);
+        if (length < 0) {
+            return unresolved;
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = buffer.get(valueAt + 2 + i);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param unresolved value for identifiers that didn't resolve to exactly one
+     * @return all the entries
+     */
+    Map<String, String> getEntries(String unresolved) {
+        Map<String, String> entries = new HashMap<String, String>(entryCount * 2);
+        for (int i = 0; i < entryCount; i++) {
+            int entry = data + buffer.getInt(index + 4 * i);
+            byte[] key = new byte[buffer.getShort(entry) & 0xffff];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = buffer.get(entry + 2 + j);
+            }
+            entries.put(new String(key, StandardCharsets.UTF_8), value(entry, unresolved));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the taxa the resolver was asked about
+     */
+    Map<String, Boolean> getTaxa() {
+        return Collections.unmodifiableMap(taxa);
+    }
+
+    // compare bytes in the buffer to a key, unsigned like String.compareTo() for ASCII
+    private static int compare(ByteBuffer buffer, int start, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static final Comparator<byte[][]> BY_KEY = new Comparator<byte[][]>() {
+        @Override
+        public int compare(byte[][] a, byte[][] b) {
+            byte[] x = a[0];
+            byte[] y = b[0];
+            int common = Math.min(x.length, y.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (x[i] & 0xff) - (y[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return x.length - y.length;
+        }
+    };
+
+    /**
+     * Write a snapshot file.  It is written next to the file and renamed, so a snapshot being
+     * read is never half written.
+     * @param file the file
+     * @param fingerprint fingerprint of the resolver's files
+     * @param taxa the taxa the resolver was asked about and whether it had them
+     * @param entries resolved identifier by "taxonId\tidentifier"
+     * @param unresolved the value of identifiers that didn't resolve to exactly one
+     * @throws IOException if the file can't be written
+     */
+    static void write(File file, long fingerprint, Map<String, Boolean> taxa,
+            Map<String, String> entries, String unresolved) throws IOException {
+        List<byte[][]> sorted = new ArrayList<byte[][]>(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String value = entry.getValue();
+            sorted.add(new byte[][] {entry.getKey().getBytes(StandardCharsets.UTF_8),
+                value == unresolved ? null : value.getBytes(StandardCharsets.UTF_8)});
+        }
+        Collections.sort(sorted, BY_KEY);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp), BUFFER_SIZE));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(taxa.size());
+                for (Map.Entry<String, Boolean> taxon : taxa.entrySet()) {
+                    writeBytes(out, taxon.getKey().getBytes(StandardCharsets.UTF_8));
+                    out.writeBoolean(taxon.getValue());
+                }
+                out.writeInt(sorted.size());
+                long offset = 0;
+                for (byte[][] entry : sorted) {
+                    out.writeInt((int) offset);
+                    offset += 4 + entry[0].length + (entry[1] == null ? 0 : entry[1].length);
+                    if (offset > Integer.MAX_VALUE) {
+                        throw new IOException("Too many identifiers for a resolver snapshot");
+                    }
+                }
+                for (byte[][] entry : sorted) {
+                    writeBytes(out, entry[0]);
+                    if (entry[1] == null) {
+                        out.writeShort(-1);
+                    } else {
+                        writeBytes(out, entry[1]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Identifier too long for a resolver snapshot: "
+                    + new String(bytes, 0, 100, StandardCharsets.UTF_8) + "...");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * A fingerprint of the files a resolver is built from, their names, sizes and times.  If
+     * any file changes, is added or removed the fingerprint is different.
+     * @param name what the resolver is, so snapshots of different resolvers don't match
+     * @param sources files, or directories of files
+     * @return the fingerprint
+     */
+    static long fingerprint(String name, List<File> sources) {
+        // 64 bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, name);
+        for (File source : sources) {
+            hash = fingerprint(hash, source.getAbsoluteFile());
+        }
+        return hash;
+    }
+
+    private static long fingerprint(long hash, File file) {
+        hash = hash(hash, "\n" + file.getPath());
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    hash = fingerprint(hash, child);
+                }
+            }
+        } else if (file.exists()) {
+            hash = hash(hash, "\t" + file.length() + "\t" + file.lastModified());
+        } else {
+            hash = hash(hash, "\tmissing");
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,347 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits tab delimited files into columns without making a String for every column of every
+ * line, as FormattedTextParser and String.split() do.  The current line is kept in a buffer
+ * that is reused for the whole file and the columns are CharSequence views of it, a converter
+ * only makes Strings of the columns it keeps.
+ *
+ * <pre>
+ * TabTokenizer tokenizer = new TabTokenizer(reader);
+ * while (tokenizer.next()) {
+ *     if (tokenizer.equals(0, "3702")) {
+ *         String geneId = tokenizer.getString(1);
+ * </pre>
+ *
+ * Lines are split on every tab like StringUtils.splitPreserveAllTokens(), so empty columns are
+ * kept, and lines starting with the comment character are skipped.  Unlike
+ * FormattedTextParser there are no escape characters, a backslash is read as it is.
+ *
+ * The views returned by getColumn() are only valid until the next line is read.
+ */
+public class TabTokenizer
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final char NO_COMMENT = 0;
+
+    private final Reader reader;
+    private final char comment;
+    private char[] buffer = new char[BUFFER_SIZE];
+    // buffer[pos, limit) hasn't been split into lines yet
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    // a '\r' ended the last line, so a '\n' straight after it is part of the same line end
+    private boolean skipNewline = false;
+
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int columnCount = 0;
+    // column i is buffer[starts[i], ends[i])
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private Column[] columns = new Column[0];
+
+    /**
+     * Read a file, skipping lines that start with '#' like FormattedTextParser.
+     * @param reader the file, closing it is up to the caller
+     */
+    public TabTokenizer(Reader reader) {
+        this(reader, '#');
+    }
+
+    /**
+     * Read a file, skipping lines that start with a comment character, eg. '!' for GAF files.
+     * @param reader the file, closing it is up to the caller
+     * @param comment lines starting with this character are skipped
+     */
+    public TabTokenizer(Reader reader, char comment) {
+        this.reader = reader;
+        this.comment = comment;
+    }
+
+    /**
+     * A tokenizer for lines read elsewhere, see split().  Nothing is skipped.
+     */
+    public TabTokenizer() {
+        this(null, NO_COMMENT);
+    }
+
+    /**
+     * Move to the next line that isn't a comment.
+     * @return false at the end of the file
+     * @throws IOException if the file can't be read
+     */
+    public boolean next() throws IOException {
+        while (readLine()) {
+            if (lineEnd == lineStart || buffer[lineStart] != comment || comment == NO_COMMENT) {
+                tokenize();
+                return true;
+            }
+        }
+        columnCount = 0;
+        return false;
+    }
+
+    /**
+     * Split a line that has already been read, eg. by another thread.  Each thread needs its
+     * own tokenizer.
+     * @param line a line without the line end
+     */
+    public void split(String line) {
+        if (reader != null) {
+            throw new IllegalStateException("split() is for a tokenizer without a reader");
+        }
+        int length = line.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        line.getChars(0, length, buffer, 0);
+        lineStart = 0;
+        lineEnd = length;
+        pos = 0;
+        limit = 0;
+        tokenize();
+    }
+
+    /**
+     * @return number of columns in the current line, an empty line has one empty column
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @param index column number, from 0
+     * @return a view of the column, valid until the next line is read
+     */
+    public CharSequence getColumn(int index) {
+        checkIndex(index);
+        return columns[index];
+    }
+
+    /**
+     * @param index column number, from 0
+     * @return the column as a new String
+     */
+    public String getString(int index) {
+        checkIndex(index);
+        return new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * @param index column number, from 0
+     * @return length of the column
+     */
+    public int getLength(int index) {
+        checkIndex(index);
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * @param index column number, from 0
+     * @param value a value to compare to
+     * @return true if the column is the same as the value
+     */
+    public boolean equals(int index, CharSequence value) {
+        checkIndex(index);
+        int start = starts[index];
+        int length = ends[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index column number, from 0
+     * @param prefix a prefix to look for
+     * @return true if the column starts with the prefix
+     */
+    public boolean startsWith(int index, CharSequence prefix) {
+        checkIndex(index);
+        int start = starts[index];
+        int length = prefix.length();
+        if (ends[index] - start < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the whole of the current line as a new String, for error messages
+     */
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= columnCount) {
+            throw new IndexOutOfBoundsException("Column " + index + " of " + columnCount
+                    + " in line: " + getLine());
+        }
+    }
+
+    // find the tabs in buffer[lineStart, lineEnd)
+    private void tokenize() {
+        columnCount = 0;
+        int start = lineStart;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer[i] == '\t') {
+                addColumn(start, i);
+                start = i + 1;
+            }
+        }
+        addColumn(start, lineEnd);
+    }
+
+    private void addColumn(int start, int end) {
+        if (columnCount == starts.length) {
+            int[] biggerStarts = new int[columnCount * 2];
+            int[] biggerEnds = new int[columnCount * 2];
+            System.arraycopy(starts, 0, biggerStarts, 0, columnCount);
+            System.arraycopy(ends, 0, biggerEnds, 0, columnCount);
+            starts = biggerStarts;
+            ends = biggerEnds;
+        }
+        if (columnCount == columns.length) {
+            Column[] bigger = new Column[Math.max(16, columnCount * 2)];
+            System.arraycopy(columns, 0, bigger, 0, columnCount);
+            for (int i = columnCount; i < bigger.length; i++) {
+                bigger[i] = new Column(i);
+            }
+            columns = bigger;
+        }
+        starts[columnCount] = start;
+        ends[columnCount] = end;
+        columnCount++;
+    }
+
+    // find the next line in the buffer, reading more of the file if needed.  Line ends are
+    // "\n", "\r" or "\r\n", like BufferedReader.readLine()
+    private boolean readLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            if (skipNewline) {
+                if (scan == limit && !fill()) {
+                    return false;
+                }
+                scan = pos;
+                if (buffer[pos] == '\n') {
+                    pos++;
+                    scan++;
+                }
+                skipNewline = false;
+            }
+            for (; scan < limit; scan++) {
+                char c = buffer[scan];
+                if (c == '\n' || c == '\r') {
+                    lineStart = pos;
+                    lineEnd = scan;
+                    pos = scan + 1;
+                    skipNewline = c == '\r';
+                    return true;
+                }
+            }
+            int scanned = scan - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return false;
+                }
+                // last line without a line end
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                return true;
+            }
+            scan = pos + scanned;
+        }
+    }
+
+    // move the unread part of the buffer to the start and read more after it, false if
+    // there's nothing more to read
+    private boolean fill() throws IOException {
+        if (eof || reader == null) {
+            return false;
+        }
+        int remaining = limit - pos;
+        if (remaining == buffer.length) {
+            // a line longer than the buffer
+            char[] bigger = new char[buffer.length * 2];
+            System.arraycopy(buffer, pos, bigger, 0, remaining);
+            buffer = bigger;
+        } else if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, remaining);
+        }
+        pos = 0;
+        limit = remaining;
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        while (read == 0) {
+            read = reader.read(buffer, limit, buffer.length - limit);
+        }
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * A view of one column of the current line.
+     */
+    private class Column implements CharSequence
+    {
+        private final int index;
+
+        Column(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            return ends[index] - starts[index];
+        }
+
+        @Override
+        public char charAt(int i) {
+            if (i < 0 || i >= length()) {
+                throw new IndexOutOfBoundsException("index: " + i);
+            }
+            return buffer[starts[index] + i];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, starts[index], length());
+        }
+    }
+}
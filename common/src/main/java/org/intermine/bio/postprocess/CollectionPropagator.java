@@ -0,0 +1,210 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+import org.intermine.bio.util.Constants;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Copies a many to many collection from related objects, eg. adds the publications of the
+ * transcripts of a gene to the gene.
+ *
+ * Rather than a query per object, the collection of the related objects and the collection the
+ * objects already have are read as two streams of (object id, element id) in the same order.
+ * The pairs only in the first stream are added with addToCollection, which the
+ * ObjectStoreWriter batches into bulk inserts on the join table.  IQL can't express "does not
+ * contain" for a many to many collection, hence the merge of two queries.
+ */
+public class CollectionPropagator
+{
+    private static final Logger LOG = Logger.getLogger(CollectionPropagator.class);
+    private static final int BATCH_SIZE = 5000;
+
+    private final ObjectStoreWriter osw;
+
+    /**
+     * @param osw writer to add the collection elements with
+     */
+    public CollectionPropagator(ObjectStoreWriter osw) {
+        this.osw = osw;
+    }
+
+    /**
+     * Add the elements of a collection of the related objects to the same collection of the
+     * objects, eg. propagate(Gene.class, "transcripts", "publications").  Runs in its own
+     * transaction.
+     * @param type the class to add to, eg. Gene
+     * @param relatedCollection collection of type holding the related objects, eg. transcripts
+     * @param collectionName many to many collection of both type and the related class,
+     * eg. publications
+     * @return number of elements added
+     * @throws ObjectStoreException if the queries or writes fail
+     */
+    public int propagate(Class<? extends InterMineObject> type, String relatedCollection,
+            String collectionName) throws ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+
+        ClassDescriptor cld = osw.getModel().getClassDescriptorByName(type.getName());
+        CollectionDescriptor related = cld.getCollectionDescriptorByName(relatedCollection, true);
+        CollectionDescriptor collection = cld.getCollectionDescriptorByName(collectionName, true);
+        if (related == null || collection == null
+                || collection.relationType() != CollectionDescriptor.M_N_RELATION) {
+            LOG.error("Cannot find many to many collection " + collectionName + " and collection "
+                    + relatedCollection + " for the class " + cld.getUnqualifiedName());
+            return 0;
+        }
+        ClassDescriptor relatedCld = related.getReferencedClassDescriptor();
+        if (relatedCld.getCollectionDescriptorByName(collectionName, true) == null) {
+            LOG.error("Cannot find collection " + collectionName + " for the class "
+                    + relatedCld.getUnqualifiedName());
+            return 0;
+        }
+        Class<?> elementType = collection.getReferencedClassDescriptor().getType();
+
+        Iterator<?> candidates = execute(
+                getRelatedQuery(type, relatedCollection, relatedCld.getType(), collectionName,
+                        elementType), true);
+        Iterator<?> existing = execute(getExistingQuery(type, collectionName, elementType), false);
+        ResultsRow<?> existingRow = existing.hasNext() ? (ResultsRow<?>) existing.next() : null;
+
+        int objectCount = 0;
+        int addedCount = 0;
+        Integer lastId = null;
+
+        // if the writes were committed along the way the ObjectStore would drop the precomputed
+        // tables the open results are reading from, so everything is one transaction
+        osw.beginTransaction();
+        while (candidates.hasNext()) {
+            ResultsRow<?> row = (ResultsRow<?>) candidates.next();
+            Integer id = (Integer) row.get(0);
+            Integer elementId = (Integer) row.get(1);
+
+            // skip past the elements the objects have that aren't from the related objects
+            while (existingRow != null && compare(existingRow, id, elementId) < 0) {
+                existingRow = existing.hasNext() ? (ResultsRow<?>) existing.next() : null;
+            }
+            if (existingRow != null && compare(existingRow, id, elementId) == 0) {
+                continue;
+            }
+
+            osw.addToCollection(id, type, collectionName, elementId);
+            addedCount++;
+            if (!id.equals(lastId)) {
+                objectCount++;
+                lastId = id;
+            }
+            if (addedCount % BATCH_SIZE == 0) {
+                LOG.info("Added " + addedCount + " " + collectionName + " to " + objectCount
+                        + " " + cld.getUnqualifiedName() + "s");
+            }
+        }
+        osw.commitTransaction();
+        LOG.info("Added " + addedCount + " " + collectionName + " from " + relatedCollection
+                + " to " + objectCount + " " + cld.getUnqualifiedName() + "s - took "
+                + (System.currentTimeMillis() - startTime) + " ms.");
+        return addedCount;
+    }
+
+    /**
+     * Object and element ids for every element of a related object, ordered by object then
+     * element.
+     */
+    private static Query getRelatedQuery(Class<?> type, String relatedCollection,
+            Class<?> relatedType, String collectionName, Class<?> elementType) {
+        Query q = new Query();
+        q.setDistinct(true);
+
+        QueryClass qcObject = new QueryClass(type);
+        QueryClass qcRelated = new QueryClass(relatedType);
+        QueryClass qcElement = new QueryClass(elementType);
+
+        q.addFrom(qcObject);
+        q.addFrom(qcRelated);
+        q.addFrom(qcElement);
+        addIdsToSelect(q, qcObject, qcElement);
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(
+                new QueryCollectionReference(qcObject, relatedCollection),
+                ConstraintOp.CONTAINS, qcRelated));
+        cs.addConstraint(new ContainsConstraint(
+                new QueryCollectionReference(qcRelated, collectionName),
+                ConstraintOp.CONTAINS, qcElement));
+        q.setConstraint(cs);
+        return q;
+    }
+
+    /**
+     * Object and element ids already in the collection, in the same order as getRelatedQuery().
+     */
+    private static Query getExistingQuery(Class<?> type, String collectionName,
+            Class<?> elementType) {
+        Query q = new Query();
+        q.setDistinct(true);
+
+        QueryClass qcObject = new QueryClass(type);
+        QueryClass qcElement = new QueryClass(elementType);
+
+        q.addFrom(qcObject);
+        q.addFrom(qcElement);
+        addIdsToSelect(q, qcObject, qcElement);
+
+        q.setConstraint(new ContainsConstraint(
+                new QueryCollectionReference(qcObject, collectionName),
+                ConstraintOp.CONTAINS, qcElement));
+        return q;
+    }
+
+    private static void addIdsToSelect(Query q, QueryClass qcObject, QueryClass qcElement) {
+        QueryField qfObjectId = new QueryField(qcObject, "id");
+        QueryField qfElementId = new QueryField(qcElement, "id");
+        q.addToSelect(qfObjectId);
+        q.addToSelect(qfElementId);
+        q.addToOrderBy(qfObjectId);
+        q.addToOrderBy(qfElementId);
+    }
+
+    private Iterator<?> execute(Query query, boolean precompute) throws ObjectStoreException {
+        ObjectStore os = osw.getObjectStore();
+        if (precompute) {
+            ((ObjectStoreInterMineImpl) os).precompute(query, Constants.PRECOMPUTE_CATEGORY);
+        }
+        Results res = os.execute(query, 5000, true, false, true);
+        return res.iterator();
+    }
+
+    // compare an (object id, element id) row to a pair
+    private static int compare(ResultsRow<?> row, Integer id, Integer elementId) {
+        int result = ((Integer) row.get(0)).compareTo(id);
+        if (result == 0) {
+            result = ((Integer) row.get(1)).compareTo(elementId);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,232 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Tests for the CompressedInput class.
+ */
+public class CompressedInputTest extends TestCase
+{
+    // bgzip writes blocks of up to 64k, smaller ones make more of them
+    private static final int BLOCK_SIZE = 1000;
+
+    private File dir;
+    private byte[] contents;
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("compressed-input", "");
+        dir.delete();
+        dir.mkdir();
+        // text that compresses, with some noise so the blocks differ
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            sb.append("AT").append(random.nextInt(5) + 1).append('G').append(i)
+                .append("\tGO:").append(random.nextInt(40000)).append('\n');
+        }
+        contents = sb.toString().getBytes("US-ASCII");
+    }
+
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testGetUncompressedName() {
+        assertEquals("uniprot_sprot.xml",
+                CompressedInput.getUncompressedName(new File("uniprot_sprot.xml.gz")));
+        assertEquals("generifs_basic",
+                CompressedInput.getUncompressedName(new File("/data/generifs_basic.BGZ")));
+        assertEquals("gene_association.tair",
+                CompressedInput.getUncompressedName(new File("gene_association.tair.zst")));
+        assertEquals("gene_association.tair",
+                CompressedInput.getUncompressedName(new File("gene_association.tair")));
+        assertEquals("data.tar", CompressedInput.getUncompressedName(new File("data.tar")));
+        assertFalse(CompressedInput.isCompressed(new File("file.gzip")));
+    }
+
+    public void testBgzf() throws Exception {
+        File file = new File(dir, "blocks.txt.bgz");
+        writeFile(file, bgzf(contents, BLOCK_SIZE, true));
+        // one thread reads it as the plain gzip it also is
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file, 1))));
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file, 3))));
+    }
+
+    public void testBgzfWithoutEofBlock() throws Exception {
+        File file = new File(dir, "blocks.txt.gz");
+        writeFile(file, bgzf(contents, BLOCK_SIZE, false));
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file, 3))));
+    }
+
+    public void testBgzfCrcMismatch() throws Exception {
+        byte[] compressed = bgzf(contents, BLOCK_SIZE, true);
+        // the CRC of the first block is the 8 bytes before the second block's header
+        int blockSize = ((compressed[16] & 0xff) | ((compressed[17] & 0xff) << 8)) + 1;
+        compressed[blockSize - 8] ^= 1;
+        File file = new File(dir, "crc.txt.bgz");
+        writeFile(file, compressed);
+        try {
+            readAll(CompressedInput.open(file, 3));
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("Corrupt BGZF block, CRC doesn't match", e.getCause().getMessage());
+        }
+    }
+
+    public void testBgzfTruncated() throws Exception {
+        byte[] compressed = bgzf(contents, BLOCK_SIZE, false);
+        File file = new File(dir, "truncated.txt.bgz");
+        writeFile(file, Arrays.copyOf(compressed, compressed.length - 10));
+        try {
+            readAll(CompressedInput.open(file, 3));
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            assertEquals("Truncated BGZF block", e.getMessage());
+        }
+    }
+
+    public void testGzip() throws Exception {
+        File file = new File(dir, "plain.txt.gz");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(contents);
+        out.close();
+        writeFile(file, bytes.toByteArray());
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file, 3))));
+    }
+
+    public void testZstd() throws Exception {
+        File file = new File(dir, "plain.txt.zst");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new ZstdOutputStream(bytes);
+        out.write(contents);
+        out.close();
+        writeFile(file, bytes.toByteArray());
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file))));
+    }
+
+    public void testUncompressed() throws Exception {
+        File file = new File(dir, "plain.txt");
+        writeFile(file, contents);
+        assertTrue(Arrays.equals(contents, readAll(CompressedInput.open(file))));
+    }
+
+    public void testGetReader() throws Exception {
+        Reader reader = new StringReader("as it is on disk");
+        assertSame(reader, CompressedInput.getReader(null, reader));
+        File plain = new File(dir, "plain.txt");
+        writeFile(plain, contents);
+        assertSame(reader, CompressedInput.getReader(plain, reader));
+
+        File file = new File(dir, "blocks.txt.bgz");
+        writeFile(file, bgzf(contents, BLOCK_SIZE, true));
+        Reader in = CompressedInput.getReader(file, reader);
+        try {
+            assertNotSame(reader, in);
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[4096];
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                sb.append(buf, 0, read);
+            }
+            assertEquals(new String(contents, "US-ASCII"), sb.toString());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[777];
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    // the data as bgzip writes it, optionally with the empty block it ends files with
+    private static byte[] bgzf(byte[] data, int blockSize, boolean eofBlock) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < data.length; off += blockSize) {
+            writeBlock(out, data, off, Math.min(blockSize, data.length - off));
+        }
+        if (eofBlock) {
+            writeBlock(out, data, 0, 0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] data, int off, int len)
+        throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            deflated.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+
+        // gzip header with the BC extra field holding the block size - 1
+        int total = 18 + deflated.size() + 8;
+        out.write(new byte[] {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C',
+            2, 0, (byte) (total - 1), (byte) ((total - 1) >> 8)});
+        deflated.writeTo(out);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, len);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+}
@@ -0,0 +1,72 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * Compares items without their identifiers, for converter tests that make the same items in a
+ * different order to the target items file, eg. on several threads.
+ */
+public final class ItemDescriber
+{
+    private ItemDescriber() {
+        // don't
+    }
+
+    /**
+     * Describe each item by its class and attributes, with the references and collections
+     * replaced by the class and attributes of the items referred to.
+     *
+     * @param items the items
+     * @return the sorted descriptions
+     */
+    public static List<String> describe(Set<Item> items) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        for (Item item : items) {
+            List<String> values = new ArrayList<String>();
+            for (Attribute attribute : item.getAttributes()) {
+                values.add(attribute.getName() + "=" + attribute.getValue());
+            }
+            Collections.sort(values);
+            attributes.put(item.getIdentifier(), item.getClassName() + values);
+        }
+        List<String> descriptions = new ArrayList<String>();
+        for (Item item : items) {
+            List<String> values = new ArrayList<String>();
+            for (Reference reference : item.getReferences()) {
+                values.add(reference.getName() + "=" + attributes.get(reference.getRefId()));
+            }
+            for (ReferenceList collection : item.getCollections()) {
+                List<String> refs = new ArrayList<String>();
+                for (String refId : collection.getRefIds()) {
+                    refs.add(attributes.get(refId));
+                }
+                Collections.sort(refs);
+                values.add(collection.getName() + "=" + refs);
+            }
+            Collections.sort(values);
+            descriptions.add(attributes.get(item.getIdentifier()) + values);
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+}
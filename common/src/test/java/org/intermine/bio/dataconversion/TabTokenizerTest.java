@@ -0,0 +1,153 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.util.FormattedTextParser;
+
+/**
+ * Tests for the TabTokenizer class.
+ */
+public class TabTokenizerTest extends TestCase
+{
+    public void testColumns() throws Exception {
+        TabTokenizer tokenizer = new TabTokenizer(
+                new StringReader("P12345\tIPR000001\t\tPF00001\t1\t99\n"));
+        assertTrue(tokenizer.next());
+        assertEquals(6, tokenizer.getColumnCount());
+        assertEquals("P12345", tokenizer.getString(0));
+        assertEquals("", tokenizer.getString(2));
+        assertEquals("PF00001", tokenizer.getColumn(3).toString());
+        assertEquals(2, tokenizer.getLength(5));
+        assertTrue(tokenizer.equals(1, "IPR000001"));
+        assertFalse(tokenizer.equals(1, "IPR00000"));
+        assertTrue(tokenizer.startsWith(3, "PF"));
+        assertFalse(tokenizer.startsWith(4, "10"));
+        assertFalse(tokenizer.next());
+    }
+
+    public void testCommentsAndLineEnds() throws Exception {
+        String file = "#header\r\nA\tB\r\n\r\n!C\tD\rE\\F\tG";
+        assertEquals(Arrays.asList("[A, B]", "[]", "[!C, D]", "[E\\F, G]"),
+                readAll(new TabTokenizer(new StringReader(file))));
+        assertEquals(Arrays.asList("[#header]", "[A, B]", "[]", "[E\\F, G]"),
+                readAll(new TabTokenizer(new StringReader(file), '!')));
+    }
+
+    public void testMissingColumn() throws Exception {
+        TabTokenizer tokenizer = new TabTokenizer(new StringReader("A\tB"));
+        assertTrue(tokenizer.next());
+        try {
+            tokenizer.getColumn(2);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testSplit() throws Exception {
+        TabTokenizer tokenizer = new TabTokenizer();
+        tokenizer.split("UniProtKB\tQ9XXX1\t\tGO:0005515");
+        assertEquals(4, tokenizer.getColumnCount());
+        assertEquals("GO:0005515", tokenizer.getString(3));
+        tokenizer.split("");
+        assertEquals(1, tokenizer.getColumnCount());
+    }
+
+    /**
+     * Random lines, some longer than the buffer, read a few characters at a time must give
+     * the same columns as reading lines and splitting them.
+     */
+    public void testSameAsSplit() throws Exception {
+        Random random = new Random(42);
+        StringBuilder file = new StringBuilder();
+        String[] ends = {"\n", "\r\n", "\r"};
+        for (int i = 0; i < 2000; i++) {
+            int length = i % 500 == 0 ? 100000 + random.nextInt(100000) : random.nextInt(60);
+            for (int j = 0; j < length; j++) {
+                int c = random.nextInt(10);
+                file.append(c == 0 ? '\t' : (char) ('a' + c));
+            }
+            file.append(ends[random.nextInt(ends.length)]);
+        }
+        List<String> expected = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new StringReader(file.toString()));
+        String line;
+        while ((line = br.readLine()) != null) {
+            expected.add(Arrays.asList(StringUtils.splitPreserveAllTokens(line, '\t')).toString());
+        }
+        assertEquals(expected, readAll(new TabTokenizer(new SlowReader(file.toString()))));
+    }
+
+    public void testSameAsFormattedTextParser() throws Exception {
+        String file = "#comment\nP1\tIPR1\tname\tPF1\t1\t10\n\nP2\t\t\t\t\t\nP3\tIPR3 x\ty\tz\t5\t6";
+        List<String> expected = new ArrayList<String>();
+        Iterator<String[]> iter = FormattedTextParser.parseTabDelimitedReader(
+                new StringReader(file));
+        while (iter.hasNext()) {
+            expected.add(Arrays.asList(iter.next()).toString());
+        }
+        assertEquals(expected, readAll(new TabTokenizer(new StringReader(file))));
+    }
+
+    private static List<String> readAll(TabTokenizer tokenizer) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (tokenizer.next()) {
+            List<String> columns = new ArrayList<String>();
+            for (int i = 0; i < tokenizer.getColumnCount(); i++) {
+                columns.add(tokenizer.getColumn(i).toString());
+            }
+            lines.add(columns.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a few characters at a time, so lines are split across reads.
+     */
+    private static class SlowReader extends Reader
+    {
+        private final String s;
+        private int pos = 0;
+
+        SlowReader(String s) {
+            this.s = s;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == s.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(len, 1 + pos % 7), s.length() - pos);
+            s.getChars(pos, pos + count, cbuf, off);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
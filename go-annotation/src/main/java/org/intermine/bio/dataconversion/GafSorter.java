@@ -0,0 +1,244 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sorts a GAF file by product, so GoConverter can store the annotations of each product as
+ * soon as it has read them, see GoConverter.setSortedByProduct().  The lines are sorted in
+ * runs that fit in memory, which are written to temporary files and merged.  Lines for the
+ * same product stay in the order they were in, and the ! comment lines are written first.
+ *
+ * <pre>
+ * java -cp ... org.intermine.bio.dataconversion.GafSorter in.gaf.gz out.gaf.gz [column]
+ * </pre>
+ */
+public class GafSorter
+{
+    private static final int DEFAULT_LINES_PER_RUN = 1000000;
+
+    private final int column;
+    private int linesPerRun = DEFAULT_LINES_PER_RUN;
+
+    /**
+     * @param column the column to sort on, from 0, eg. 1 for the DB Object ID
+     */
+    public GafSorter(int column) {
+        this.column = column;
+    }
+
+    /**
+     * @param linesPerRun number of lines to sort in memory at a time
+     */
+    public void setLinesPerRun(int linesPerRun) {
+        this.linesPerRun = Math.max(1, linesPerRun);
+    }
+
+    /**
+     * Sort a GAF file.  The lines are only read once, the output can be written as they are
+     * merged.
+     * @param in the GAF file, closing it is up to the caller
+     * @param out the sorted file, closing it is up to the caller
+     * @throws IOException if either file or the temporary files fail
+     */
+    public void sort(Reader in, Writer out) throws IOException {
+        BufferedReader br = new BufferedReader(in);
+        List<File> runs = new ArrayList<File>();
+        try {
+            List<Line> lines = new ArrayList<Line>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("!")) {
+                    out.write(line);
+                    out.write('\n');
+                    continue;
+                }
+                lines.add(new Line(key(line), line));
+                if (lines.size() == linesPerRun) {
+                    runs.add(writeRun(lines));
+                    lines.clear();
+                }
+            }
+            if (runs.isEmpty()) {
+                // it all fitted in memory
+                Collections.sort(lines, BY_KEY);
+                for (Line sorted : lines) {
+                    out.write(sorted.line);
+                    out.write('\n');
+                }
+                return;
+            }
+            if (!lines.isEmpty()) {
+                runs.add(writeRun(lines));
+                lines.clear();
+            }
+            merge(runs, out);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    // the column to sort on, an empty key for a line without enough columns
+    private String key(String line) {
+        int start = 0;
+        for (int i = 0; i < column; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                return "";
+            }
+        }
+        int end = line.indexOf('\t', start);
+        return end < 0 ? line.substring(start) : line.substring(start, end);
+    }
+
+    // Collections.sort() is stable, so lines with the same key stay in order
+    private static File writeRun(List<Line> lines) throws IOException {
+        Collections.sort(lines, BY_KEY);
+        File file = File.createTempFile("gaf-sort", ".txt");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8));
+        try {
+            for (Line line : lines) {
+                writer.write(line.line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private void merge(List<File> runs, Writer out) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size(), new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                int cmp = a.current.key.compareTo(b.current.key);
+                // the earlier run has the earlier lines of the file
+                return cmp != 0 ? cmp : a.index - b.index;
+            }
+        });
+        List<Run> open = new ArrayList<Run>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(i, runs.get(i));
+                open.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                out.write(run.current.line);
+                out.write('\n');
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (Run run : open) {
+                run.reader.close();
+            }
+        }
+    }
+
+    private static final Comparator<Line> BY_KEY = new Comparator<Line>() {
+        @Override
+        public int compare(Line a, Line b) {
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    /**
+     * A line and the column it is sorted on.
+     */
+    private static class Line
+    {
+        private final String key;
+        private final String line;
+
+        Line(String key, String line) {
+            this.key = key;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A sorted run being merged.
+     */
+    private class Run
+    {
+        private final int index;
+        private final BufferedReader reader;
+        private Line current;
+
+        Run(int index, File file) throws IOException {
+            this.index = index;
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    StandardCharsets.UTF_8));
+        }
+
+        boolean next() throws IOException {
+            String line = reader.readLine();
+            current = line == null ? null : new Line(key(line), line);
+            return current != null;
+        }
+    }
+
+    /**
+     * Sort a GAF file from the command line.  The output is gzipped if its name ends in .gz.
+     * @param args input file, output file and optionally the column to sort on, default 1
+     * @throws IOException if the files can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: GafSorter in.gaf[.gz] out.gaf[.gz] [column]");
+            System.exit(1);
+        }
+        File inFile = new File(args[0]);
+        File outFile = new File(args[1]);
+        GafSorter sorter = new GafSorter(args.length > 2 ? Integer.parseInt(args[2]) : 1);
+        Reader in = CompressedInput.openReader(inFile);
+        try {
+            OutputStream os = new FileOutputStream(outFile);
+            if (outFile.getName().endsWith(".gz")) {
+                os = new GZIPOutputStream(os, 1 << 16);
+            }
+            Writer out = new BufferedWriter(new OutputStreamWriter(os));
+            try {
+                sorter.sort(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -11,13 +11,22 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,6 +37,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -64,7 +78,10 @@ public class GoConverter extends BioFileConverter
     private Map<String, String> evidenceCodes = new LinkedHashMap<String, String>();
     private Map<String, String> publications = new LinkedHashMap<String, String>();
     private Map<String, Item> organisms = new LinkedHashMap<String, Item>();
-    protected Map<String, String> productMap = new LinkedHashMap<String, String>();
+    protected Map<ProductKey, String> productMap = new LinkedHashMap<ProductKey, String>();
+    // looked up in productMap and goTermGeneToEvidence, only used by the thread making items
+    private final ProductKey productKey = new ProductKey();
+    private final GoTermToGene annotationKey = new GoTermToGene();
     private Set<String> dbRefs = new HashSet<String>();
     @SuppressWarnings("unused")
     private Map<String, String> databaseAbbreviations = new HashMap<String, String>();
@@ -82,11 +99,36 @@ public class GoConverter extends BioFileConverter
     private static final String DEFAULT_ANNOTATION_TYPE = "gene";
     private static final String DEFAULT_IDENTIFIER_FIELD = "primaryIdentifier";
     protected IdResolver rslv;
+    // remembers what rslv made of each gene
+    private CachingIdResolver resolvedIds = null;
+    private int resolverCacheSize = CachingIdResolver.DEFAULT_SIZE;
+    private String resolverSnapshot = null;
+    private String resolverSnapshotSources = null;
     private static Config defaultConfig = null;
     private String datasource, dataset, licence;
     private String datasetRefId = null;
     private static final Logger LOG = Logger.getLogger(GoConverter.class);
     private static final String GO_ANNOTATION_NAME = "GO Annotation";
+    // most batches of lines waiting to be processed, per thread
+    private static final int BATCHES_PER_THREAD = 4;
+    private int threads = 1;
+    // lines parsed by a thread at a time
+    private int batchSize = 10000;
+    private int partitions = 0;
+    private int linesPerPartition = 0;
+    // each partition is an open file while the GAF file is split
+    private static final int MAX_PARTITIONS = 1000;
+    private static final String SORTED_FALSE = "false";
+    private static final String SORTED_TRUE = "true";
+    private static final String SORTED_DETECT = "detect";
+    private static final String SORTED_SORT = "sort";
+    private String sortedByProduct = SORTED_FALSE;
+    // true if the annotations of each product are stored when the next product starts
+    private boolean streamByProduct = false;
+    private String currentProduct = null;
+    private Set<String> finishedProducts = new HashSet<String>();
+    // where parsed lines go when the file is split into partitions, null to process them
+    private Partitions spill = null;
 
     /**
      * Constructor
@@ -132,6 +174,140 @@ public class GoConverter extends BioFileConverter
         this.datasource = datasource;
     }
 
+    /**
+     * Number of threads to parse the GAF file with.  The lines are split, checked and the
+     * genes resolved on these threads, the items are still created by one thread in the order
+     * of the file.  Default is 1, read the file on one thread.
+     *
+     * @param threads number of threads
+     */
+    public void setThreads(String threads) {
+        try {
+            this.threads = Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("threads must be a number: " + threads);
+        }
+    }
+
+    /**
+     * Number of GAF lines each thread parses at a time when there is more than one thread.
+     * Default is 10000.
+     *
+     * @param batchSize number of lines
+     */
+    public void setBatchSize(String batchSize) {
+        try {
+            this.batchSize = Math.max(1, Integer.parseInt(batchSize.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("batchSize must be a number: " + batchSize);
+        }
+    }
+
+    /**
+     * Number of partitions to split each GAF file into before making the annotations.  The
+     * parsed lines are written to temporary files by product, then the annotations and
+     * evidence of one partition are made and stored before the next partition is read.  All
+     * the annotations of a product are in the same partition, so the annotations held in
+     * memory are about 1/partitions of those in the file.  A fixed number doesn't bound the
+     * memory used, a bigger file still makes bigger partitions, see setLinesPerPartition().
+     * Default is 0, hold the annotations of the whole file in memory.
+     *
+     * @param partitions number of partitions
+     */
+    public void setPartitions(String partitions) {
+        try {
+            this.partitions = Math.max(0, Integer.parseInt(partitions.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("partitions must be a number: " + partitions);
+        }
+    }
+
+    /**
+     * About how many GAF lines to make annotations for at a time.  The lines of each file are
+     * counted first and the file is split into as many partitions as it takes, so the
+     * annotations and evidence held in memory stay about the same however big the file is.
+     * The partitions are by product, so they are only roughly the same size.  Used in place
+     * of partitions when the file is on disk, otherwise partitions is used.  Default is 0,
+     * use partitions.
+     *
+     * Partitioning only bounds the annotations and evidence of a file.  The products and
+     * their stored ids (productMap and storedProductIds), the publications, GO terms and
+     * database references are kept for the whole file, or the whole run, and grow with the
+     * number of distinct ones rather than with the number of lines.
+     *
+     * @param linesPerPartition number of lines
+     */
+    public void setLinesPerPartition(String linesPerPartition) {
+        try {
+            this.linesPerPartition = Math.max(0, Integer.parseInt(linesPerPartition.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("linesPerPartition must be a number: "
+                    + linesPerPartition);
+        }
+    }
+
+    /**
+     * Whether the GAF files are sorted, or at least grouped, by product, as the files from
+     * TAIR are.  If they are the annotations, evidence and product collection of each product
+     * are stored as soon as the next product starts, rather than all at the end of the file.
+     * <ul>
+     * <li>false: hold all the annotations of a file until the end, the default</li>
+     * <li>true: the files are sorted by product</li>
+     * <li>detect: read each file first to check if it is sorted</li>
+     * <li>sort: read each file first, and sort it with GafSorter if it isn't sorted</li>
+     * </ul>
+     * A file that turns out not to be sorted when it was said to be is an error, rather than
+     * storing a product's annotations twice.
+     *
+     * @param sortedByProduct true, false, detect or sort
+     */
+    public void setSortedByProduct(String sortedByProduct) {
+        String value = sortedByProduct.trim().toLowerCase();
+        if (!(SORTED_FALSE.equals(value) || SORTED_TRUE.equals(value)
+                || SORTED_DETECT.equals(value) || SORTED_SORT.equals(value))) {
+            throw new IllegalArgumentException("sortedByProduct must be true, false, detect or "
+                    + "sort, not: " + sortedByProduct);
+        }
+        this.sortedByProduct = value;
+    }
+
+    /**
+     * Number of gene identifiers to remember the resolved identifier of, or that they
+     * couldn't be resolved.  GAF files have many lines for each gene, so each gene is only
+     * looked up in the id resolver once.  Default is 1000000.
+     *
+     * @param resolverCacheSize number of identifiers
+     */
+    public void setResolverCacheSize(String resolverCacheSize) {
+        try {
+            this.resolverCacheSize = Math.max(1, Integer.parseInt(resolverCacheSize.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("resolverCacheSize must be a number: "
+                    + resolverCacheSize);
+        }
+    }
+
+    /**
+     * A file to save the resolved gene identifiers in, so the next run only needs to make the
+     * id resolver for genes that weren't in the files before.  Needs
+     * resolverSnapshotSources.
+     *
+     * @param resolverSnapshot the snapshot file
+     */
+    public void setResolverSnapshot(String resolverSnapshot) {
+        this.resolverSnapshot = resolverSnapshot.trim();
+    }
+
+    /**
+     * The files the id resolver is made from, or directories of them, separated by commas.
+     * The resolver snapshot isn't used if any of them have changed.
+     *
+     * @param resolverSnapshotSources files or directories
+     */
+    public void setResolverSnapshotSources(String resolverSnapshotSources) {
+        this.resolverSnapshotSources = resolverSnapshotSources;
+    }
+
     private String setDefaultDataset() throws ObjectStoreException {
         if (datasource == null) {
             datasource = GO_ANNOTATION_NAME;
@@ -241,112 +417,368 @@ public class GoConverter extends BioFileConverter
     @Override
     public void process(Reader reader) throws ObjectStoreException, IOException {
 
-        // Create id resolver
-        if (rslv == null) {
-            rslv = IdResolverService.getIdResolverForMOD();
+        // Create id resolver, when it is first needed
+        if (resolvedIds == null) {
+            if (rslv != null) {
+                resolvedIds = new CachingIdResolver(rslv, resolverCacheSize);
+            } else {
+                resolvedIds = new CachingIdResolver(new CachingIdResolver.ResolverFactory() {
+                    @Override
+                    public IdResolver getResolver() {
+                        rslv = IdResolverService.getIdResolverForMOD();
+                        return rslv;
+                    }
+                }, resolverCacheSize);
+            }
+            if (resolverSnapshot != null) {
+                resolvedIds.useSnapshot(new File(resolverSnapshot), "mod",
+                        resolverSnapshotSources == null ? "" : resolverSnapshotSources);
+            }
         }
 
         storeDataset();
 
         initialiseMapsForFile();
 
-        BufferedReader br = new BufferedReader(reader);
-        String line = null;
-
-        // loop through entire file
-        while ((line = br.readLine()) != null) {
-            if (line.startsWith("!")) {
-                continue;
-            }
-            String[] array = line.split("\t", -1); // keep trailing empty Strings
-            if (array.length < 13) {
-                throw new IllegalArgumentException("Not enough elements (should be > 13 not "
-                        + array.length + ") in line: " + line);
-            }
-
-            String taxonId = parseTaxonId(array[12]);
-            Config config = configs.get(taxonId);
-            if (config == null) {
-                config = defaultConfig;
-                LOG.warn("No entry for organism with taxonId = '"
-                        + taxonId + "' found in go-annotation config file.  Using default");
-            }
-
-            int readColumn = config.readColumn();
-            String productId = array[readColumn];
-
-            String goId = array[4];
-            String qualifier = array[3];
-            String strEvidence = array[6];
-            String withText = array[7];
-            String annotationExtension = null;
-            if (array.length >= 16) {
-                annotationExtension = array[15];
-            }
-            if (StringUtils.isNotEmpty(strEvidence)) {
-                if (!evidenceCodes.containsKey(strEvidence)) {
-                    throw new IllegalArgumentException("Evidence code is `" + strEvidence
-                            + "' which is not in the legal list of evidence codes. Oh no! "
-                            + "Is it new? Add to /resources/go-evidence-codes and try again. And "
-                            + "let InterMiners know so they can update the file too");
-                }
+        File sortedFile = null;
+        streamByProduct = SORTED_TRUE.equals(sortedByProduct);
+        if (SORTED_DETECT.equals(sortedByProduct) || SORTED_SORT.equals(sortedByProduct)) {
+            File file = getCurrentFile();
+            if (file == null || !file.isFile()) {
+                LOG.warn("Can't check if the GAF file is sorted by product without a file, "
+                        + "holding all its annotations in memory");
+            } else if (isSortedByProduct(file)) {
+                streamByProduct = true;
+            } else if (SORTED_SORT.equals(sortedByProduct)) {
+                sortedFile = sortByProduct(file);
+                streamByProduct = true;
             } else {
-                throw new IllegalArgumentException("Evidence is a required column but not "
-                        + "found for goterm " + goId + " and productId " + productId);
+                LOG.info(file + " isn't sorted by product, holding all its annotations in memory");
             }
+        }
 
-            String type = config.annotationType;
+        // GAF files are usually gzipped
+        BufferedReader br;
+        if (sortedFile != null) {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(sortedFile),
+                    StandardCharsets.UTF_8));
+        } else {
+            br = new BufferedReader(CompressedInput.getReader(getCurrentFile(), reader));
+        }
 
-            // create unique key for go annotation
-            GoTermToGene key = new GoTermToGene(productId, goId, qualifier, withText);
+        int partitionCount = getPartitionCount(getCurrentFile());
+        if (partitionCount > 1) {
+            spill = new Partitions(partitionCount);
+        }
+        try {
+            if (threads > 1) {
+                processInParallel(br);
+            } else {
+                // loop through entire file, skipping the ! comment lines
+                TabTokenizer tokenizer = new TabTokenizer(br, '!');
+                while (tokenizer.next()) {
+                    handleLine(parseLine(tokenizer));
+                }
+            }
+            br.close();
+            if (spill != null) {
+                spill.process();
+            }
+        } finally {
+            if (spill != null) {
+                spill.delete();
+                spill = null;
+            }
+            if (sortedFile != null) {
+                br.close();
+                sortedFile.delete();
+            }
+        }
+        storeProductCollections();
+        storeEvidence();
+        resolvedIds.saveSnapshot();
+        LOG.info("Processed " + getCurrentFile() + ", " + resolvedIds);
+    }
 
-//            String dataSourceCode = array[14]; // e.g. GDB, where uniprot collect the data from
-//            String dataSource = array[0]; // e.g. UniProtKB, where the goa file comes from
-            Item organism = newOrganism(taxonId);
-            String productIdentifier = newProduct(productId, type, organism, true, null);
+    /**
+     * Check that the lines of each product are together, for the products as they are in the
+     * file.  Products that are only found to be the same when they are resolved are checked
+     * as the file is processed.
+     */
+    private boolean isSortedByProduct(File file) throws IOException {
+        Reader in = CompressedInput.openReader(file);
+        try {
+            TabTokenizer tokenizer = new TabTokenizer(in, '!');
+            Set<String> seen = new HashSet<String>();
+            String previous = null;
+            while (tokenizer.next()) {
+                if (tokenizer.getColumnCount() < 13) {
+                    // an error when the file is processed
+                    continue;
+                }
+                String taxonId = parseTaxonId(tokenizer.getString(12));
+                Config config = configs.get(taxonId);
+                if (config == null) {
+                    config = defaultConfig;
+                }
+                String product = taxonId + "\t" + tokenizer.getString(config.readColumn());
+                if (!product.equals(previous)) {
+                    if (!seen.add(product)) {
+                        LOG.info(file + " isn't sorted by product, found " + product
+                                + " again at line: " + tokenizer.getLine());
+                        return false;
+                    }
+                    previous = product;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
 
-            // null if resolver could not resolve an identifier
-            if (productIdentifier != null) {
+    /**
+     * The number of partitions to split a file into, worked out from its lines if
+     * linesPerPartition is set.  Package private for the tests.
+     */
+    int getPartitionCount(File file) throws IOException {
+        if (linesPerPartition <= 0) {
+            return partitions;
+        }
+        if (file == null || !file.isFile()) {
+            LOG.warn("Can't count the lines of the GAF file without a file, using "
+                    + partitions + " partitions");
+            return partitions;
+        }
+        long lines = 0;
+        Reader in = CompressedInput.openReader(file);
+        try {
+            TabTokenizer tokenizer = new TabTokenizer(in, '!');
+            while (tokenizer.next()) {
+                lines++;
+            }
+        } finally {
+            in.close();
+        }
+        long count = (lines + linesPerPartition - 1) / linesPerPartition;
+        if (count > MAX_PARTITIONS) {
+            LOG.warn(file + " has " + lines + " lines, using " + MAX_PARTITIONS
+                    + " partitions of more than " + linesPerPartition + " lines");
+            count = MAX_PARTITIONS;
+        }
+        LOG.info(file + " has " + lines + " lines, using " + count + " partitions");
+        return (int) count;
+    }
 
-                // null if no pub found
-                String pubRefId = newPublication(array[5]);
+    private File sortByProduct(File file) throws IOException {
+        LOG.info("Sorting " + file + " by product");
+        File sortedFile = File.createTempFile("go-annotation-sorted", ".gaf");
+        Reader in = CompressedInput.openReader(file);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(sortedFile), StandardCharsets.UTF_8));
+            try {
+                new GafSorter(1).sort(in, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            sortedFile.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+        return sortedFile;
+    }
 
-                // get evidence codes for this goterm|gene pair
-                Set<Evidence> allEvidenceForAnnotation = goTermGeneToEvidence.get(key);
+    // make the items for a line, or put it in its partition to make the items later
+    private void handleLine(GafLine gafLine) throws IOException, ObjectStoreException {
+        if (spill == null) {
+            processLine(gafLine);
+        } else {
+            spill.write(gafLine);
+        }
+    }
 
-                // new evidence
-                if (allEvidenceForAnnotation == null || !StringUtils.isEmpty(withText)) {
-                    String goTermIdentifier = newGoTerm(goId);
-                    Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism);
-                    allEvidenceForAnnotation = new LinkedHashSet<Evidence>();
-                    allEvidenceForAnnotation.add(evidence);
-                    goTermGeneToEvidence.put(key, allEvidenceForAnnotation);
-                    Integer storedAnnotationId = createGoAnnotation(productIdentifier, type,
-                            goTermIdentifier, qualifier, annotationExtension);
-                    evidence.setStoredAnnotationId(storedAnnotationId);
-                } else {
-                    boolean seenEvidenceCode = false;
-                    Integer storedAnnotationId = null;
-
-                    for (Evidence evidence : allEvidenceForAnnotation) {
-                        String evidenceCode = evidence.getEvidenceCode();
-                        storedAnnotationId = evidence.storedAnnotationId;
-                        // already have evidence code, just add pub
-                        if (evidenceCode.equals(strEvidence)) {
-                            evidence.addPublicationRefId(pubRefId);
-                            seenEvidenceCode = true;
-                        }
+    /**
+     * Parse, check and resolve batches of lines on the worker threads.  The batches are
+     * processed into items by this thread in the order they were read, so the items are the
+     * same as when the file is read on one thread.
+     */
+    private void processInParallel(BufferedReader br) throws IOException, ObjectStoreException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<GafLine>>> pending = new ArrayDeque<Future<List<GafLine>>>();
+        try {
+            List<String> batch = new ArrayList<String>(batchSize);
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("!")) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == batchSize) {
+                    pending.add(executor.submit(new ParseBatch(batch)));
+                    batch = new ArrayList<String>(batchSize);
+                    // don't read further ahead than the workers can keep up with
+                    if (pending.size() >= threads * BATCHES_PER_THREAD) {
+                        processBatch(pending.poll());
                     }
-                    if (!seenEvidenceCode) {
-                        Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism);
-                        evidence.storedAnnotationId = storedAnnotationId;
-                        allEvidenceForAnnotation.add(evidence);
+                }
+            }
+            if (!batch.isEmpty()) {
+                pending.add(executor.submit(new ParseBatch(batch)));
+            }
+            while (!pending.isEmpty()) {
+                processBatch(pending.poll());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void processBatch(Future<List<GafLine>> batch)
+        throws IOException, ObjectStoreException {
+        List<GafLine> gafLines;
+        try {
+            gafLines = batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing GAF file", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                // same exception as when parsing on one thread, eg. an unknown evidence code
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failed to parse GAF file", e.getCause());
+        }
+        for (GafLine gafLine : gafLines) {
+            handleLine(gafLine);
+        }
+    }
+
+    /**
+     * Check a line of the GAF file and resolve the gene identifier.  Only makes Strings of the
+     * columns that are used and doesn't create any items, so can be called from any thread.
+     * @param tokenizer tokenizer holding a line that isn't a comment
+     * @return the parsed line
+     */
+    private GafLine parseLine(TabTokenizer tokenizer) {
+        int columnCount = tokenizer.getColumnCount();
+        if (columnCount < 13) {
+            throw new IllegalArgumentException("Not enough elements (should be > 13 not "
+                    + columnCount + ") in line: " + tokenizer.getLine());
+        }
+
+        GafLine gafLine = new GafLine();
+        gafLine.taxonId = parseTaxonId(tokenizer.getString(12));
+        Config config = configs.get(gafLine.taxonId);
+        if (config == null) {
+            config = defaultConfig;
+            LOG.warn("No entry for organism with taxonId = '"
+                    + gafLine.taxonId + "' found in go-annotation config file.  Using default");
+        }
+
+        int readColumn = config.readColumn();
+        gafLine.productId = tokenizer.getString(readColumn);
+
+        gafLine.goId = tokenizer.getString(4);
+        gafLine.qualifier = tokenizer.getString(3);
+        gafLine.strEvidence = tokenizer.getString(6);
+        gafLine.withText = tokenizer.getString(7);
+        gafLine.publications = tokenizer.getString(5);
+        if (columnCount >= 16) {
+            gafLine.annotationExtension = tokenizer.getString(15);
+        }
+        if (StringUtils.isNotEmpty(gafLine.strEvidence)) {
+            if (!evidenceCodes.containsKey(gafLine.strEvidence)) {
+                throw new IllegalArgumentException("Evidence code is `" + gafLine.strEvidence
+                        + "' which is not in the legal list of evidence codes. Oh no! "
+                        + "Is it new? Add to /resources/go-evidence-codes and try again. And "
+                        + "let InterMiners know so they can update the file too");
+            }
+        } else {
+            throw new IllegalArgumentException("Evidence is a required column but not "
+                    + "found for goterm " + gafLine.goId + " and productId " + gafLine.productId);
+        }
+
+        gafLine.type = config.annotationType;
+        gafLine.accession = gafLine.productId;
+        if ("gene".equalsIgnoreCase(gafLine.type)) {
+            gafLine.accession = resolveGene(gafLine.taxonId, gafLine.productId);
+        }
+        return gafLine;
+    }
+
+    // create the items for a line, in the order of the file
+    private void processLine(GafLine gafLine) throws ObjectStoreException {
+        String productId = gafLine.productId;
+        String goId = gafLine.goId;
+        String qualifier = gafLine.qualifier;
+        String strEvidence = gafLine.strEvidence;
+        String withText = gafLine.withText;
+        String type = gafLine.type;
+
+        // create unique key for go annotation
+        GoTermToGene key = annotationKey.set(productId, goId, qualifier, withText);
+
+//        String dataSourceCode = array[14]; // e.g. GDB, where uniprot collect the data from
+//        String dataSource = array[0]; // e.g. UniProtKB, where the goa file comes from
+        Item organism = newOrganism(gafLine.taxonId);
+
+        // null if resolver could not resolve an identifier
+        String productIdentifier = null;
+        if (gafLine.accession != null) {
+            productIdentifier = newProduct(gafLine.accession, type, organism, true, null, true);
+        }
+
+        if (productIdentifier != null) {
+
+            if (streamByProduct && !productIdentifier.equals(currentProduct)) {
+                finishProduct();
+                if (!finishedProducts.add(productIdentifier)) {
+                    throw new IllegalArgumentException("GAF file isn't sorted by product, found "
+                            + productId + " again after its annotations were stored. Sort the "
+                            + "file with GafSorter or set sortedByProduct to false");
+                }
+                currentProduct = productIdentifier;
+            }
+
+            // null if no pub found
+            String pubRefId = newPublication(gafLine.publications);
+
+            // get evidence codes for this goterm|gene pair
+            Set<Evidence> allEvidenceForAnnotation = goTermGeneToEvidence.get(key);
+
+            // new evidence
+            if (allEvidenceForAnnotation == null || !StringUtils.isEmpty(withText)) {
+                String goTermIdentifier = newGoTerm(goId);
+                Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism);
+                allEvidenceForAnnotation = new LinkedHashSet<Evidence>();
+                allEvidenceForAnnotation.add(evidence);
+                goTermGeneToEvidence.put(key.copy(), allEvidenceForAnnotation);
+                Integer storedAnnotationId = createGoAnnotation(productIdentifier, type,
+                        goTermIdentifier, qualifier, gafLine.annotationExtension);
+                evidence.setStoredAnnotationId(storedAnnotationId);
+            } else {
+                boolean seenEvidenceCode = false;
+                Integer storedAnnotationId = null;
+
+                for (Evidence evidence : allEvidenceForAnnotation) {
+                    String evidenceCode = evidence.getEvidenceCode();
+                    storedAnnotationId = evidence.storedAnnotationId;
+                    // already have evidence code, just add pub
+                    if (evidenceCode.equals(strEvidence)) {
+                        evidence.addPublicationRefId(pubRefId);
+                        seenEvidenceCode = true;
                     }
                 }
+                if (!seenEvidenceCode) {
+                    Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism);
+                    evidence.storedAnnotationId = storedAnnotationId;
+                    allEvidenceForAnnotation.add(evidence);
+                }
             }
         }
-        storeProductCollections();
-        storeEvidence();
     }
 
     /**
@@ -356,6 +788,16 @@ public class GoConverter extends BioFileConverter
         goTermGeneToEvidence = new LinkedHashMap<GoTermToGene, Set<Evidence>>();
         productCollectionsMap = new LinkedHashMap<Integer, List<String>>();
         storedProductIds = new HashMap<String, Integer>();
+        currentProduct = null;
+        finishedProducts = new HashSet<String>();
+    }
+
+    // store the annotations of the last product when reading a file sorted by product
+    private void finishProduct() throws ObjectStoreException {
+        storeProductCollections();
+        storeEvidence();
+        goTermGeneToEvidence.clear();
+        productCollectionsMap.clear();
     }
 
     private void storeProductCollections() throws ObjectStoreException {
@@ -490,6 +932,14 @@ public class GoConverter extends BioFileConverter
 
     private String newProduct(String identifier, String type, Item organism, boolean createOrganism,
             String field) throws ObjectStoreException {
+        return newProduct(identifier, type, organism, createOrganism, field, false);
+    }
+
+    /**
+     * @param resolved true if a gene identifier has already been through resolveGene()
+     */
+    private String newProduct(String identifier, String type, Item organism, boolean createOrganism,
+            String field, boolean resolved) throws ObjectStoreException {
         String idField = field;
         String accession = identifier;
         String clsName = null;
@@ -509,19 +959,11 @@ public class GoConverter extends BioFileConverter
                 }
             }
 
-            if (rslv != null && rslv.hasTaxon(taxonId)) {
-                if ("10116".equals(taxonId)) { // RGD doesn't have prefix in its annotation data
-                    accession = "RGD:" + accession;
-                }
-                int resCount = rslv.countResolutions(taxonId, accession);
-
-                if (resCount != 1) {
-                    LOG.info("RESOLVER: failed to resolve gene to one identifier, "
-                            + "ignoring gene: " + accession + " count: " + resCount + " ID: "
-                            + rslv.resolveId(taxonId, accession));
+            if (!resolved) {
+                accession = resolveGene(taxonId, accession);
+                if (accession == null) {
                     return null;
                 }
-                accession = rslv.resolveId(taxonId, accession).iterator().next();
             }
         } else if ("protein".equalsIgnoreCase(type)) {
             // TODO use values in config
@@ -547,12 +989,13 @@ public class GoConverter extends BioFileConverter
         } else {
             includeOrganism = createOrganism;
         }
-        String key = makeProductKey(accession, type, organism, includeOrganism);
+        ProductKey key = makeProductKey(accession, type, organism, includeOrganism);
 
         //Have we already seen this product somewhere before?
         // if so, return the product rather than creating a new one...
-        if (productMap.containsKey(key)) {
-            return productMap.get(key);
+        String productIdentifier = productMap.get(key);
+        if (productIdentifier != null) {
+            return productIdentifier;
         }
 
         // if a Dmel gene we need to use FlyBaseIdResolver to find a current id
@@ -566,11 +1009,28 @@ public class GoConverter extends BioFileConverter
 
         Integer storedProductId = store(product);
         storedProductIds.put(product.getIdentifier(), storedProductId);
-        productMap.put(key, product.getIdentifier());
+        productMap.put(key.copy(), product.getIdentifier());
         return product.getIdentifier();
     }
 
-    private String makeProductKey(String identifier, String type, Item organism,
+    /**
+     * Find the current identifier of a gene.  Only reads from the resolver and its cache, so
+     * can be called from the threads parsing the file.
+     * @return the identifier, null if the resolver doesn't find exactly one
+     */
+    private String resolveGene(String taxonId, String identifier) {
+        String accession = identifier;
+        if (resolvedIds != null && resolvedIds.hasTaxon(taxonId)) {
+            if ("10116".equals(taxonId)) { // RGD doesn't have prefix in its annotation data
+                accession = "RGD:" + accession;
+            }
+            accession = resolvedIds.resolveOne(taxonId, accession);
+        }
+        return accession;
+    }
+
+    // fills in productKey, copy it to keep it
+    private ProductKey makeProductKey(String identifier, String type, Item organism,
             boolean createOrganism) {
         if (type == null) {
             throw new IllegalArgumentException("No type provided when creating " + organism
@@ -580,8 +1040,9 @@ public class GoConverter extends BioFileConverter
                     + organism + ": " + type);
         }
 
-        return identifier + type.toLowerCase() + ((createOrganism)
-                ? organism.getIdentifier() : "");
+        // toLowerCase() returns the same String if it is already lower case
+        return productKey.set(identifier, type.toLowerCase(),
+                createOrganism ? organism.getIdentifier() : null);
     }
 
     private String newGoTerm(String identifier) throws ObjectStoreException {
@@ -716,6 +1177,151 @@ public class GoConverter extends BioFileConverter
         return taxonId;
     }
 
+    /**
+     * Parsed GAF lines split into temporary files by product.
+     */
+    private class Partitions
+    {
+        // written in place of a null column
+        private static final String NULL = "\0";
+
+        private final File[] files;
+        private final Writer[] writers;
+        private final int[] counts;
+
+        Partitions(int count) throws IOException {
+            files = new File[count];
+            writers = new Writer[count];
+            counts = new int[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    files[i] = File.createTempFile("go-annotation-" + i + "-", ".txt");
+                    writers[i] = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(files[i]), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                delete();
+                throw e;
+            }
+        }
+
+        // the columns of a GAF line, and the product it was resolved to
+        void write(GafLine gafLine) throws IOException {
+            String product = gafLine.accession == null ? gafLine.productId : gafLine.accession;
+            int partition = (product.hashCode() & Integer.MAX_VALUE) % files.length;
+            Writer writer = writers[partition];
+            String[] columns = {gafLine.taxonId, gafLine.productId, gafLine.accession,
+                gafLine.type, gafLine.goId, gafLine.qualifier, gafLine.strEvidence,
+                gafLine.withText, gafLine.publications, gafLine.annotationExtension};
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write('\t');
+                }
+                writer.write(columns[i] == null ? NULL : columns[i]);
+            }
+            writer.write('\n');
+            counts[partition]++;
+        }
+
+        // make and store the items of one partition at a time
+        void process() throws IOException, ObjectStoreException {
+            for (Writer writer : writers) {
+                writer.close();
+            }
+            for (int i = 0; i < files.length; i++) {
+                LOG.info("Processing partition " + (i + 1) + " of " + files.length + ", "
+                        + counts[i] + " lines");
+                BufferedReader br = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(files[i]), StandardCharsets.UTF_8));
+                try {
+                    // nothing to skip, there are no comments
+                    TabTokenizer tokenizer = new TabTokenizer(br, '\0');
+                    while (tokenizer.next()) {
+                        GafLine gafLine = new GafLine();
+                        gafLine.taxonId = read(tokenizer, 0);
+                        gafLine.productId = read(tokenizer, 1);
+                        gafLine.accession = read(tokenizer, 2);
+                        gafLine.type = read(tokenizer, 3);
+                        gafLine.goId = read(tokenizer, 4);
+                        gafLine.qualifier = read(tokenizer, 5);
+                        gafLine.strEvidence = read(tokenizer, 6);
+                        gafLine.withText = read(tokenizer, 7);
+                        gafLine.publications = read(tokenizer, 8);
+                        gafLine.annotationExtension = read(tokenizer, 9);
+                        processLine(gafLine);
+                    }
+                } finally {
+                    br.close();
+                }
+                storeProductCollections();
+                storeEvidence();
+                goTermGeneToEvidence = new LinkedHashMap<GoTermToGene, Set<Evidence>>();
+                productCollectionsMap = new LinkedHashMap<Integer, List<String>>();
+                files[i].delete();
+            }
+        }
+
+        private String read(TabTokenizer tokenizer, int column) {
+            return tokenizer.equals(column, NULL) ? null : tokenizer.getString(column);
+        }
+
+        void delete() {
+            for (int i = 0; i < files.length; i++) {
+                if (writers[i] != null) {
+                    try {
+                        writers[i].close();
+                    } catch (IOException e) {
+                        LOG.warn("Failed to close " + files[i], e);
+                    }
+                }
+                if (files[i] != null) {
+                    files[i].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * The columns of a GAF line used to make the items.
+     */
+    private static class GafLine
+    {
+        private String taxonId;
+        private String productId;
+        // the resolved productId, null if the gene couldn't be resolved
+        private String accession;
+        private String type;
+        private String goId;
+        private String qualifier;
+        private String strEvidence;
+        private String withText;
+        private String publications;
+        private String annotationExtension;
+    }
+
+    /**
+     * Parses a batch of lines on a worker thread.
+     */
+    private class ParseBatch implements Callable<List<GafLine>>
+    {
+        private final List<String> lines;
+
+        ParseBatch(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public List<GafLine> call() {
+            List<GafLine> gafLines = new ArrayList<GafLine>(lines.size());
+            TabTokenizer tokenizer = new TabTokenizer();
+            for (String line : lines) {
+                tokenizer.split(line);
+                gafLines.add(parseLine(tokenizer));
+            }
+            return gafLines;
+        }
+    }
+
     private class Evidence
     {
         private List<String> publicationRefIds = new ArrayList<String>();
@@ -776,29 +1382,133 @@ public class GoConverter extends BioFileConverter
     }
 
 
+    /**
+     * Identify a product by its identifier, type and, for some products, organism.  The hash
+     * code is worked out once, from the hash codes the Strings keep.
+     */
+    static final class ProductKey
+    {
+        private String identifier;
+        private String type;
+        private String organism;
+        private int hash;
+
+        ProductKey() {
+            // filled in by set()
+        }
+
+        /**
+         * @param identifier product identifier
+         * @param type lower case type, eg. gene
+         * @param organism organism item identifier, null if the organism isn't part of the key
+         * @return this key
+         */
+        ProductKey set(String identifier, String type, String organism) {
+            this.identifier = identifier;
+            this.type = type;
+            this.organism = organism;
+            hash = (31 * identifier.hashCode() + type.hashCode()) * 31
+                + (organism == null ? 0 : organism.hashCode());
+            return this;
+        }
+
+        /**
+         * @return a key that isn't changed when this one is set again
+         */
+        ProductKey copy() {
+            ProductKey copy = new ProductKey();
+            copy.identifier = identifier;
+            copy.type = type;
+            copy.organism = organism;
+            copy.hash = hash;
+            return copy;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ProductKey) {
+                ProductKey key = (ProductKey) o;
+                return hash == key.hash
+                        && identifier.equals(key.identifier)
+                        && type.equals(key.type)
+                        && equal(organism, key.organism);
+            }
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "ProductKey - identifier:" + identifier + " type:" + type + " organism:"
+                + organism;
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hash(String s) {
+        return s == null ? 0 : s.hashCode();
+    }
+
     /**
      * Identify a GoTerm/geneProduct pair with qualifier
      * used to also use evidence code
      */
-    private class GoTermToGene
+    static final class GoTermToGene
     {
         private String productId;
         private String goId;
         private String qualifier;
         private String withText;
+        private int hash;
+
+        GoTermToGene() {
+            // filled in by set()
+        }
 
         /**
-         * Constructor
-         *
          * @param productId gene/protein identifier
          * @param goId      GO term id
          * @param qualifier qualifier
+         * @param withText  with/from column
+         * @return this key
          */
-        GoTermToGene(String productId, String goId, String qualifier, String withText) {
+        GoTermToGene set(String productId, String goId, String qualifier, String withText) {
             this.productId = productId;
             this.goId = goId;
             this.qualifier = qualifier;
             this.withText = withText;
+            hash = ((31 * hash(productId) + hash(goId)) * 31 + hash(qualifier)) * 31
+                + hash(withText);
+            return this;
+        }
+
+        /**
+         * @return a key that isn't changed when this one is set again
+         */
+        GoTermToGene copy() {
+            GoTermToGene copy = new GoTermToGene();
+            copy.productId = productId;
+            copy.goId = goId;
+            copy.qualifier = qualifier;
+            copy.withText = withText;
+            copy.hash = hash;
+            return copy;
         }
 
         /**
@@ -808,10 +1518,11 @@ public class GoConverter extends BioFileConverter
         public boolean equals(Object o) {
             if (o instanceof GoTermToGene) {
                 GoTermToGene go = (GoTermToGene) o;
-                return productId.equals(go.productId)
-                        && goId.equals(go.goId)
-                        && qualifier.equals(go.qualifier)
-                        && withText.equals(go.withText);
+                return hash == go.hash
+                        && equal(productId, go.productId)
+                        && equal(goId, go.goId)
+                        && equal(qualifier, go.qualifier)
+                        && equal(withText, go.withText);
             }
             return false;
         }
@@ -821,10 +1532,7 @@ public class GoConverter extends BioFileConverter
          */
         @Override
         public int hashCode() {
-            return ((3 * productId.hashCode())
-                    + (5 * goId.hashCode())
-                    + (7 * qualifier.hashCode())
-                    + (11 * withText.hashCode()));
+            return hash;
         }
 
         /**
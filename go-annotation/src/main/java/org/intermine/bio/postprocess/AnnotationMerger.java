@@ -0,0 +1,139 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.bio.util.PostProcessUtil;
+import org.intermine.model.bio.GOAnnotation;
+import org.intermine.model.bio.OntologyAnnotationEvidenceCode;
+import org.intermine.model.bio.OntologyEvidence;
+import org.intermine.model.bio.OntologyTerm;
+import org.intermine.model.bio.Publication;
+
+/**
+ * Merges the GO annotations copied to one gene.  There is one annotation per term, and one
+ * evidence per evidence code for each annotation, holding the publications of all the
+ * evidence with that code.
+ *
+ * The evidence is indexed by term and code so each incoming evidence is merged with one hash
+ * lookup, however many annotations the gene has.  The evidence objects belong to the protein
+ * annotations, so publications are never added to them: when an evidence adds publications a
+ * copy is made, which has to be stored before the annotations.
+ */
+class AnnotationMerger
+{
+    private final Map<OntologyTerm, GOAnnotation> annotations =
+        new HashMap<OntologyTerm, GOAnnotation>();
+    private final Map<OntologyTerm, Map<OntologyAnnotationEvidenceCode, OntologyEvidence>>
+        evidenceByTerm =
+        new HashMap<OntologyTerm, Map<OntologyAnnotationEvidenceCode, OntologyEvidence>>();
+    // evidence created here to merge publications into, by identity as ids change on store
+    private final Set<OntologyEvidence> newEvidence =
+        Collections.newSetFromMap(new IdentityHashMap<OntologyEvidence, Boolean>());
+
+    /**
+     * Add an annotation, or merge its evidence if there is already one for the term.
+     * @param annotation the annotation, a copy that may be stored if it is new
+     * @return true if this is the first annotation to the term
+     */
+    boolean add(GOAnnotation annotation) {
+        OntologyTerm term = annotation.getOntologyTerm();
+        Map<OntologyAnnotationEvidenceCode, OntologyEvidence> evidenceByCode =
+            evidenceByTerm.get(term);
+        boolean isNew = evidenceByCode == null;
+        if (isNew) {
+            evidenceByCode = new HashMap<OntologyAnnotationEvidenceCode, OntologyEvidence>();
+            evidenceByTerm.put(term, evidenceByCode);
+            annotations.put(term, annotation);
+        }
+        Set<OntologyEvidence> evidence = annotation.getEvidence();
+        if (evidence != null) {
+            for (OntologyEvidence e : evidence) {
+                mergeEvidence(evidenceByCode, e);
+            }
+        }
+        return isNew;
+    }
+
+    private void mergeEvidence(Map<OntologyAnnotationEvidenceCode, OntologyEvidence>
+            evidenceByCode, OntologyEvidence evidence) {
+        OntologyAnnotationEvidenceCode code = evidence.getCode();
+        OntologyEvidence alreadySeen = evidenceByCode.get(code);
+        if (alreadySeen == null) {
+            evidenceByCode.put(code, evidence);
+            return;
+        }
+        if (alreadySeen.equals(evidence)) {
+            return;
+        }
+        Set<Publication> pubs = evidence.getPublications();
+        if (pubs == null || pubs.isEmpty() || alreadySeen.getPublications().containsAll(pubs)) {
+            return;
+        }
+        if (!newEvidence.contains(alreadySeen)) {
+            alreadySeen = copyEvidence(alreadySeen);
+            evidenceByCode.put(code, alreadySeen);
+        }
+        alreadySeen.getPublications().addAll(pubs);
+    }
+
+    private OntologyEvidence copyEvidence(OntologyEvidence evidence) {
+        OntologyEvidence copy;
+        try {
+            copy = PostProcessUtil.copyInterMineObject(evidence);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        copy.setPublications(new HashSet<Publication>(evidence.getPublications()));
+        newEvidence.add(copy);
+        return copy;
+    }
+
+    /**
+     * @return evidence made while merging, to store before the annotations
+     */
+    Collection<OntologyEvidence> getNewEvidence() {
+        return newEvidence;
+    }
+
+    /**
+     * Set the merged evidence on the annotations.
+     * @return one annotation per term
+     */
+    List<GOAnnotation> getAnnotations() {
+        List<GOAnnotation> result = new ArrayList<GOAnnotation>(annotations.size());
+        for (Map.Entry<OntologyTerm, GOAnnotation> entry : annotations.entrySet()) {
+            GOAnnotation annotation = entry.getValue();
+            annotation.setEvidence(
+                    new HashSet<OntologyEvidence>(evidenceByTerm.get(entry.getKey()).values()));
+            result.add(annotation);
+        }
+        return result;
+    }
+
+    /**
+     * Start on the next gene.
+     */
+    void clear() {
+        annotations.clear();
+        evidenceByTerm.clear();
+        newEvidence.clear();
+    }
+}
@@ -10,22 +10,27 @@ package org.intermine.bio.postprocess;
  *
  */
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.Constants;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.model.bio.GOAnnotation;
 import org.intermine.model.bio.OntologyEvidence;
-import org.intermine.model.bio.OntologyAnnotationEvidenceCode;
 import org.intermine.model.bio.Gene;
-import org.intermine.model.bio.OntologyTerm;
 import org.intermine.model.bio.Protein;
-import org.intermine.model.bio.Publication;
 import org.intermine.bio.util.PostProcessUtil;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
@@ -36,10 +41,17 @@ import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.postprocess.PostProcessor;
+import org.intermine.util.PropertiesUtil;
+
+import com.zaxxer.hikari.HikariConfig;
 
 /**
  * Take any GOAnnotation objects assigned to proteins and copy them to corresponding genes.
@@ -51,6 +63,10 @@ import org.intermine.postprocess.PostProcessor;
 public class GoPostprocess extends PostProcessor
 {
     private static final Logger LOG = Logger.getLogger(GoPostprocess.class);
+    private static final String PARTITIONS_PROPERTY = "go.postprocess.partitions";
+    // connections kept free of the partitions, for the writer this was made with and for the
+    // queries that read the genes
+    private static final int RESERVED_CONNECTIONS = 2;
     protected ObjectStore os;
 
     /**
@@ -70,16 +86,152 @@ public class GoPostprocess extends PostProcessor
      */
     @Override
     public void postProcess() throws ObjectStoreException {
+        int partitions = limitToConnections(getPartitionCount());
+        if (partitions > 1) {
+            postProcessPartitioned(partitions);
+            return;
+        }
 
         long startTime = System.currentTimeMillis();
 
         osw.beginTransaction();
 
-        Iterator<?> resIter = findProteinProperties(false);
+        int count = copyAnnotations(osw, findProteinProperties(false, null, null));
+
+        LOG.info("Created " + count + " new GOAnnotation objects for Genes"
+                + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
+        osw.commitTransaction();
+    }
+
+    /**
+     * Split the genes into ranges of ids and copy the annotations of each range on its own
+     * thread, with its own ObjectStoreWriter and transaction.
+     *
+     * A commit makes the ObjectStore drop precomputed tables and invalidate results reading
+     * from the tables that were written to, so no partition commits until every partition has
+     * read and stored all its genes.  If any partition fails, all of them are aborted.  So
+     * every partition holds a connection until they have all stored their genes, see
+     * limitToConnections().
+     *
+     * @param partitions number of ranges, and threads
+     * @throws ObjectStoreException if anything goes wrong
+     */
+    private void postProcessPartitioned(int partitions) throws ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+
+        int[] range = getGeneIdRange();
+        if (range == null) {
+            LOG.info("No genes, no GO annotations to copy");
+            return;
+        }
+        long span = (long) range[1] - range[0] + 1;
+        partitions = (int) Math.min(partitions, span);
+
+        CountDownLatch finished = new CountDownLatch(partitions);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < partitions; i++) {
+            int from = (int) (range[0] + span * i / partitions);
+            int to = (int) (range[0] + span * (i + 1) / partitions);
+            results.add(executor.submit(new Partition(i, from, to, finished, failed)));
+        }
+        executor.shutdown();
 
+        int count = 0;
+        ObjectStoreException exception = null;
+        for (Future<Integer> result : results) {
+            try {
+                count += result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exception = new ObjectStoreException("Interrupted copying GO annotations", e);
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = new ObjectStoreException("Failed to copy GO annotations",
+                            e.getCause());
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        LOG.info("Created " + count + " new GOAnnotation objects for Genes in " + partitions
+                + " partitions - took " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    /**
+     * Copies the annotations for the genes with ids in one range.
+     */
+    private class Partition implements Callable<Integer>
+    {
+        private final int index;
+        private final int from;
+        private final int to;
+        private final CountDownLatch finished;
+        private final AtomicBoolean failed;
+
+        Partition(int index, int from, int to, CountDownLatch finished, AtomicBoolean failed) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.finished = finished;
+            this.failed = failed;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            long startTime = System.currentTimeMillis();
+            ObjectStoreWriter writer = null;
+            boolean counted = false;
+            try {
+                writer = os.getNewWriter();
+                writer.beginTransaction();
+                int count = copyAnnotations(writer, findProteinProperties(false, from, to));
+                long stored = System.currentTimeMillis();
+
+                counted = true;
+                finished.countDown();
+                finished.await();
+                if (failed.get()) {
+                    writer.abortTransaction();
+                    throw new ObjectStoreException("Partition " + index + " aborted because"
+                            + " another partition failed");
+                }
+                writer.commitTransaction();
+                LOG.info("Partition " + index + " (genes " + from + " to " + (to - 1)
+                        + "): created " + count + " GOAnnotation objects, stored in "
+                        + (stored - startTime) + " ms, committed after "
+                        + (System.currentTimeMillis() - stored) + " ms.");
+                return count;
+            } catch (Exception e) {
+                failed.set(true);
+                if (writer != null && writer.isInTransaction()) {
+                    writer.abortTransaction();
+                }
+                throw e;
+            } finally {
+                if (!counted) {
+                    finished.countDown();
+                }
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the annotations from the results of findProteinProperties(), merging duplicates.
+     * @param writer writer to store genes and annotations with, in a transaction
+     * @param resIter Gene and GOAnnotation rows, ordered by gene
+     * @return number of GOAnnotation objects created
+     */
+    private int copyAnnotations(ObjectStoreWriter writer, Iterator<?> resIter)
+        throws ObjectStoreException {
         int count = 0;
         Gene lastGene = null;
-        Map<OntologyTerm, GOAnnotation> annotations = new HashMap<OntologyTerm, GOAnnotation>();
+        AnnotationMerger merger = new AnnotationMerger();
 
         while (resIter.hasNext()) {
             ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
@@ -88,20 +240,10 @@ public class GoPostprocess extends PostProcessor
 
             // process last set of annotations if this is a new gene
             if (lastGene != null && !(lastGene.equals(thisGene))) {
-                for (GOAnnotation item : annotations.values()) {
-                    osw.store(item);
-                }
-                lastGene.setGoAnnotation(new HashSet(annotations.values()));
-                LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
-                        + lastGene.getGoAnnotation().size() + " GO.");
-                osw.store(lastGene);
-
-                lastGene = thisGene;
-                annotations = new HashMap<OntologyTerm, GOAnnotation>();
+                storeGene(writer, lastGene, merger);
+                merger.clear();
             }
-
-            OntologyTerm term = thisAnnotation.getOntologyTerm();
-            Set<OntologyEvidence> evidence = thisAnnotation.getEvidence();
+            lastGene = thisGene;
 
             GOAnnotation tempAnnotation;
             try {
@@ -110,75 +252,107 @@ public class GoPostprocess extends PostProcessor
                 throw new RuntimeException(e);
             }
 
-            if (hasDupes(annotations, term, evidence, tempAnnotation)) {
-                // if a dupe, merge with already created object instead of creating new
+            if (!merger.add(tempAnnotation)) {
+                // if a dupe, the evidence is merged with the already created object
                 continue;
             }
             tempAnnotation.setSubject(thisGene);
-
-            lastGene = thisGene;
             count++;
         }
 
         if (lastGene != null) {
-            for (GOAnnotation item : annotations.values()) {
-                osw.store(item);
-            }
-            lastGene.setGoAnnotation(new HashSet(annotations.values()));
-            LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
-                    + lastGene.getGoAnnotation().size() + " GO.");
-            osw.store(lastGene);
+            storeGene(writer, lastGene, merger);
         }
+        return count;
+    }
 
-        LOG.info("Created " + count + " new GOAnnotation objects for Genes"
-                + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
-        osw.commitTransaction();
+    private void storeGene(ObjectStoreWriter writer, Gene gene, AnnotationMerger merger)
+        throws ObjectStoreException {
+        // the merged evidence needs ids before the annotations referring to it are stored
+        for (OntologyEvidence evidence : merger.getNewEvidence()) {
+            writer.store(evidence);
+        }
+        List<GOAnnotation> annotations = merger.getAnnotations();
+        for (GOAnnotation item : annotations) {
+            writer.store(item);
+        }
+        gene.setGoAnnotation(new HashSet<GOAnnotation>(annotations));
+        LOG.debug("store gene " + gene.getSecondaryIdentifier() + " with "
+                + annotations.size() + " GO.");
+        writer.store(gene);
     }
 
-    private boolean hasDupes(Map<OntologyTerm, GOAnnotation> annotations, OntologyTerm term,
-            Set<OntologyEvidence> evidence, GOAnnotation newAnnotation) {
-        boolean isDupe = false;
-        GOAnnotation alreadySeenAnnotation = annotations.get(term);
-        if (alreadySeenAnnotation != null) {
-            isDupe = true;
-            mergeEvidence(evidence, alreadySeenAnnotation);
-        } else {
-            annotations.put(term, newAnnotation);
-        }
-        return isDupe;
+    /**
+     * @return the go.postprocess.partitions property, 1 if not set
+     */
+    private static int getPartitionCount() {
+        String partitions = PropertiesUtil.getProperties().getProperty(PARTITIONS_PROPERTY);
+        if (partitions == null || partitions.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(partitions.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(PARTITIONS_PROPERTY + " must be a number, not: "
+                    + partitions);
+        }
     }
 
-    // we've seen this term, merge instead of storing new object
-    private void mergeEvidence(Set<OntologyEvidence> evidence, GOAnnotation alreadySeenAnnotation) {
-        for (OntologyEvidence g : evidence) {
-            OntologyAnnotationEvidenceCode c = g.getCode();
-            Set<Publication> pubs = g.getPublications();
-            boolean foundMatch = false;
-            for (OntologyEvidence alreadySeenEvidence : alreadySeenAnnotation.getEvidence()) {
-                OntologyAnnotationEvidenceCode alreadySeenCode = alreadySeenEvidence.getCode();
-                Set<Publication> alreadySeenPubs = alreadySeenEvidence.getPublications();
-                // we've already seen this evidence code, just merge pubs
-                if (c.equals(alreadySeenCode)) {
-                    foundMatch = true;
-                    alreadySeenPubs = mergePubs(alreadySeenPubs, pubs);
-                }
-            }
-            if (!foundMatch) {
-                // we don't have this evidence code
-                alreadySeenAnnotation.addEvidence(g);
-            }
+    /**
+     * The partitions all wait for each other with a connection each, so if there are more of
+     * them than the connection pool has the last ones never get a connection and none of them
+     * finish.  Use fewer partitions than the pool has connections.
+     * @param partitions the number of partitions asked for
+     * @return the number of partitions to use
+     */
+    private int limitToConnections(int partitions) {
+        if (partitions <= 1) {
+            return partitions;
+        }
+        int poolSize = getConnectionPoolSize();
+        if (poolSize < 0) {
+            LOG.warn("Can't tell how many database connections there are, " + PARTITIONS_PROPERTY
+                    + " = " + partitions + " needs " + (partitions + RESERVED_CONNECTIONS));
+            return partitions;
         }
+        int limit = poolSize - RESERVED_CONNECTIONS;
+        if (partitions > limit) {
+            LOG.warn(PARTITIONS_PROPERTY + " = " + partitions + " but the connection pool only has "
+                    + poolSize + " connections, using " + Math.max(1, limit) + " partitions");
+            return Math.max(1, limit);
+        }
+        return partitions;
     }
 
-    private Set<Publication> mergePubs(Set<Publication> alreadySeenPubs, Set<Publication> pubs) {
-        Set<Publication> newPubs = new HashSet<Publication>();
-        if (alreadySeenPubs != null) {
-            newPubs.addAll(alreadySeenPubs);
+    /**
+     * @return the maximum number of connections to the database, -1 if not known
+     */
+    private int getConnectionPoolSize() {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            DataSource dataSource = ((ObjectStoreInterMineImpl) os).getDatabase().getDataSource();
+            if (dataSource instanceof HikariConfig) {
+                return ((HikariConfig) dataSource).getMaximumPoolSize();
+            }
         }
-        if (pubs != null) {
-            newPubs.addAll(pubs);
+        return -1;
+    }
+
+    /**
+     * @return lowest and highest gene id, or null if there aren't any genes
+     */
+    private int[] getGeneIdRange() throws ObjectStoreException {
+        Query q = new Query();
+        QueryClass qcGene = new QueryClass(Gene.class);
+        q.addFrom(qcGene);
+        QueryField qfId = new QueryField(qcGene, "id");
+        q.addToSelect(new QueryFunction(qfId, QueryFunction.MIN));
+        q.addToSelect(new QueryFunction(qfId, QueryFunction.MAX));
+
+        ResultsRow<?> row = (ResultsRow<?>) os.execute(q).get(0);
+        if (row.get(0) == null) {
+            return null;
         }
-        return newPubs;
+        return new int[] {((Number) row.get(0)).intValue(), ((Number) row.get(1)).intValue()};
     }
 
     /**
@@ -187,8 +361,11 @@ public class GoPostprocess extends PostProcessor
      *
      * @param restrictToPrimaryGoTermsOnly Only get primary Annotation items linking the gene
      *  and the go term.
+     * @param fromGeneId if not null, only genes with at least this id
+     * @param toGeneId if not null, only genes with ids less than this
      */
-    private Iterator<?> findProteinProperties(boolean restrictToPrimaryGoTermsOnly)
+    private Iterator<?> findProteinProperties(boolean restrictToPrimaryGoTermsOnly,
+            Integer fromGeneId, Integer toGeneId)
         throws ObjectStoreException {
         Query q = new Query();
 
@@ -215,6 +392,16 @@ public class GoPostprocess extends PostProcessor
             new QueryObjectReference(qcAnnotation, "subject");
         cs.addConstraint(new ContainsConstraint(annSubjectRef, ConstraintOp.CONTAINS, qcProtein));
 
+        QueryField qfGeneId = new QueryField(qcGene, "id");
+        if (fromGeneId != null) {
+            cs.addConstraint(new SimpleConstraint(qfGeneId, ConstraintOp.GREATER_THAN_EQUALS,
+                    new QueryValue(fromGeneId)));
+        }
+        if (toGeneId != null) {
+            cs.addConstraint(new SimpleConstraint(qfGeneId, ConstraintOp.LESS_THAN,
+                    new QueryValue(toGeneId)));
+        }
+
         q.setConstraint(cs);
 
         ((ObjectStoreInterMineImpl) os).precompute(q, Constants.PRECOMPUTE_CATEGORY);
@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the CachingIdResolver class.
+ */
+public class CachingIdResolverTest extends TestCase
+{
+    private CountingIdResolver resolver;
+
+    public void setUp() {
+        resolver = new CountingIdResolver();
+        resolver.addResolverEntry("7227", "FBgn0000001", Collections.singleton("CG1234"));
+        // a synonym of two genes
+        resolver.addResolverEntry("7227", "FBgn0000002", Collections.singleton("CG5678"));
+        resolver.addResolverEntry("7227", "FBgn0000003", Collections.singleton("CG5678"));
+        resolver.addResolverEntry("6239", "WBGene00000001", Collections.singleton("CG0000"));
+    }
+
+    public void testResolveOnce() {
+        CachingIdResolver cache = new CachingIdResolver(resolver, 100);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            // more than one, or no, identifiers are remembered too
+            assertNull(cache.resolveOne("7227", "CG5678"));
+            assertNull(cache.resolveOne("7227", "CG0000"));
+        }
+        // and the same identifier for another taxon is looked up separately
+        assertEquals("WBGene00000001", cache.resolveOne("6239", "CG0000"));
+        assertEquals(4, resolver.lookups);
+        assertEquals(4, cache.getMisses());
+        assertEquals(6, cache.getHits());
+    }
+
+    public void testEvict() {
+        CachingIdResolver cache = new CachingIdResolver(resolver, 1);
+        for (int i = 0; i < 100; i++) {
+            cache.resolveOne("7227", "CG" + i);
+        }
+        assertEquals(100, resolver.lookups);
+        assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+        assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+        assertEquals(101, resolver.lookups);
+    }
+
+    public void testSnapshot() throws Exception {
+        File source = File.createTempFile("resolver-source", ".txt");
+        File snapshot = File.createTempFile("resolver", ".snapshot");
+        try {
+            writeFile(source, "genes");
+            // no snapshot yet
+            snapshot.delete();
+            CachingIdResolver cache = new CachingIdResolver(resolver, 100);
+            cache.useSnapshot(snapshot, "fly", source.getPath());
+            assertTrue(cache.hasTaxon("7227"));
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            assertNull(cache.resolveOne("7227", "CG5678"));
+            cache.saveSnapshot();
+            assertEquals(2, resolver.lookups);
+
+            // the same files, so the resolver isn't needed
+            cache = new CachingIdResolver(new FailingFactory(), 100);
+            cache.useSnapshot(snapshot, "fly", source.getPath());
+            assertTrue(cache.hasTaxon("7227"));
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            assertNull(cache.resolveOne("7227", "CG5678"));
+            assertEquals(2, cache.getSnapshotHits());
+            // and a new identifier is added to the snapshot
+            cache = new CachingIdResolver(resolver, 100);
+            cache.useSnapshot(snapshot, "fly", source.getPath());
+            assertEquals("WBGene00000001", cache.resolveOne("6239", "CG0000"));
+            cache.saveSnapshot();
+            cache = new CachingIdResolver(new FailingFactory(), 100);
+            cache.useSnapshot(snapshot, "fly", source.getPath());
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            assertEquals("WBGene00000001", cache.resolveOne("6239", "CG0000"));
+
+            // another resolver
+            cache = new CachingIdResolver(resolver, 100);
+            cache.useSnapshot(snapshot, "mod", source.getPath());
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            assertEquals(0, cache.getSnapshotHits());
+
+            // the resolver's files have changed
+            writeFile(source, "more genes");
+            cache = new CachingIdResolver(resolver, 100);
+            cache.useSnapshot(snapshot, "fly", source.getPath());
+            assertEquals("FBgn0000001", cache.resolveOne("7227", "CG1234"));
+            assertEquals(0, cache.getSnapshotHits());
+        } finally {
+            source.delete();
+            snapshot.delete();
+        }
+    }
+
+    public void testSnapshotNeedsSources() throws Exception {
+        CachingIdResolver cache = new CachingIdResolver(resolver, 100);
+        try {
+            cache.useSnapshot(new File("resolver.snapshot"), "fly", " ");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * For when the resolver shouldn't be needed.
+     */
+    private static class FailingFactory implements CachingIdResolver.ResolverFactory
+    {
+        @Override
+        public IdResolver getResolver() {
+            fail("resolver made when the snapshot should have been used");
+            return null;
+        }
+    }
+
+    /**
+     * Counts how many identifiers are looked up.
+     */
+    private static class CountingIdResolver extends IdResolver
+    {
+        private int lookups = 0;
+
+        CountingIdResolver() {
+            super("Gene");
+        }
+
+        @Override
+        public int countResolutions(String taxonId, String id) {
+            lookups++;
+            return super.countResolutions(taxonId, id);
+        }
+    }
+}
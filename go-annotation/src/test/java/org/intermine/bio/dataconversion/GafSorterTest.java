@@ -0,0 +1,81 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the GafSorter class.
+ */
+public class GafSorterTest extends TestCase
+{
+    public void testSort() throws Exception {
+        String gaf = "!gaf-version: 2.1\n"
+            + "TAIR\tAT3G02\tX\t\tGO:1\n"
+            + "TAIR\tAT1G01\tX\t\tGO:2\n"
+            + "!comment\n"
+            + "TAIR\tAT3G02\tX\t\tGO:3\n"
+            + "TAIR\n"
+            + "TAIR\tAT1G01\tX\t\tGO:4\n";
+        String expected = "!gaf-version: 2.1\n"
+            + "!comment\n"
+            + "TAIR\n"
+            + "TAIR\tAT1G01\tX\t\tGO:2\n"
+            + "TAIR\tAT1G01\tX\t\tGO:4\n"
+            + "TAIR\tAT3G02\tX\t\tGO:1\n"
+            + "TAIR\tAT3G02\tX\t\tGO:3\n";
+        assertEquals(expected, sort(gaf, 1000));
+        assertEquals(expected, sort(gaf, 2));
+        assertEquals(expected, sort(gaf, 1));
+    }
+
+    /**
+     * Sorting in runs and merging them must give the same lines, in the same order, as a
+     * stable sort in memory.
+     */
+    public void testSameAsStableSort() throws Exception {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<String>();
+        StringBuilder gaf = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String line = "UniProtKB\tP" + random.nextInt(300) + "\tsymbol\t\tGO:" + i;
+            lines.add(line);
+            gaf.append(line).append('\n');
+        }
+        Collections.sort(lines, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return a.split("\t")[1].compareTo(b.split("\t")[1]);
+            }
+        });
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(line).append('\n');
+        }
+        assertEquals(expected.toString(), sort(gaf.toString(), 333));
+    }
+
+    private static String sort(String gaf, int linesPerRun) throws Exception {
+        GafSorter sorter = new GafSorter(1);
+        sorter.setLinesPerRun(linesPerRun);
+        StringWriter out = new StringWriter();
+        sorter.sort(new StringReader(gaf), out);
+        return out.toString();
+    }
+}
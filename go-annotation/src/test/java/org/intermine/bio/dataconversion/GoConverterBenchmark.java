@@ -0,0 +1,184 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times the product and annotation lookups GoConverter makes for each GAF line: the
+ * ProductKey and GoTermToGene keys against the concatenated product String and GoTermToGene
+ * without a cached hash code they replaced.  The lines are made up, with the columns shared
+ * between lines so that only the keys are measured.  Not run with the tests:
+ *
+ * <pre>
+ * java -cp ... org.intermine.bio.dataconversion.GoConverterBenchmark [lines] [rounds]
+ * </pre>
+ */
+public final class GoConverterBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int PRODUCTS = 30000;
+    private static final int GO_TERMS_PER_PRODUCT = 8;
+    private static final String[] QUALIFIERS = {"", "", "", "NOT", "contributes_to",
+        "colocalizes_with"};
+
+    private GoConverterBenchmark() {
+        // don't
+    }
+
+    /**
+     * @param args optional number of lines and number of timed rounds
+     */
+    public static void main(String[] args) {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // each product has a few GO terms, with several lines of evidence for each
+        Random random = new Random(1);
+        String[] products = new String[PRODUCTS];
+        String[][] goIds = new String[PRODUCTS][GO_TERMS_PER_PRODUCT];
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = String.format("AT%dG%05d", 1 + random.nextInt(5), i);
+            for (int j = 0; j < GO_TERMS_PER_PRODUCT; j++) {
+                goIds[i][j] = String.format("GO:%07d", random.nextInt(40000));
+            }
+        }
+        int[] lineProducts = new int[lineCount];
+        String[][] lines = new String[lineCount][];
+        for (int i = 0; i < lineCount; i++) {
+            int product = random.nextInt(PRODUCTS);
+            lineProducts[i] = product;
+            lines[i] = new String[] {products[product],
+                goIds[product][random.nextInt(GO_TERMS_PER_PRODUCT)],
+                QUALIFIERS[random.nextInt(QUALIFIERS.length)],
+                random.nextInt(4) == 0 ? "UniProtKB:P" + (10000 + product) : ""};
+        }
+        String type = "gene";
+        String organism = "0_1";
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += concatenated(lines, type, organism) + keys(lines, type, organism);
+        }
+        long[] concatenated = new long[2];
+        long[] keys = new long[2];
+        for (int i = 0; i < rounds; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            checksum += concatenated(lines, type, organism);
+            concatenated[0] += System.nanoTime() - start;
+            concatenated[1] += allocatedBytes() - bytes;
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            checksum += keys(lines, type, organism);
+            keys[0] += System.nanoTime() - start;
+            keys[1] += allocatedBytes() - bytes;
+        }
+        print("String keys", concatenated, rounds, lineCount, checksum);
+        print("cached hash keys", keys, rounds, lineCount, checksum);
+    }
+
+    private static void print(String name, long[] totals, int rounds, int lineCount,
+            long checksum) {
+        System.out.println(String.format("%-20s %8.1f ns/line %8.1f bytes/line  [%d]", name,
+                (double) totals[0] / rounds / lineCount, (double) totals[1] / rounds / lineCount,
+                checksum));
+    }
+
+    // bytes allocated by this thread, 0 if the JVM can't tell
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // how GoConverter looked the lines up before
+    private static long concatenated(String[][] lines, String type, String organism) {
+        Map<String, String> productMap = new HashMap<String, String>();
+        Map<OldGoTermToGene, String> annotations = new HashMap<OldGoTermToGene, String>();
+        for (String[] line : lines) {
+            OldGoTermToGene key = new OldGoTermToGene(line[0], line[1], line[2], line[3]);
+            String productKey = line[0] + type.toLowerCase() + organism;
+            if (productMap.get(productKey) == null) {
+                productMap.put(productKey, line[0]);
+            }
+            if (annotations.get(key) == null) {
+                annotations.put(key, line[1]);
+            }
+        }
+        return productMap.size() + annotations.size();
+    }
+
+    private static long keys(String[][] lines, String type, String organism) {
+        Map<GoConverter.ProductKey, String> productMap =
+            new HashMap<GoConverter.ProductKey, String>();
+        Map<GoConverter.GoTermToGene, String> annotations =
+            new HashMap<GoConverter.GoTermToGene, String>();
+        GoConverter.ProductKey productKey = new GoConverter.ProductKey();
+        GoConverter.GoTermToGene annotationKey = new GoConverter.GoTermToGene();
+        for (String[] line : lines) {
+            GoConverter.GoTermToGene key = annotationKey.set(line[0], line[1], line[2], line[3]);
+            productKey.set(line[0], type.toLowerCase(), organism);
+            if (productMap.get(productKey) == null) {
+                productMap.put(productKey.copy(), line[0]);
+            }
+            if (annotations.get(key) == null) {
+                annotations.put(key.copy(), line[1]);
+            }
+        }
+        return productMap.size() + annotations.size();
+    }
+
+    /**
+     * GoTermToGene as it was, working out its hash code for each lookup.
+     */
+    private static class OldGoTermToGene
+    {
+        private String productId;
+        private String goId;
+        private String qualifier;
+        private String withText;
+
+        OldGoTermToGene(String productId, String goId, String qualifier, String withText) {
+            this.productId = productId;
+            this.goId = goId;
+            this.qualifier = qualifier;
+            this.withText = withText;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof OldGoTermToGene) {
+                OldGoTermToGene go = (OldGoTermToGene) o;
+                return productId.equals(go.productId)
+                        && goId.equals(go.goId)
+                        && qualifier.equals(go.qualifier)
+                        && withText.equals(go.withText);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((3 * productId.hashCode())
+                    + (5 * goId.hashCode())
+                    + (7 * qualifier.hashCode())
+                    + (11 * withText.hashCode()));
+        }
+    }
+}
@@ -10,13 +10,19 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.intermine.dataconversion.ItemsTestCase;
@@ -87,6 +93,117 @@ public class GoConverterTest extends ItemsTestCase
         assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
     }
 
+    public void testProcessThreaded() throws Exception {
+        Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test"));
+        converter.setThreads("3");
+        // several batches, so they have to be put back in order
+        converter.setBatchSize("2");
+        converter.process(reader);
+        converter.close();
+
+        assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
+    }
+
+    public void testProcessPartitioned() throws Exception {
+        Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test"));
+        converter.setPartitions("3");
+        converter.process(reader);
+        converter.close();
+
+        // the items are made in a different order, so they have different identifiers
+        assertEquals(ItemDescriber.describe(readItemSet("GoConverterOboTest_tgt.xml")),
+                ItemDescriber.describe(writer.getItems()));
+    }
+
+    public void testProcessLinesPerPartition() throws Exception {
+        File gafFile = File.createTempFile("synbio_test", ".gaf");
+        try {
+            writeTempFile(gafFile, new InputStreamReader(
+                    getClass().getClassLoader().getResourceAsStream("synbio_test")));
+            int lines = 0;
+            BufferedReader br = new BufferedReader(new FileReader(gafFile));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.startsWith("!")) {
+                    lines++;
+                }
+            }
+            br.close();
+
+            converter.setPartitions("2");
+            converter.setLinesPerPartition("3");
+            assertEquals((lines + 2) / 3, converter.getPartitionCount(gafFile));
+            // no file to count, so the number of partitions is used
+            assertEquals(2, converter.getPartitionCount(null));
+
+            converter.setCurrentFile(gafFile);
+            converter.process(new FileReader(gafFile));
+            converter.close();
+        } finally {
+            gafFile.delete();
+        }
+
+        assertEquals(ItemDescriber.describe(readItemSet("GoConverterOboTest_tgt.xml")),
+                ItemDescriber.describe(writer.getItems()));
+    }
+
+    public void testProcessSortedByProduct() throws Exception {
+        Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test"));
+        converter.setSortedByProduct("true");
+        converter.process(reader);
+        converter.close();
+
+        assertEquals(ItemDescriber.describe(readItemSet("GoConverterOboTest_tgt.xml")),
+                ItemDescriber.describe(writer.getItems()));
+    }
+
+    public void testProcessSortsFile() throws Exception {
+        // the lines of the products taken in turn, the lines of each product stay in order
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test")));
+        Map<String, List<String>> products = new LinkedHashMap<String, List<String>>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (!line.startsWith("!")) {
+                String product = line.split("\t")[1];
+                if (!products.containsKey(product)) {
+                    products.put(product, new ArrayList<String>());
+                }
+                products.get(product).add(line);
+            }
+        }
+        br.close();
+        File gafFile = File.createTempFile("synbio_test", ".gaf");
+        try {
+            FileWriter fileWriter = new FileWriter(gafFile);
+            for (int i = 0; !products.isEmpty(); i++) {
+                Iterator<List<String>> iter = products.values().iterator();
+                while (iter.hasNext()) {
+                    List<String> lines = iter.next();
+                    if (i < lines.size()) {
+                        fileWriter.write(lines.get(i) + "\n");
+                    } else {
+                        iter.remove();
+                    }
+                }
+            }
+            fileWriter.close();
+
+            converter.setCurrentFile(gafFile);
+            converter.setSortedByProduct("sort");
+            converter.process(new FileReader(gafFile));
+            converter.close();
+        } finally {
+            gafFile.delete();
+        }
+
+        assertEquals(ItemDescriber.describe(readItemSet("GoConverterOboTest_tgt.xml")),
+                ItemDescriber.describe(writer.getItems()));
+    }
+
     public void testCreateWithObjects() throws Exception {
         ItemFactory tgtItemFactory = new ItemFactory(Model.getInstanceByName("genomic"));
         Item organism = tgtItemFactory.makeItem("3_1", "Organism", "");
@@ -100,5 +217,4 @@ public class GoConverterTest extends ItemsTestCase
                 "FLYBASE:Grip84; FB:FBgn0026430, FLYBASE:l(1)dd4; FB:FBgn0001612",
                 organism)));
     }
-
 }
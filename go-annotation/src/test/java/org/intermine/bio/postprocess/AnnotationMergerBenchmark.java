@@ -0,0 +1,125 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.bio.GOAnnotation;
+import org.intermine.model.bio.GOEvidence;
+import org.intermine.model.bio.GOEvidenceCode;
+import org.intermine.model.bio.GOTerm;
+import org.intermine.model.bio.OntologyEvidence;
+import org.intermine.model.bio.Publication;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Times AnnotationMerger on genes with many IEA annotations from their proteins, to a few
+ * dozen terms each with its own GO_REF publication, as AnnotationMergerTest checks the result
+ * of.  The annotations are made before each round, so only the merging is timed.  Not run
+ * with the tests:
+ *
+ * <pre>
+ * java -cp ... org.intermine.bio.postprocess.AnnotationMergerBenchmark [annotations] [rounds]
+ * </pre>
+ */
+public final class AnnotationMergerBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int GENES = 200;
+    private static final int TERMS = 40;
+
+    private static int nextId = 1;
+
+    private AnnotationMergerBenchmark() {
+        // don't
+    }
+
+    /**
+     * @param args optional number of annotations per gene and number of timed rounds
+     */
+    public static void main(String[] args) {
+        int annotationCount = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        GOEvidenceCode iea = create(GOEvidenceCode.class);
+        List<GOTerm> terms = new ArrayList<GOTerm>();
+        List<Publication> pubs = new ArrayList<Publication>();
+        for (int i = 0; i < TERMS; i++) {
+            terms.add(create(GOTerm.class));
+            pubs.add(create(Publication.class));
+        }
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += merge(createGenes(annotationCount, iea, terms, pubs));
+        }
+        long total = 0;
+        for (int i = 0; i < rounds; i++) {
+            List<List<GOAnnotation>> genes = createGenes(annotationCount, iea, terms, pubs);
+            long start = System.nanoTime();
+            checksum += merge(genes);
+            total += System.nanoTime() - start;
+        }
+        System.out.println(String.format("%d genes of %d annotations to %d terms: "
+                + "%8.1f ns/annotation, %8.1f us/gene  [%d]", GENES, annotationCount, TERMS,
+                (double) total / rounds / GENES / annotationCount,
+                (double) total / rounds / GENES / 1000, checksum));
+    }
+
+    // merge the annotations of each gene, as GoPostprocess does
+    private static long merge(List<List<GOAnnotation>> genes) {
+        long count = 0;
+        AnnotationMerger merger = new AnnotationMerger();
+        for (List<GOAnnotation> incoming : genes) {
+            for (GOAnnotation annotation : incoming) {
+                merger.add(annotation);
+            }
+            count += merger.getAnnotations().size() + merger.getNewEvidence().size();
+            merger.clear();
+        }
+        return count;
+    }
+
+    // every other annotation to a term has one more publication
+    private static List<List<GOAnnotation>> createGenes(int annotationCount,
+            GOEvidenceCode iea, List<GOTerm> terms, List<Publication> pubs) {
+        List<List<GOAnnotation>> genes = new ArrayList<List<GOAnnotation>>();
+        for (int gene = 0; gene < GENES; gene++) {
+            List<GOAnnotation> incoming = new ArrayList<GOAnnotation>();
+            for (int i = 0; i < annotationCount; i++) {
+                GOEvidence evidence = create(GOEvidence.class);
+                evidence.setCode(iea);
+                evidence.addPublications(pubs.get(i % TERMS));
+                if (i % (2 * TERMS) >= TERMS) {
+                    evidence.addPublications(pubs.get((i + 1) % TERMS));
+                }
+                GOAnnotation annotation = create(GOAnnotation.class);
+                annotation.setOntologyTerm(terms.get(i % TERMS));
+                annotation.setEvidence(
+                        new HashSet<OntologyEvidence>(Collections.singleton(evidence)));
+                incoming.add(annotation);
+            }
+            genes.add(incoming);
+        }
+        return genes;
+    }
+
+    // objects with ids, like the ones read from the objectstore
+    private static <T extends InterMineObject> T create(Class<T> type) {
+        T o = (T) DynamicUtil.createObject(Collections.singleton(type));
+        o.setId(new Integer(nextId++));
+        return o;
+    }
+}
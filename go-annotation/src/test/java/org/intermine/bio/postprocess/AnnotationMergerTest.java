@@ -0,0 +1,161 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.bio.GOAnnotation;
+import org.intermine.model.bio.GOEvidence;
+import org.intermine.model.bio.GOEvidenceCode;
+import org.intermine.model.bio.GOTerm;
+import org.intermine.model.bio.OntologyEvidence;
+import org.intermine.model.bio.Publication;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for the AnnotationMerger class.
+ */
+public class AnnotationMergerTest extends TestCase
+{
+    private int nextId = 1;
+
+    public void testMergePublications() throws Exception {
+        GOTerm term = create(GOTerm.class);
+        GOEvidenceCode code = create(GOEvidenceCode.class);
+        Publication pub1 = create(Publication.class);
+        Publication pub2 = create(Publication.class);
+        GOEvidence evidence1 = createEvidence(code, pub1);
+        GOEvidence evidence2 = createEvidence(code, pub2);
+
+        AnnotationMerger merger = new AnnotationMerger();
+        assertTrue(merger.add(createAnnotation(term, evidence1)));
+        assertFalse(merger.add(createAnnotation(term, evidence2)));
+
+        List<GOAnnotation> annotations = merger.getAnnotations();
+        assertEquals(1, annotations.size());
+        assertEquals(1, annotations.get(0).getEvidence().size());
+        OntologyEvidence merged = annotations.get(0).getEvidence().iterator().next();
+        assertEquals(new HashSet<Publication>(Arrays.asList(pub1, pub2)),
+                merged.getPublications());
+        assertEquals(Collections.singleton(merged), new HashSet<OntologyEvidence>(
+                merger.getNewEvidence()));
+
+        // the evidence of the protein annotations is left alone
+        assertEquals(Collections.singleton(pub1), evidence1.getPublications());
+        assertEquals(Collections.singleton(pub2), evidence2.getPublications());
+    }
+
+    public void testDifferentCodes() throws Exception {
+        GOTerm term = create(GOTerm.class);
+        GOEvidence evidence1 = createEvidence(create(GOEvidenceCode.class),
+                create(Publication.class));
+        GOEvidence evidence2 = createEvidence(create(GOEvidenceCode.class),
+                create(Publication.class));
+
+        AnnotationMerger merger = new AnnotationMerger();
+        merger.add(createAnnotation(term, evidence1));
+        merger.add(createAnnotation(term, evidence2));
+
+        List<GOAnnotation> annotations = merger.getAnnotations();
+        assertEquals(1, annotations.size());
+        assertEquals(new HashSet<OntologyEvidence>(Arrays.asList(evidence1, evidence2)),
+                annotations.get(0).getEvidence());
+        assertTrue(merger.getNewEvidence().isEmpty());
+    }
+
+    public void testSamePublications() throws Exception {
+        GOTerm term = create(GOTerm.class);
+        GOEvidenceCode code = create(GOEvidenceCode.class);
+        Publication pub = create(Publication.class);
+        GOEvidence evidence1 = createEvidence(code, pub);
+
+        AnnotationMerger merger = new AnnotationMerger();
+        merger.add(createAnnotation(term, evidence1));
+        merger.add(createAnnotation(term, createEvidence(code, pub)));
+
+        // nothing to add, so no new evidence is needed
+        assertEquals(Collections.singleton(evidence1),
+                merger.getAnnotations().get(0).getEvidence());
+        assertTrue(merger.getNewEvidence().isEmpty());
+    }
+
+    /**
+     * One gene with hundreds of IEA annotations from its proteins, to a few dozen terms each
+     * with its own GO_REF publication.
+     */
+    public void testManyIeaAnnotations() throws Exception {
+        int termCount = 40;
+        int annotationCount = 800;
+        GOEvidenceCode iea = create(GOEvidenceCode.class);
+        List<GOTerm> terms = new ArrayList<GOTerm>();
+        List<Publication> pubs = new ArrayList<Publication>();
+        for (int i = 0; i < termCount; i++) {
+            terms.add(create(GOTerm.class));
+            pubs.add(create(Publication.class));
+        }
+        List<GOAnnotation> incoming = new ArrayList<GOAnnotation>();
+        for (int i = 0; i < annotationCount; i++) {
+            // every other annotation to a term has one more publication
+            GOEvidence evidence = createEvidence(iea, pubs.get(i % termCount));
+            if (i % (2 * termCount) >= termCount) {
+                evidence.addPublications(pubs.get((i + 1) % termCount));
+            }
+            incoming.add(createAnnotation(terms.get(i % termCount), evidence));
+        }
+
+        AnnotationMerger merger = new AnnotationMerger();
+        int created = 0;
+        for (GOAnnotation annotation : incoming) {
+            if (merger.add(annotation)) {
+                created++;
+            }
+        }
+        List<GOAnnotation> annotations = merger.getAnnotations();
+
+        assertEquals(termCount, created);
+        assertEquals(termCount, annotations.size());
+        assertEquals(termCount, merger.getNewEvidence().size());
+        for (GOAnnotation annotation : annotations) {
+            assertEquals(1, annotation.getEvidence().size());
+            OntologyEvidence evidence = annotation.getEvidence().iterator().next();
+            assertEquals(iea, evidence.getCode());
+            assertEquals(2, evidence.getPublications().size());
+        }
+    }
+
+    private GOAnnotation createAnnotation(GOTerm term, GOEvidence evidence) {
+        GOAnnotation annotation = create(GOAnnotation.class);
+        annotation.setOntologyTerm(term);
+        annotation.setEvidence(new HashSet<OntologyEvidence>(Collections.singleton(evidence)));
+        return annotation;
+    }
+
+    private GOEvidence createEvidence(GOEvidenceCode code, Publication pub) {
+        GOEvidence evidence = create(GOEvidence.class);
+        evidence.setCode(code);
+        evidence.addPublications(pub);
+        return evidence;
+    }
+
+    // objects with ids, like the ones read from the objectstore
+    private <T extends InterMineObject> T create(Class<T> type) {
+        T o = (T) DynamicUtil.createObject(Collections.singleton(type));
+        o.setId(new Integer(nextId++));
+        return o;
+    }
+}
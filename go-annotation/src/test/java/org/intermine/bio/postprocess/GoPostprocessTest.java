@@ -16,6 +16,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 
 import org.custommonkey.xmlunit.XMLTestCase;
@@ -25,6 +26,7 @@ import org.intermine.model.bio.GOEvidence;
 import org.intermine.model.bio.GOEvidenceCode;
 import org.intermine.model.bio.GOTerm;
 import org.intermine.model.bio.Gene;
+import org.intermine.model.bio.OntologyEvidence;
 import org.intermine.model.bio.OntologyTerm;
 import org.intermine.model.bio.Protein;
 import org.intermine.model.bio.Publication;
@@ -36,6 +38,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.PropertiesUtil;
 
 /**
  * Tests for the GoPostprocess class.
@@ -110,6 +113,75 @@ public class GoPostprocessTest extends XMLTestCase {
     }
 
 
+    public void testMergingPublications() throws Exception {
+        setUpSameCodeData();
+
+        GoPostprocess gp = new GoPostprocess(osw);
+        gp.postProcess();
+
+        Gene resGene = (Gene) getFromDb(Gene.class).iterator().next();
+
+        // one annotation with one evidence holding both publications
+        assertEquals(1, resGene.getGoAnnotation().size());
+        GOAnnotation a = resGene.getGoAnnotation().iterator().next();
+        assertEquals(1, a.getEvidence().size());
+        assertEquals(2, a.getEvidence().iterator().next().getPublications().size());
+
+        // the protein evidence keeps its own publication, the gene has a merged copy
+        List<Integer> pubCounts = new ArrayList<Integer>();
+        for (InterMineObject o : getFromDb(GOEvidence.class)) {
+            pubCounts.add(((OntologyEvidence) o).getPublications().size());
+        }
+        Collections.sort(pubCounts);
+        assertEquals(Arrays.asList(1, 1, 2), pubCounts);
+    }
+
+    /**
+     * Copying the annotations in partitions, each with its own transaction, gives the same
+     * annotations as copying them in one transaction.
+     */
+    public void testPostProcessPartitioned() throws Exception {
+        deleteAlltheThings();
+        setUpData();
+        setUpDuplicateData();
+        new GoPostprocess(osw).postProcess();
+        List<String> expected = describeGeneAnnotations();
+        assertEquals(3, expected.size());
+
+        deleteAlltheThings();
+        setUpData();
+        setUpDuplicateData();
+        Properties properties = PropertiesUtil.getProperties();
+        properties.setProperty("go.postprocess.partitions", "2");
+        try {
+            new GoPostprocess(osw).postProcess();
+        } finally {
+            properties.remove("go.postprocess.partitions");
+        }
+        assertEquals(expected, describeGeneAnnotations());
+    }
+
+    // the GO terms of each gene, with the number of evidence and publications of each
+    private List<String> describeGeneAnnotations() throws Exception {
+        List<String> genes = new ArrayList<String>();
+        for (InterMineObject o : getFromDb(Gene.class)) {
+            Gene gene = (Gene) o;
+            List<String> annotations = new ArrayList<String>();
+            for (GOAnnotation goa : gene.getGoAnnotation()) {
+                int publications = 0;
+                for (OntologyEvidence evidence : goa.getEvidence()) {
+                    publications += evidence.getPublications().size();
+                }
+                annotations.add(goa.getOntologyTerm().getName() + " evidence: "
+                        + goa.getEvidence().size() + " publications: " + publications);
+            }
+            Collections.sort(annotations);
+            genes.add(gene.getName() + " " + annotations);
+        }
+        Collections.sort(genes);
+        return genes;
+    }
+
     // Store 2 genes with a protein, each protein has a GO term
     private void setUpData() throws Exception {
         Gene gene1 = (Gene) DynamicUtil.createObject(Collections.singleton(Gene.class));
@@ -195,6 +267,36 @@ public class GoPostprocessTest extends XMLTestCase {
     }
 
 
+    // one gene, two proteins, ONE annotation, same evidence code - the publications should merge
+    private void setUpSameCodeData() throws Exception {
+        Gene gene = (Gene) DynamicUtil.createObject(Collections.singleton(Gene.class));
+        OntologyTerm ontologyTerm = (OntologyTerm) DynamicUtil.createObject(Collections.singleton(OntologyTerm.class));
+        GOEvidenceCode code = (GOEvidenceCode) DynamicUtil.createObject(Collections.singleton(GOEvidenceCode.class));
+        List toStore = new ArrayList(Arrays.asList(new Object[] {gene, ontologyTerm, code}));
+
+        for (int i = 0; i < 2; i++) {
+            Protein protein = (Protein) DynamicUtil.createObject(Collections.singleton(Protein.class));
+            protein.addGenes(gene);
+            GOAnnotation go = (GOAnnotation) DynamicUtil.createObject(Collections.singleton(GOAnnotation.class));
+            go.setSubject(protein);
+            go.setOntologyTerm(ontologyTerm);
+            GOEvidence evidence = (GOEvidence) DynamicUtil.createObject(Collections.singleton(GOEvidence.class));
+            evidence.setCode(code);
+            Publication pub = (Publication) DynamicUtil.createObject(Collections.singleton(Publication.class));
+            evidence.addPublications(pub);
+            go.setEvidence(Collections.singleton(evidence));
+            toStore.addAll(Arrays.asList(new Object[] {protein, go, evidence, pub}));
+        }
+
+        osw.beginTransaction();
+        Iterator i = toStore.iterator();
+        while (i.hasNext()) {
+            osw.store((InterMineObject) i.next());
+        }
+        osw.commitTransaction();
+    }
+
+
     private Set<InterMineObject> getFromDb(Class relClass) throws Exception {
         Query q = new Query();
         QueryClass qc = new QueryClass(relClass);
@@ -0,0 +1,31 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Picks the lines of protein2ipr.dat to load by their protein accession.
+ */
+public interface AccessionFilter
+{
+    /**
+     * @param buf bytes holding an accession
+     * @param start first byte of the accession
+     * @param end the byte after the accession
+     * @return true if the lines for the accession should be loaded
+     */
+    boolean contains(byte[] buf, int start, int end);
+
+    /**
+     * @param accession an accession, eg. a column of a TabTokenizer
+     * @return true if the lines for the accession should be loaded
+     */
+    boolean contains(CharSequence accession);
+}
@@ -0,0 +1,213 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The protein accessions to load domains for.  Lookups are made straight from the bytes of a
+ * line of protein2ipr.dat, so a line for a protein that isn't wanted is skipped without making
+ * a String of its accession.
+ *
+ * UniProt accessions are 6 or 10 upper case letters and digits, so each one is packed into a
+ * long, 8 bytes instead of a String in a HashSet.  The packed accessions are kept in a sorted
+ * array, with a Bloom filter in front of it so most accessions that aren't in the set are
+ * turned away without searching the array.  Anything else, eg. an isoform like P12345-2, is
+ * kept in a HashSet.
+ *
+ * All the accessions should be added before looking any up.  Lookups may be made from
+ * several threads.
+ */
+public class AccessionSet implements AccessionFilter
+{
+    // 37^12 < 2^63, so up to 12 characters of [0-9A-Z] fit in a long
+    private static final int MAX_PACKED_LENGTH = 12;
+    private static final int BASE = 37;
+    private static final long NOT_PACKED = -1;
+    // bits in the Bloom filter per accession, with two bits set per accession about 1.4% of
+    // the accessions that aren't in the set get through to the binary search
+    private static final int FILTER_BITS_PER_KEY = 16;
+    // the largest power of two array of longs, 2^30 of them
+    private static final long MAX_FILTER_BITS = 1L << 36;
+
+    // packed accessions, keys[0, keyCount) sorted and without duplicates once prepared
+    private long[] keys = new long[1024];
+    private int keyCount = 0;
+    private final Set<String> others = new HashSet<String>();
+    private long[] filter = new long[1];
+    private long filterMask = 63;
+    private volatile boolean prepared = true;
+
+    /**
+     * @param accession an accession to add
+     */
+    public synchronized void add(String accession) {
+        long key = pack(accession);
+        if (key == NOT_PACKED) {
+            others.add(accession);
+            return;
+        }
+        if (keyCount == keys.length) {
+            keys = Arrays.copyOf(keys, keyCount * 2);
+        }
+        keys[keyCount++] = key;
+        prepared = false;
+    }
+
+    /**
+     * @return number of accessions
+     */
+    public int size() {
+        prepare();
+        return keyCount + others.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(byte[] buf, int start, int end) {
+        prepare();
+        long key = pack(buf, start, end);
+        if (key == NOT_PACKED) {
+            return !others.isEmpty()
+                && others.contains(new String(buf, start, end - start, StandardCharsets.UTF_8));
+        }
+        return containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(CharSequence accession) {
+        prepare();
+        long key = pack(accession);
+        if (key == NOT_PACKED) {
+            return !others.isEmpty() && others.contains(accession.toString());
+        }
+        return containsKey(key);
+    }
+
+    private boolean containsKey(long key) {
+        long hash = mix(key);
+        // the two halves of the hash, they overlap in a filter of more than 2^32 bits
+        if (!isSet(hash) || !isSet(Long.rotateLeft(hash, 32))) {
+            return false;
+        }
+        return Arrays.binarySearch(keys, 0, keyCount, key) >= 0;
+    }
+
+    private boolean isSet(long bit) {
+        bit &= filterMask;
+        return (filter[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    // sort the keys added since the last lookup and rebuild the filter
+    private void prepare() {
+        if (prepared) {
+            return;
+        }
+        synchronized (this) {
+            if (prepared) {
+                return;
+            }
+            Arrays.sort(keys, 0, keyCount);
+            int unique = 0;
+            for (int i = 0; i < keyCount; i++) {
+                if (unique == 0 || keys[i] != keys[unique - 1]) {
+                    keys[unique++] = keys[i];
+                }
+            }
+            keyCount = unique;
+            keys = Arrays.copyOf(keys, Math.max(1, keyCount));
+
+            long bits = filterBits(keyCount);
+            filter = new long[(int) (bits >>> 6)];
+            filterMask = bits - 1;
+            for (int i = 0; i < keyCount; i++) {
+                long hash = mix(keys[i]);
+                setBit(hash);
+                setBit(Long.rotateLeft(hash, 32));
+            }
+            prepared = true;
+        }
+    }
+
+    /**
+     * Size of the Bloom filter for a number of keys, package private for the tests.  A long,
+     * there are more bits than an int can count above 2^27 keys.
+     */
+    static long filterBits(int keyCount) {
+        long bits = Math.max(64, (long) keyCount * FILTER_BITS_PER_KEY - 1);
+        return Math.min(MAX_FILTER_BITS, Long.highestOneBit(bits) << 1);
+    }
+
+    private void setBit(long bit) {
+        bit &= filterMask;
+        filter[(int) (bit >>> 6)] |= 1L << bit;
+    }
+
+    // the digits of an accession, 0 for a character that can't be packed
+    private static int digit(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 11;
+        }
+        return 0;
+    }
+
+    // digits are 1 to 36 in base 37, so accessions of different lengths can't clash
+    private static long pack(byte[] buf, int start, int end) {
+        if (end - start > MAX_PACKED_LENGTH) {
+            return NOT_PACKED;
+        }
+        long key = 0;
+        for (int i = start; i < end; i++) {
+            int digit = digit(buf[i]);
+            if (digit == 0) {
+                return NOT_PACKED;
+            }
+            key = key * BASE + digit;
+        }
+        return key;
+    }
+
+    private static long pack(CharSequence accession) {
+        int length = accession.length();
+        if (length > MAX_PACKED_LENGTH) {
+            return NOT_PACKED;
+        }
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = digit(accession.charAt(i));
+            if (digit == 0) {
+                return NOT_PACKED;
+            }
+            key = key * BASE + digit;
+        }
+        return key;
+    }
+
+    // the accessions are close together as numbers, spread them over the filter
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -10,14 +10,18 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-
+import java.io.File;
+import java.io.InputStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
@@ -39,10 +43,9 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
-import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemHelper;
 
 /**
  * This parser is use for parsing protein domain assignments and
@@ -65,13 +68,51 @@ public class Protein2iprConverter extends BioFileConverter
     private static final Logger LOG = Logger.getLogger(Protein2iprConverter.class);
     private static final String DATASET_TITLE = "InterPro data set";
     private static final String DATA_SOURCE_NAME = "InterPro";
+    private static final int PROTEIN_ID_LOG_INTERVAL = 1000000;
+    // member database id prefix and database name, the first two characters of the prefixes
+    // are all different
+    private static final String[][] MEMBER_DATABASES = {
+        {"PF", "Pfam"},
+        {"SM", "SMART"},
+        {"SSF", "SUPERFAMILY"},
+        {"SFLD", "Structure-Function Linkage Database (SFLD)"},
+        {"PS", "PROSITE"},
+        {"PR", "PRINTS"},
+        {"PTHR", "PANTHER"},
+        {"G3DSA", "Gene3D"},
+        {"TIGR", "TIGRFAMs"},
+        {"PD", "ProDom"},
+        {"PIRSF", "PIRSF"},
+        {"MF_", "HAMAP"},
+        {"cd", "Conserved Domain Database"},
+        {"NF", "NCBIfam"},
+    };
+    // MEMBER_DATABASES by the first two characters of the prefix, 7 bits each
+    private static final String[][] MEMBER_DATABASES_BY_CHARS = new String[1 << 14][];
+    static {
+        for (String[] database : MEMBER_DATABASES) {
+            MEMBER_DATABASES_BY_CHARS[database[0].charAt(0) << 7 | database[0].charAt(1)] =
+                database;
+        }
+    }
 
     private Collection<String> taxonIds = new ArrayList<String>();
 
-    private Set<String> proteinIds = new HashSet<String>();
+    private AccessionSet proteinIds = new AccessionSet();
     private Set<MultiKey> xrefs = new HashSet<MultiKey>();
     private Map<String, String> proteinMap = new HashMap<String, String>();
     private Map<String, String> proteinDomainMap = new HashMap<String, String>();
+    private int threads = 1;
+    private int proteinIdBatchSize = 10000;
+    private boolean orderProteinIds = false;
+    private boolean mergeJoin = false;
+    private int regionBatchSize = 1000;
+    private List<Item> regions = new ArrayList<Item>();
+    // null if ProteinDomainRegion has no data sets in the model
+    private String regionDataSetRefId = null;
+    // the regions of a protein are on consecutive lines
+    private String lastAccession = null;
+    private String lastProteinRefId = null;
 
     /**
      * @param taxonIds set valid taxonIds to process
@@ -92,6 +133,72 @@ public class Protein2iprConverter extends BioFileConverter
         this.osAlias = osAlias;
     }
 
+    /**
+     * Number of threads to read protein2ipr.dat with, if it isn't compressed.  The file is
+     * read in chunks on these threads, the items are still created by one thread in the order
+     * of the file.  Default is 1, read the file on one thread.
+     *
+     * @param threads number of threads
+     */
+    public void setThreads(String threads) {
+        try {
+            this.threads = Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("threads must be a number: " + threads);
+        }
+    }
+
+    /**
+     * Number of protein ids to fetch from the objectstore at a time.  Default is 10000.
+     *
+     * @param batchSize number of rows per query
+     */
+    public void setProteinIdBatchSize(String batchSize) {
+        try {
+            this.proteinIdBatchSize = Math.max(1, Integer.parseInt(batchSize.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("proteinIdBatchSize must be a number: "
+                    + batchSize);
+        }
+    }
+
+    /**
+     * Fetch the protein ids in order of accession.  The objectstore can then fetch each batch
+     * from where the last one ended rather than by offset.  Default is false, the ids are
+     * fetched in whatever order the database likes and duplicates are removed here.
+     *
+     * @param orderProteinIds "true" to order the protein ids
+     */
+    public void setOrderProteinIds(String orderProteinIds) {
+        this.orderProteinIds = Boolean.parseBoolean(orderProteinIds.trim());
+    }
+
+    /**
+     * Merge the protein ids, fetched in order of accession, with protein2ipr.dat, which is
+     * sorted by accession too, rather than holding all the protein ids in memory.  The file
+     * is then read on one thread.  Default is false.
+     *
+     * @param mergeJoin "true" to merge the sorted protein ids with the file
+     */
+    public void setMergeJoin(String mergeJoin) {
+        this.mergeJoin = Boolean.parseBoolean(mergeJoin.trim());
+    }
+
+    /**
+     * Number of ProteinDomainRegions to store together.  The regions of one protein are
+     * always stored together.  Default is 1000.
+     *
+     * @param batchSize number of regions
+     */
+    public void setRegionBatchSize(String batchSize) {
+        try {
+            this.regionBatchSize = Math.max(1, Integer.parseInt(batchSize.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("regionBatchSize must be a number: "
+                    + batchSize);
+        }
+    }
+
     /**
      * Constructor
      *
@@ -113,43 +220,119 @@ public class Protein2iprConverter extends BioFileConverter
             throw new BuildException("osAlias attribute is not set");
         }
 
-        getProteinIds();
-        LOG.info("Found " + proteinIds.size() + " protein ids.");
-
-        Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
-        int count = 0;
-        int skipped = 0;
-        while (iterator.hasNext()) {
-            String[] cols = iterator.next();
-            if (proteinIds.contains(cols[0])) {
-
-                String proteinAccession = cols[0];
-                String interproIdentifier = cols[1];
-                String proteinDomainIdentifier = cols[3];
-                String start = cols[4];
-                String end = cols[5];
-
-                String proteinRefId = getProtein(proteinAccession);
-                String proteinDomainRefId = getProteinDomain(interproIdentifier);
-                Item proteinDomainRegion = createItem("ProteinDomainRegion");
-
-                proteinDomainRegion.setAttribute("identifier", proteinDomainIdentifier);
-                proteinDomainRegion.setAttribute("database", getSource(proteinDomainIdentifier));
-                proteinDomainRegion.setAttribute("start", start);
-                proteinDomainRegion.setAttribute("end", end);
-                proteinDomainRegion.setReference("protein", proteinRefId);
-                proteinDomainRegion.setReference("proteinDomain", proteinDomainRefId);
-                store(proteinDomainRegion);
-                count++;
+        AccessionFilter accessions;
+        if (mergeJoin) {
+            accessions = new SortedAccessionFilter(new ProteinIdIterator(true));
+        } else {
+            Iterator<String> iter = new ProteinIdIterator(orderProteinIds);
+            while (iter.hasNext()) {
+                proteinIds.add(iter.next());
+            }
+            LOG.info("Found " + proteinIds.size() + " protein ids.");
+            accessions = proteinIds;
+        }
+
+        long count = 0;
+        long skipped = 0;
+        File file = getCurrentFile();
+        if (file != null && file.isFile()) {
+            // only the accession of each line is read until a wanted protein is found
+            Protein2iprReader lineReader = new Protein2iprReader(accessions);
+            Protein2iprReader.RowHandler handler = new Protein2iprReader.RowHandler() {
+                @Override
+                public void row(String accession, String interproIdentifier,
+                        String proteinDomainIdentifier, String start, String end)
+                    throws ObjectStoreException {
+                    storeRegion(accession, interproIdentifier, proteinDomainIdentifier, start,
+                            end);
+                }
+            };
+            if (threads > 1 && !mergeJoin && !CompressedInput.isCompressed(file)) {
+                lineReader.read(file, threads, handler);
             } else {
-                skipped++;
+                InputStream in = CompressedInput.open(file);
+                try {
+                    lineReader.read(in, handler);
+                } finally {
+                    in.close();
+                }
+            }
+            count = lineReader.getRowCount();
+            skipped = lineReader.getLineCount() - count;
+        } else {
+            TabTokenizer tokenizer = new TabTokenizer(reader);
+            while (tokenizer.next()) {
+                // only make Strings of the other columns for the proteins that are kept
+                if (accessions.contains(tokenizer.getColumn(0))) {
+                    storeRegion(tokenizer.getString(0), tokenizer.getString(1),
+                            tokenizer.getString(3), tokenizer.getString(4),
+                            tokenizer.getString(5));
+                    count++;
+                } else {
+                    skipped++;
+                }
             }
         }
 
+        storeRegions();
+
+        if (mergeJoin) {
+            LOG.info("Merged " + ((SortedAccessionFilter) accessions).getAccessionCount()
+                    + " protein ids.");
+        }
         LOG.info("Number of processed lines: " + count);
         LOG.info("Number of skipped lines: " + skipped);
     }
 
+    /**
+     * Create a ProteinDomainRegion, package private for Protein2iprBenchmark.
+     */
+    void storeRegion(String proteinAccession, String interproIdentifier,
+            String proteinDomainIdentifier, String start, String end)
+        throws ObjectStoreException {
+        if (!proteinAccession.equals(lastAccession)) {
+            if (regions.size() >= regionBatchSize) {
+                storeRegions();
+            }
+            lastProteinRefId = getProtein(proteinAccession);
+            lastAccession = proteinAccession;
+        }
+        String proteinDomainRefId = getProteinDomain(interproIdentifier);
+        Item proteinDomainRegion = createItem("ProteinDomainRegion");
+
+        proteinDomainRegion.setAttribute("identifier", proteinDomainIdentifier);
+        proteinDomainRegion.setAttribute("database", getSource(proteinDomainIdentifier));
+        proteinDomainRegion.setAttribute("start", start);
+        proteinDomainRegion.setAttribute("end", end);
+        proteinDomainRegion.setReference("protein", lastProteinRefId);
+        proteinDomainRegion.setReference("proteinDomain", proteinDomainRefId);
+        regions.add(proteinDomainRegion);
+    }
+
+    /**
+     * Store the ProteinDomainRegions created since the last call.  DataConverter.store() of a
+     * collection stores the items one at a time, so the batch is handed to the ItemWriter in
+     * one call instead.  That goes around the store hook, so the data set is set here.
+     */
+    void storeRegions() throws ObjectStoreException {
+        if (!regions.isEmpty()) {
+            if (regionDataSetRefId == null && getModel().getClassDescriptorByName(
+                    "ProteinDomainRegion").getFieldDescriptorByName("dataSets") != null) {
+                regionDataSetRefId = getDataSet(DATASET_TITLE, getDataSource(DATA_SOURCE_NAME));
+            }
+            List<org.intermine.model.fulldata.Item> batch =
+                new ArrayList<org.intermine.model.fulldata.Item>(regions.size());
+            for (Item region : regions) {
+                if (regionDataSetRefId != null) {
+                    region.addToCollection("dataSets", regionDataSetRefId);
+                }
+                batch.add(ItemHelper.convert(region));
+            }
+            getItemWriter().storeAll(batch);
+            regions.clear();
+        }
+    }
+
     private String getProtein(String identifier) throws ObjectStoreException {
         String refId = proteinMap.get(identifier);
         if (refId == null) {
@@ -174,78 +357,117 @@ public class Protein2iprConverter extends BioFileConverter
         return refId;
     }
 
-    private String getSource(String dbId) {
-        String dbName = null;
-        if (dbId.startsWith("PF")) {
-            dbName = "Pfam";
-        } else if (dbId.startsWith("SM")) {
-            dbName = "SMART";
-        } else if (dbId.startsWith("SSF")) {
-            dbName = "SUPERFAMILY";
-        } else if (dbId.startsWith("SFLD")) {
-            dbName = "Structure-Function Linkage Database (SFLD)";
-        } else if (dbId.startsWith("PS")) {
-            dbName = "PROSITE";
-        } else if (dbId.startsWith("PR")) {
-            dbName = "PRINTS";
-        } else if (dbId.startsWith("PTHR")) {
-            dbName = "PANTHER";
-        } else if (dbId.startsWith("G3DSA")) {
-            dbName = "Gene3D";
-        } else if (dbId.startsWith("TIGR")) {
-            dbName = "TIGRFAMs";
-        } else if (dbId.startsWith("PD")) {
-            dbName = "ProDom";
-        } else if (dbId.startsWith("PIRSF")) {
-            dbName = "PIRSF";
-        } else if (dbId.startsWith("MF_")) {
-            dbName = "HAMAP";
-        } else if (dbId.startsWith("cd")) {
-            dbName = "Conserved Domain Database";
-        } else if (dbId.startsWith("NF")) {
-            dbName = "NCBIfam";
-        } else {
-            throw new RuntimeException("Unknown DB found. ID: " + dbId);
+    /**
+     * @param dbId a member database id, eg. PF00046
+     * @return the name of the database, one of a few constant Strings
+     */
+    static String getSource(String dbId) {
+        if (dbId.length() >= 2) {
+            char c0 = dbId.charAt(0);
+            char c1 = dbId.charAt(1);
+            if (c0 < 128 && c1 < 128) {
+                String[] database = MEMBER_DATABASES_BY_CHARS[c0 << 7 | c1];
+                if (database != null && dbId.startsWith(database[0])) {
+                    return database[1];
+                }
+            }
         }
-        return dbName;
+        throw new RuntimeException("Unknown DB found. ID: " + dbId);
     }
 
     private String osAlias = null;
 
-    @SuppressWarnings("unchecked")
-    private void getProteinIds() throws Exception {
-        Query q = new Query();
-        QueryClass qcProtein = new QueryClass(Protein.class);
-        QueryClass qcOrganism = new QueryClass(Organism.class);
+    /**
+     * Fetches the accessions of the proteins of the organisms a batch at a time, rather than
+     * through Results, which keeps the batches it has read and prefetches the next.
+     */
+    private class ProteinIdIterator implements Iterator<String>
+    {
+        private final ObjectStore os;
+        private final Query q;
+        private final int batchSize;
+        private List<ResultsRow<Object>> rows = Collections.emptyList();
+        private int index = 0;
+        private int offset = 0;
+        private boolean lastBatch = false;
+        private final long startTime = System.currentTimeMillis();
+        private int nextLog = PROTEIN_ID_LOG_INTERVAL;
+
+        /**
+         * @param ordered true to fetch the accessions in order
+         */
+        ProteinIdIterator(boolean ordered) throws Exception {
+            q = new Query();
+            QueryClass qcProtein = new QueryClass(Protein.class);
+            QueryClass qcOrganism = new QueryClass(Organism.class);
+
+            QueryField qfPrimaryAcc = new QueryField(qcProtein, "primaryAccession");
+            QueryField qfOrganismTaxonId = new QueryField(qcOrganism, "taxonId");
+
+            q.addFrom(qcProtein);
+            q.addFrom(qcOrganism);
+            q.addToSelect(qfPrimaryAcc);
+
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+
+            // organism in our list
+            if (taxonIds.size() > 0) {
+                cs.addConstraint(new BagConstraint(qfOrganismTaxonId, ConstraintOp.IN, taxonIds));
+            }
 
-        QueryField qfPrimaryAcc = new QueryField(qcProtein, "primaryAccession");
-        QueryField qfOrganismTaxonId = new QueryField(qcOrganism, "taxonId");
+            // protein.organism = organism
+            QueryObjectReference qor = new QueryObjectReference(qcProtein, "organism");
+            cs.addConstraint(new ContainsConstraint(qor, ConstraintOp.CONTAINS, qcOrganism));
 
-        q.addFrom(qcProtein);
-        q.addFrom(qcOrganism);
-        q.addToSelect(qfPrimaryAcc);
+            q.setConstraint(cs);
 
-        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            if (ordered) {
+                q.addToOrderBy(qfPrimaryAcc);
+            } else {
+                // AccessionSet drops the duplicates
+                q.setDistinct(false);
+            }
 
-        // organism in our list
-        if (taxonIds.size() > 0) {
-            cs.addConstraint(new BagConstraint(qfOrganismTaxonId, ConstraintOp.IN, taxonIds));
+            os = ObjectStoreFactory.getObjectStore(osAlias);
+            batchSize = Math.min(proteinIdBatchSize, os.getMaxLimit());
         }
 
-        // protein.organism = organism
-        QueryObjectReference qor = new QueryObjectReference(qcProtein, "organism");
-        cs.addConstraint(new ContainsConstraint(qor, ConstraintOp.CONTAINS, qcOrganism));
-
-        q.setConstraint(cs);
+        @Override
+        public boolean hasNext() {
+            if (index < rows.size()) {
+                return true;
+            }
+            if (lastBatch) {
+                return false;
+            }
+            try {
+                rows = os.execute(q, offset, batchSize, true, false, ObjectStore.SEQUENCE_IGNORE);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Failed to fetch protein ids", e);
+            }
+            index = 0;
+            offset += rows.size();
+            lastBatch = rows.size() < batchSize;
+            if (offset >= nextLog || lastBatch) {
+                long millis = Math.max(1, System.currentTimeMillis() - startTime);
+                LOG.info("Read " + offset + " protein ids in " + millis + " ms ("
+                        + (offset * 1000L / millis) + " rows/s)");
+                nextLog += PROTEIN_ID_LOG_INTERVAL;
+            }
+            return index < rows.size();
+        }
 
-        ObjectStore os = ObjectStoreFactory.getObjectStore(osAlias);
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (String) rows.get(index++).get(0);
+        }
 
-        Results results = os.execute(q);
-        Iterator<Object> iterator = results.iterator();
-        while (iterator.hasNext()) {
-            ResultsRow<String> rr = (ResultsRow<String>) iterator.next();
-            proteinIds.add(rr.get(0));
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
     }
-
 }
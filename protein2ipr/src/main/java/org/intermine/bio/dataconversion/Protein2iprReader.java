@@ -0,0 +1,418 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Reads the lines of protein2ipr.dat for a set of proteins.  protein2ipr.dat has a line per
+ * domain match for every protein in UniProt, but a mine usually only has the proteins of a
+ * few organisms.  So the accession at the start of each line is looked up from the bytes
+ * read, and the rest of the line is only split into columns if the protein is wanted.  Other
+ * lines are skipped by looking for the next line end.
+ *
+ * An uncompressed file can be read in chunks by several threads.  The rows found are still
+ * passed to the handler by the calling thread, in the order of the file.
+ *
+ * Columns: accession, InterPro id, InterPro name, member database id, start, end.
+ */
+public class Protein2iprReader
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    // bytes of the file read by one task
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    // most chunks read ahead of the handler, per thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final AccessionFilter accessions;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private long lineCount = 0;
+    private long rowCount = 0;
+
+    /**
+     * Gets the columns of the lines for the wanted proteins.
+     */
+    public interface RowHandler
+    {
+        /**
+         * @param accession protein accession
+         * @param interproIdentifier InterPro id, eg. IPR001356
+         * @param proteinDomainIdentifier member database id, eg. PF00046
+         * @param start start of the match
+         * @param end end of the match
+         * @throws ObjectStoreException if the items can't be stored
+         */
+        void row(String accession, String interproIdentifier, String proteinDomainIdentifier,
+                String start, String end) throws ObjectStoreException;
+    }
+
+    /**
+     * @param accessions the proteins to read the lines of.  To read a file on several threads
+     * the filter must allow lookups from several threads, like AccessionSet
+     */
+    public Protein2iprReader(AccessionFilter accessions) {
+        this.accessions = accessions;
+    }
+
+    /**
+     * Only for tests, to make a small file into several chunks.
+     * @param chunkSize bytes read by one task
+     */
+    void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return number of lines read
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return number of lines for the wanted proteins
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Read a stream, eg. a compressed file, on this thread.
+     * @param in the file, closing it is up to the caller
+     * @param handler gets the rows for the wanted proteins
+     * @throws IOException if the file can't be read
+     * @throws ObjectStoreException if the handler fails
+     */
+    public void read(InputStream in, final RowHandler handler)
+        throws IOException, ObjectStoreException {
+        Scanner scanner = new Scanner(in, Long.MAX_VALUE, new RowHandler() {
+            @Override
+            public void row(String accession, String interproIdentifier,
+                    String proteinDomainIdentifier, String start, String end)
+                throws ObjectStoreException {
+                rowCount++;
+                handler.row(accession, interproIdentifier, proteinDomainIdentifier, start, end);
+            }
+        });
+        scanner.scan(false);
+        lineCount += scanner.lines;
+    }
+
+    /**
+     * Read an uncompressed file in chunks on several threads.
+     * @param file the file
+     * @param threads number of threads
+     * @param handler gets the rows for the wanted proteins, in the order of the file
+     * @throws IOException if the file can't be read
+     * @throws ObjectStoreException if the handler fails
+     */
+    public void read(File file, int threads, RowHandler handler)
+        throws IOException, ObjectStoreException {
+        long length = file.length();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        try {
+            for (long start = 0; start < length; start += chunkSize) {
+                pending.add(executor.submit(
+                        new Chunk(file, start, Math.min(length, start + chunkSize))));
+                if (pending.size() >= threads * CHUNKS_PER_THREAD) {
+                    handleChunk(pending.poll(), handler);
+                }
+            }
+            while (!pending.isEmpty()) {
+                handleChunk(pending.poll(), handler);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleChunk(Future<Chunk> future, RowHandler handler)
+        throws IOException, ObjectStoreException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading protein2ipr file", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to read protein2ipr file", e.getCause());
+        }
+        lineCount += chunk.lines;
+        List<String> rows = chunk.rows;
+        for (int i = 0; i < rows.size(); i += 5) {
+            rowCount++;
+            handler.row(rows.get(i), rows.get(i + 1), rows.get(i + 2), rows.get(i + 3),
+                    rows.get(i + 4));
+        }
+    }
+
+    /**
+     * Reads the lines starting in part of a file, keeping the columns of the rows found.
+     */
+    private class Chunk implements Callable<Chunk>, RowHandler
+    {
+        private final File file;
+        private final long start;
+        private final long end;
+        // five columns per row
+        private final List<String> rows = new ArrayList<String>();
+        private long lines;
+
+        Chunk(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Chunk call() throws IOException, ObjectStoreException {
+            InputStream in = new FileInputStream(file);
+            try {
+                // read from the byte before the chunk, to see if a line starts at the chunk
+                long from = start == 0 ? 0 : start - 1;
+                long skipped = 0;
+                while (skipped < from) {
+                    long count = in.skip(from - skipped);
+                    if (count <= 0) {
+                        throw new IOException("Can't skip to " + from + " in " + file);
+                    }
+                    skipped += count;
+                }
+                Scanner scanner = new Scanner(in, end - from, this);
+                scanner.scan(start > 0);
+                lines = scanner.lines;
+            } finally {
+                in.close();
+            }
+            return this;
+        }
+
+        @Override
+        public void row(String accession, String interproIdentifier,
+                String proteinDomainIdentifier, String matchStart, String matchEnd) {
+            rows.add(accession);
+            rows.add(interproIdentifier);
+            rows.add(proteinDomainIdentifier);
+            rows.add(matchStart);
+            rows.add(matchEnd);
+        }
+    }
+
+    /**
+     * Reads lines from a stream.
+     */
+    private class Scanner
+    {
+        private final InputStream in;
+        // lines that start at or after this offset in the stream belong to someone else
+        private final long limitOffset;
+        private final RowHandler handler;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+        // offset in the stream of buffer[0]
+        private long bufferOffset = 0;
+        private long lines = 0;
+
+        Scanner(InputStream in, long limitOffset, RowHandler handler) {
+            this.in = in;
+            this.limitOffset = limitOffset;
+            this.handler = handler;
+        }
+
+        /**
+         * @param partLine true if the stream starts with the byte before the first line to
+         * read, so the rest of that line belongs to the previous chunk
+         */
+        void scan(boolean partLine) throws IOException, ObjectStoreException {
+            if (partLine) {
+                if (!available()) {
+                    return;
+                }
+                byte b = buffer[pos++];
+                if (b != '\n' && b != '\r') {
+                    skipLine();
+                } else if (b == '\r') {
+                    skipNewline();
+                }
+            }
+            while (bufferOffset + pos < limitOffset && available()) {
+                lines++;
+                readLine();
+            }
+        }
+
+        private void readLine() throws IOException, ObjectStoreException {
+            int lineStart = pos;
+            int tab = findTab(lineStart);
+            if (tab < 0) {
+                // one column, can't be a protein
+                skipLine();
+                return;
+            }
+            // findTab() may have moved the line to the start of the buffer
+            lineStart = pos;
+            if (!accessions.contains(buffer, lineStart, tab)) {
+                pos = tab + 1;
+                skipLine();
+                return;
+            }
+            int lineEnd = findLineEnd(lineStart);
+            lineStart = pos;
+            String[] columns = splitColumns(lineStart, lineEnd);
+            pos = lineEnd;
+            skipLine();
+            handler.row(columns[0], columns[1], columns[2], columns[3], columns[4]);
+        }
+
+        // columns 0, 1, 3, 4 and 5 of the line in buffer[lineStart, lineEnd)
+        private String[] splitColumns(int lineStart, int lineEnd) {
+            String[] columns = new String[5];
+            int column = 0;
+            int columnStart = lineStart;
+            for (int i = lineStart; i <= lineEnd && column <= 5; i++) {
+                if (i == lineEnd || buffer[i] == '\t') {
+                    if (column != 2) {
+                        columns[column < 2 ? column : column - 1] =
+                            new String(buffer, columnStart, i - columnStart,
+                                    StandardCharsets.UTF_8);
+                    }
+                    column++;
+                    columnStart = i + 1;
+                }
+            }
+            if (column < 6) {
+                throw new IllegalArgumentException("Expected at least 6 columns in line: "
+                        + new String(buffer, lineStart, lineEnd - lineStart,
+                                StandardCharsets.UTF_8));
+            }
+            return columns;
+        }
+
+        // index of the first tab in the current line, -1 if there isn't one.  Compacts the
+        // buffer so the line starts at pos and the tab is in the buffer
+        private int findTab(int lineStart) throws IOException {
+            int scan = lineStart;
+            while (true) {
+                for (; scan < limit; scan++) {
+                    byte b = buffer[scan];
+                    if (b == '\t') {
+                        return scan;
+                    }
+                    if (b == '\n' || b == '\r') {
+                        return -1;
+                    }
+                }
+                int scanned = scan - pos;
+                if (!fill(true)) {
+                    return -1;
+                }
+                scan = pos + scanned;
+            }
+        }
+
+        // index of the end of the current line, keeping the line in the buffer
+        private int findLineEnd(int lineStart) throws IOException {
+            int scan = lineStart;
+            while (true) {
+                for (; scan < limit; scan++) {
+                    byte b = buffer[scan];
+                    if (b == '\n' || b == '\r') {
+                        return scan;
+                    }
+                }
+                int scanned = scan - pos;
+                if (!fill(true)) {
+                    return limit;
+                }
+                scan = pos + scanned;
+            }
+        }
+
+        // move past the next line end
+        private void skipLine() throws IOException {
+            while (true) {
+                for (; pos < limit; pos++) {
+                    byte b = buffer[pos];
+                    if (b == '\n') {
+                        pos++;
+                        return;
+                    }
+                    if (b == '\r') {
+                        pos++;
+                        skipNewline();
+                        return;
+                    }
+                }
+                if (!fill(false)) {
+                    return;
+                }
+            }
+        }
+
+        // after a '\r', a '\n' is part of the same line end
+        private void skipNewline() throws IOException {
+            if (available() && buffer[pos] == '\n') {
+                pos++;
+            }
+        }
+
+        private boolean available() throws IOException {
+            return pos < limit || fill(false);
+        }
+
+        // read more, keeping buffer[pos, limit) if keep is true
+        private boolean fill(boolean keep) throws IOException {
+            int remaining = keep ? limit - pos : 0;
+            if (remaining == buffer.length) {
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, pos, bigger, 0, remaining);
+                buffer = bigger;
+            } else if (remaining > 0) {
+                System.arraycopy(buffer, pos, buffer, 0, remaining);
+            }
+            bufferOffset += keep ? pos : limit;
+            pos = 0;
+            limit = remaining;
+            int read = in.read(buffer, limit, buffer.length - limit);
+            while (read == 0) {
+                read = in.read(buffer, limit, buffer.length - limit);
+            }
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+    }
+}
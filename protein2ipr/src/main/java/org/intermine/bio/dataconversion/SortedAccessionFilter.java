@@ -0,0 +1,123 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Merges a sorted list of accessions with the lines of protein2ipr.dat, which is sorted by
+ * accession too.  Only the current accession of each side is kept, so the memory used doesn't
+ * depend on how many proteins there are.
+ *
+ * Lookups must be made in the order of the file, from one thread.  Both sides are compared as
+ * bytes, which is the order of String.compareTo() for UniProt accessions.  If either side is
+ * out of order an exception is thrown, rather than quietly missing proteins.
+ */
+public class SortedAccessionFilter implements AccessionFilter
+{
+    private final Iterator<String> accessions;
+    // the smallest accession from the list that might still be in the file, null at the end
+    private byte[] current;
+    private int accessionCount = 0;
+    // the accession of the last line looked up
+    private byte[] last = new byte[32];
+    private int lastLength = -1;
+
+    /**
+     * @param accessions accessions in order, duplicates are allowed
+     */
+    public SortedAccessionFilter(Iterator<String> accessions) {
+        this.accessions = accessions;
+        advance();
+    }
+
+    /**
+     * @return number of accessions read from the list so far
+     */
+    public int getAccessionCount() {
+        return accessionCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(byte[] buf, int start, int end) {
+        int length = end - start;
+        if (lastLength >= 0) {
+            int cmp = compare(buf, start, length, last, 0, lastLength);
+            if (cmp < 0) {
+                throw new IllegalArgumentException("protein2ipr file isn't sorted by accession, "
+                        + toString(buf, start, length) + " is after "
+                        + toString(last, 0, lastLength));
+            }
+        }
+        if (last.length < length) {
+            last = new byte[Math.max(length, last.length * 2)];
+        }
+        System.arraycopy(buf, start, last, 0, length);
+        lastLength = length;
+
+        while (current != null) {
+            int cmp = compare(current, 0, current.length, buf, start, length);
+            if (cmp == 0) {
+                return true;
+            }
+            if (cmp > 0) {
+                return false;
+            }
+            advance();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(CharSequence accession) {
+        byte[] bytes = accession.toString().getBytes(StandardCharsets.UTF_8);
+        return contains(bytes, 0, bytes.length);
+    }
+
+    private void advance() {
+        if (!accessions.hasNext()) {
+            current = null;
+            return;
+        }
+        byte[] next = accessions.next().getBytes(StandardCharsets.UTF_8);
+        if (current != null && compare(next, 0, next.length, current, 0, current.length) < 0) {
+            throw new IllegalArgumentException("Accessions aren't sorted, "
+                    + toString(next, 0, next.length) + " is after "
+                    + toString(current, 0, current.length));
+        }
+        current = next;
+        accessionCount++;
+    }
+
+    // unsigned bytes, like String.compareTo() for ASCII
+    private static int compare(byte[] a, int aStart, int aLength, byte[] b, int bStart,
+            int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[aStart + i] & 0xff) - (b[bStart + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static String toString(byte[] buf, int start, int length) {
+        return new String(buf, start, length, StandardCharsets.UTF_8);
+    }
+}
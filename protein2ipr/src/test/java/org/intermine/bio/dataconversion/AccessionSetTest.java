@@ -0,0 +1,103 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the AccessionSet class.
+ */
+public class AccessionSetTest extends TestCase
+{
+    private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    public void testContains() {
+        AccessionSet accessions = new AccessionSet();
+        accessions.add("P02833");
+        accessions.add("A0A023GPI8");
+        accessions.add("P02833");
+        accessions.add("P12345-2");
+        accessions.add("q9xxx1");
+        assertEquals(4, accessions.size());
+
+        assertTrue(accessions.contains("P02833"));
+        assertTrue(accessions.contains("A0A023GPI8"));
+        assertTrue(accessions.contains("P12345-2"));
+        assertTrue(accessions.contains("q9xxx1"));
+        assertFalse(accessions.contains("P0283"));
+        assertFalse(accessions.contains("P028330"));
+        assertFalse(accessions.contains("0P02833"));
+        assertFalse(accessions.contains("P12345-1"));
+        assertFalse(accessions.contains("Q9XXX1"));
+        assertFalse(accessions.contains(""));
+
+        byte[] line = "xxP02833\tA0A023GPI8".getBytes(StandardCharsets.UTF_8);
+        assertTrue(accessions.contains(line, 2, 8));
+        assertTrue(accessions.contains(line, 9, line.length));
+        assertFalse(accessions.contains(line, 2, 7));
+        assertFalse(accessions.contains(line, 0, 8));
+    }
+
+    public void testAddAfterLookup() {
+        AccessionSet accessions = new AccessionSet();
+        accessions.add("P02833");
+        assertFalse(accessions.contains("Q9XXX1"));
+        accessions.add("Q9XXX1");
+        assertTrue(accessions.contains("Q9XXX1"));
+        assertTrue(accessions.contains("P02833"));
+    }
+
+    public void testFilterBits() {
+        assertEquals(128, AccessionSet.filterBits(0));
+        assertEquals(1 << 14, AccessionSet.filterBits(1000));
+        // 2^27 keys are 2^31 bits, one more than an int holds
+        assertEquals(1L << 31, AccessionSet.filterBits(1 << 27));
+        assertEquals(1L << 32, AccessionSet.filterBits((1 << 27) + 1));
+        assertEquals(1L << 35, AccessionSet.filterBits(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Random accessions must give the same answers as a HashSet.
+     */
+    public void testSameAsHashSet() {
+        Random random = new Random(42);
+        Set<String> expected = new HashSet<String>();
+        AccessionSet accessions = new AccessionSet();
+        for (int i = 0; i < 50000; i++) {
+            String accession = randomAccession(random);
+            expected.add(accession);
+            accessions.add(accession);
+        }
+        assertEquals(expected.size(), accessions.size());
+        for (String accession : expected) {
+            assertTrue(accession, accessions.contains(accession));
+        }
+        for (int i = 0; i < 200000; i++) {
+            String accession = randomAccession(random);
+            assertEquals(accession, expected.contains(accession), accessions.contains(accession));
+        }
+    }
+
+    private static String randomAccession(Random random) {
+        int length = random.nextInt(3) == 0 ? 10 : 6;
+        StringBuilder sb = new StringBuilder();
+        // a small alphabet in the first characters, so some of the lookups are in the set
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(i < 4 ? 3 : ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+}
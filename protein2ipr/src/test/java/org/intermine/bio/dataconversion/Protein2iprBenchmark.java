@@ -0,0 +1,197 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Times Protein2iprConverter.getSource() against the chain of startsWith() checks it
+ * replaced, and the cost of creating and storing a ProteinDomainRegion per matching line.
+ * Needs the genomic model on the classpath.  Not run with the tests:
+ *
+ * <pre>
+ * java -cp ... org.intermine.bio.dataconversion.Protein2iprBenchmark [lines] [rounds]
+ * </pre>
+ */
+public final class Protein2iprBenchmark
+{
+    private static final int WARMUP_ROUNDS = 5;
+    private static final String[] PREFIXES = {"PF", "SM", "SSF", "SFLD", "PS", "PR", "PTHR",
+        "G3DSA:", "TIGR", "PD", "PIRSF", "MF_", "cd", "NF"};
+
+    private Protein2iprBenchmark() {
+        // don't
+    }
+
+    /**
+     * @param args optional number of lines and number of timed rounds
+     * @throws Exception if the converter can't be made
+     */
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // roughly the mix of member databases in protein2ipr.dat
+        Random random = new Random(1);
+        String[] ids = new String[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            String prefix = PREFIXES[Math.min(random.nextInt(20), PREFIXES.length - 1)];
+            ids[i] = prefix + (10000 + random.nextInt(90000));
+        }
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += startsWithChain(ids) + table(ids);
+        }
+        long chain = 0;
+        long table = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            checksum += startsWithChain(ids);
+            chain += System.nanoTime() - start;
+            start = System.nanoTime();
+            checksum += table(ids);
+            table += System.nanoTime() - start;
+        }
+        print("startsWith chain", chain, rounds, lineCount, checksum);
+        print("prefix table", table, rounds, lineCount, checksum);
+
+        // 1 to 8 regions per protein, as in the file
+        long emit = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + rounds; i++) {
+            CountingItemWriter writer = new CountingItemWriter();
+            Protein2iprConverter converter = new Protein2iprConverter(writer,
+                    Model.getInstanceByName("genomic"));
+            long start = System.nanoTime();
+            int protein = 0;
+            for (int j = 0; j < lineCount; j++) {
+                if (random.nextInt(4) == 0) {
+                    protein++;
+                }
+                converter.storeRegion("P" + protein, "IPR" + (ids[j].hashCode() & 0xffff),
+                        ids[j], "1", "100");
+            }
+            converter.storeRegions();
+            if (i >= WARMUP_ROUNDS) {
+                emit += System.nanoTime() - start;
+            }
+            checksum += writer.count;
+        }
+        print("region emission", emit, rounds, lineCount, checksum);
+    }
+
+    private static void print(String name, long total, int rounds, int lineCount,
+            long checksum) {
+        System.out.println(String.format("%-20s %8.1f ns/line  [%d]", name,
+                (double) total / rounds / lineCount, checksum));
+    }
+
+    private static long table(String[] ids) {
+        long checksum = 0;
+        for (String id : ids) {
+            checksum += Protein2iprConverter.getSource(id).length();
+        }
+        return checksum;
+    }
+
+    private static long startsWithChain(String[] ids) {
+        long checksum = 0;
+        for (String id : ids) {
+            checksum += getSourceByChain(id).length();
+        }
+        return checksum;
+    }
+
+    // the getSource() the converter used to have
+    private static String getSourceByChain(String dbId) {
+        String dbName = null;
+        if (dbId.startsWith("PF")) {
+            dbName = "Pfam";
+        } else if (dbId.startsWith("SM")) {
+            dbName = "SMART";
+        } else if (dbId.startsWith("SSF")) {
+            dbName = "SUPERFAMILY";
+        } else if (dbId.startsWith("SFLD")) {
+            dbName = "Structure-Function Linkage Database (SFLD)";
+        } else if (dbId.startsWith("PS")) {
+            dbName = "PROSITE";
+        } else if (dbId.startsWith("PR")) {
+            dbName = "PRINTS";
+        } else if (dbId.startsWith("PTHR")) {
+            dbName = "PANTHER";
+        } else if (dbId.startsWith("G3DSA")) {
+            dbName = "Gene3D";
+        } else if (dbId.startsWith("TIGR")) {
+            dbName = "TIGRFAMs";
+        } else if (dbId.startsWith("PD")) {
+            dbName = "ProDom";
+        } else if (dbId.startsWith("PIRSF")) {
+            dbName = "PIRSF";
+        } else if (dbId.startsWith("MF_")) {
+            dbName = "HAMAP";
+        } else if (dbId.startsWith("cd")) {
+            dbName = "Conserved Domain Database";
+        } else if (dbId.startsWith("NF")) {
+            dbName = "NCBIfam";
+        } else {
+            throw new RuntimeException("Unknown DB found. ID: " + dbId);
+        }
+        return dbName;
+    }
+
+    /**
+     * Counts the items stored and throws them away.
+     */
+    private static class CountingItemWriter implements ItemWriter
+    {
+        private long count = 0;
+
+        @Override
+        public Integer store(Item item) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public void store(ReferenceList refList, Integer itemId) {
+            count++;
+        }
+
+        @Override
+        public void store(Reference ref, Integer itemId) {
+            count++;
+        }
+
+        @Override
+        public void store(Attribute att, Integer itemId) {
+            count++;
+        }
+
+        @Override
+        public void storeAll(Collection<Item> items) throws ObjectStoreException {
+            count += items.size();
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
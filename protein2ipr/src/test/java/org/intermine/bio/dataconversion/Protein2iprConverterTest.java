@@ -11,8 +11,11 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.File;
-import java.io.InputStreamReader;
+import java.io.FileReader;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -41,6 +44,9 @@ public class Protein2iprConverterTest extends ItemsTestCase
     Protein2iprConverter converter;
     MockItemWriter itemWriter;
     private final String currentFile = "protein2ipr.dat";
+    // the converter only reads the file itself, on several threads or merged with the
+    // protein ids, if it is a real file
+    private File datFile;
     private ObjectStoreWriter osw;
     private Chromosome chromosome = null;
     private ItemFactory itemFactory;
@@ -60,6 +66,14 @@ public class Protein2iprConverterTest extends ItemsTestCase
         model = Model.getInstanceByName("genomic");
         itemFactory = new ItemFactory(model);
         createProtein();
+
+        datFile = File.createTempFile("protein2ipr", ".dat");
+        InputStream in = getClass().getClassLoader().getResourceAsStream(currentFile);
+        try {
+            Files.copy(in, datFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            in.close();
+        }
     }
 
     private void createProtein() throws ObjectStoreException {
@@ -77,6 +91,7 @@ public class Protein2iprConverterTest extends ItemsTestCase
     }
 
     public void tearDown() throws Exception {
+        datFile.delete();
         if (osw.isInTransaction()) {
             osw.abortTransaction();
         }
@@ -98,9 +113,8 @@ public class Protein2iprConverterTest extends ItemsTestCase
 
     public void testProcess() throws Exception {
 
-        Reader reader = new InputStreamReader(getClass().getClassLoader()
-                                            .getResourceAsStream(currentFile));
-        converter.setCurrentFile(new File(currentFile));
+        Reader reader = new FileReader(datFile);
+        converter.setCurrentFile(datFile);
         converter.setProtein2iprOrganisms("7227");
         converter.process(reader);
         converter.close();
@@ -115,9 +129,8 @@ public class Protein2iprConverterTest extends ItemsTestCase
 
     public void testProcessNoOrganismSet() throws Exception {
 
-        Reader reader = new InputStreamReader(getClass().getClassLoader()
-                                            .getResourceAsStream(currentFile));
-        converter.setCurrentFile(new File(currentFile));
+        Reader reader = new FileReader(datFile);
+        converter.setCurrentFile(datFile);
         converter.process(reader);
         converter.close();
 
@@ -125,4 +138,82 @@ public class Protein2iprConverterTest extends ItemsTestCase
 
         assertEquals(expected, itemWriter.getItems());
     }
+
+    public void testProcessSmallRegionBatches() throws Exception {
+
+        Reader reader = new FileReader(datFile);
+        converter.setCurrentFile(datFile);
+        converter.setRegionBatchSize("1");
+        converter.process(reader);
+        converter.close();
+
+        Set<org.intermine.xml.full.Item> expected = readItemSet("Protein2iprConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+
+    public void testProcessMergeJoin() throws Exception {
+
+        Reader reader = new FileReader(datFile);
+        converter.setCurrentFile(datFile);
+        converter.setMergeJoin("true");
+        converter.process(reader);
+        converter.close();
+
+        Set<org.intermine.xml.full.Item> expected = readItemSet("Protein2iprConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+
+    public void testProcessThreaded() throws Exception {
+
+        Reader reader = new FileReader(datFile);
+        converter.setCurrentFile(datFile);
+        // the file is one chunk, Protein2iprReaderTest reads small files in several
+        converter.setThreads("2");
+        converter.process(reader);
+        converter.close();
+
+        Set<org.intermine.xml.full.Item> expected = readItemSet("Protein2iprConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+
+    public void testProcessRegionBatchesMatchUnbatched() throws Exception {
+        // a batch of one region stores each region as soon as the protein changes
+        assertEquals(processWithBatchSize("1"), processWithBatchSize("1000"));
+        assertEquals(processWithBatchSize("1"), processWithBatchSize("2"));
+    }
+
+    private Set<org.intermine.xml.full.Item> processWithBatchSize(String batchSize)
+        throws Exception {
+        MockItemWriter writer = new MockItemWriter(new HashMap<String, Item>());
+        Protein2iprConverter batchConverter = new Protein2iprConverter(writer, model);
+        batchConverter.setOsAlias("os.bio-test");
+        batchConverter.setRegionBatchSize(batchSize);
+        Reader reader = new FileReader(datFile);
+        batchConverter.setCurrentFile(datFile);
+        batchConverter.process(reader);
+        batchConverter.close();
+        return writer.getItems();
+    }
+
+    public void testGetSource() throws Exception {
+        assertEquals("Pfam", Protein2iprConverter.getSource("PF00046"));
+        assertEquals("PANTHER", Protein2iprConverter.getSource("PTHR11850"));
+        assertEquals("Gene3D", Protein2iprConverter.getSource("G3DSA:1.10.10.60"));
+        assertEquals("Conserved Domain Database", Protein2iprConverter.getSource("cd00086"));
+        try {
+            Protein2iprConverter.getSource("PT00001");
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        try {
+            Protein2iprConverter.getSource("P");
+            fail("expected RuntimeException");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the Protein2iprReader class.
+ */
+public class Protein2iprReaderTest extends TestCase
+{
+    private AccessionSet accessions;
+
+    public void setUp() {
+        accessions = new AccessionSet();
+        accessions.add("P02833");
+        accessions.add("Q9XXX1");
+    }
+
+    public void testRead() throws Exception {
+        String file = "A0A001\tIPR000001\tKringle\tPF00051\t1\t80\n"
+            + "P02833\tIPR001356\tHomeobox domain\tPF00046\t301\t357\n"
+            + "P0283\tIPR001356\tHomeobox domain\tPF00046\t1\t2\n"
+            + "P028333\tIPR001356\tHomeobox domain\tPF00046\t1\t2\n"
+            + "Q9XXX1\tIPR000002\t\tSM00001\t5\t6";
+        Protein2iprReader reader = new Protein2iprReader(accessions);
+        assertEquals(Arrays.asList("[P02833, IPR001356, PF00046, 301, 357]",
+                "[Q9XXX1, IPR000002, SM00001, 5, 6]"), readStream(reader, file));
+        assertEquals(5, reader.getLineCount());
+        assertEquals(2, reader.getRowCount());
+    }
+
+    public void testLineEnds() throws Exception {
+        String file = "P02833\tIPR1\tx\tPF1\t1\t2\r\n\r\nA1\tIPR2\r"
+            + "Q9XXX1\tIPR3\ty\tPF3\t3\t4\rP02833\tIPR4\tz\tPF4\t5\t6\r\n";
+        assertEquals(Arrays.asList("[P02833, IPR1, PF1, 1, 2]", "[Q9XXX1, IPR3, PF3, 3, 4]",
+                "[P02833, IPR4, PF4, 5, 6]"),
+                readStream(new Protein2iprReader(accessions), file));
+    }
+
+    public void testTooFewColumns() throws Exception {
+        try {
+            readStream(new Protein2iprReader(accessions), "A1\tIPR1\nP02833\tIPR1\tx\tPF1\t1\n");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Reading a file in small chunks on several threads must give the same rows, in the same
+     * order, as reading it on one thread.  The line ends fall on and around the chunk ends.
+     */
+    public void testChunksSameAsStream() throws Exception {
+        Random random = new Random(42);
+        String[] ends = {"\n", "\r\n", "\r"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String accession = random.nextInt(4) == 0 ? (i % 2 == 0 ? "P02833" : "Q9XXX1")
+                : "A0A" + random.nextInt(1000);
+            sb.append(accession).append("\tIPR").append(i).append("\tname ")
+                .append(random.nextInt(100)).append("\tPF").append(random.nextInt(100))
+                .append('\t').append(i).append('\t').append(i + random.nextInt(100))
+                .append(ends[random.nextInt(ends.length)]);
+        }
+        String contents = sb.toString();
+        Protein2iprReader streamReader = new Protein2iprReader(accessions);
+        List<String> expected = readStream(streamReader, contents);
+        assertTrue(expected.size() > 1000);
+
+        File file = File.createTempFile("protein2ipr", ".dat");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(contents.getBytes(StandardCharsets.UTF_8));
+            } finally {
+                out.close();
+            }
+            for (int chunkSize : new int[] {3, 7, 50, 1000, 1 << 20}) {
+                Protein2iprReader chunkReader = new Protein2iprReader(accessions);
+                chunkReader.setChunkSize(chunkSize);
+                Rows rows = new Rows();
+                chunkReader.read(file, 3, rows);
+                assertEquals("chunk size " + chunkSize, expected, rows.rows);
+                assertEquals(streamReader.getLineCount(), chunkReader.getLineCount());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static List<String> readStream(Protein2iprReader reader, String file)
+        throws Exception {
+        Rows rows = new Rows();
+        reader.read(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)), rows);
+        return rows.rows;
+    }
+
+    private static class Rows implements Protein2iprReader.RowHandler
+    {
+        private final List<String> rows = new ArrayList<String>();
+
+        @Override
+        public void row(String accession, String interproIdentifier,
+                String proteinDomainIdentifier, String start, String end) {
+            rows.add(Arrays.asList(accession, interproIdentifier, proteinDomainIdentifier, start,
+                    end).toString());
+        }
+    }
+}
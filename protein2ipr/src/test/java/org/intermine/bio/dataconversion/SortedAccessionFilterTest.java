@@ -0,0 +1,120 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2022 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Tests for the SortedAccessionFilter class.
+ */
+public class SortedAccessionFilterTest extends TestCase
+{
+    public void testContains() {
+        SortedAccessionFilter filter = new SortedAccessionFilter(
+                Arrays.asList("A0A001", "P02833", "P02833", "Q9XXX1", "Z00001").iterator());
+        assertFalse(filter.contains("A0A000"));
+        assertTrue(filter.contains("A0A001"));
+        assertTrue(filter.contains("A0A001"));
+        assertFalse(filter.contains("P0283"));
+        assertTrue(filter.contains("P02833"));
+        assertFalse(filter.contains("P028330"));
+        assertFalse(filter.contains("Q00001"));
+        assertTrue(filter.contains("Q9XXX1"));
+        assertFalse(filter.contains("ZZZZZZ"));
+        assertEquals(5, filter.getAccessionCount());
+    }
+
+    public void testFileOutOfOrder() {
+        SortedAccessionFilter filter = new SortedAccessionFilter(
+                Arrays.asList("A0A001", "P02833").iterator());
+        assertTrue(filter.contains("P02833"));
+        try {
+            filter.contains("A0A001");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAccessionsOutOfOrder() {
+        SortedAccessionFilter filter = new SortedAccessionFilter(
+                Arrays.asList("P02833", "A0A001").iterator());
+        try {
+            filter.contains("Q9XXX1");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Merging a sorted file with the sorted accessions must find the same rows as looking the
+     * accessions up in an AccessionSet.
+     */
+    public void testSameAsAccessionSet() throws Exception {
+        Random random = new Random(42);
+        TreeSet<String> fileAccessions = new TreeSet<String>();
+        for (int i = 0; i < 5000; i++) {
+            fileAccessions.add(String.format("%c%05d", (char) ('A' + random.nextInt(26)),
+                    random.nextInt(100000)));
+        }
+        List<String> wanted = new ArrayList<String>();
+        AccessionSet accessionSet = new AccessionSet();
+        for (String accession : fileAccessions) {
+            if (random.nextInt(5) == 0) {
+                wanted.add(accession);
+                accessionSet.add(accession);
+            } else if (random.nextInt(5) == 0) {
+                // a protein in the mine without domains
+                String missing = accession + "0";
+                wanted.add(missing);
+                accessionSet.add(missing);
+            }
+        }
+        Collections.sort(wanted);
+        StringBuilder file = new StringBuilder();
+        for (String accession : fileAccessions) {
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                file.append(accession).append("\tIPR").append(i).append("\tname\tPF")
+                    .append(i).append("\t1\t2\n");
+            }
+        }
+
+        assertEquals(read(accessionSet, file.toString()),
+                read(new SortedAccessionFilter(wanted.iterator()), file.toString()));
+    }
+
+    private static List<String> read(AccessionFilter filter, String file) throws Exception {
+        final List<String> rows = new ArrayList<String>();
+        new Protein2iprReader(filter).read(
+                new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)),
+                new Protein2iprReader.RowHandler() {
+                    @Override
+                    public void row(String accession, String interproIdentifier,
+                            String proteinDomainIdentifier, String start, String end)
+                        throws ObjectStoreException {
+                        rows.add(accession + " " + interproIdentifier);
+                    }
+                });
+        return rows;
+    }
+}
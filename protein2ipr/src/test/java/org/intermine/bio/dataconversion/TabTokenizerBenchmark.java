@@ -0,0 +1,151 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.intermine.util.FormattedTextParser;
+
+/**
+ * Compares reading protein2ipr.dat style lines with FormattedTextParser, String.split() and
+ * TabTokenizer.  Each parser picks out the lines for a small set of proteins, like
+ * Protein2iprConverter, and reads the other columns of those lines.  Not run with the tests:
+ *
+ * <pre>
+ * java -cp ... org.intermine.bio.dataconversion.TabTokenizerBenchmark [lines] [rounds]
+ * </pre>
+ */
+public final class TabTokenizerBenchmark
+{
+    private static final int WARMUP_ROUNDS = 5;
+
+    private TabTokenizerBenchmark() {
+        // don't
+    }
+
+    /**
+     * @param args optional number of lines and number of timed rounds
+     * @throws IOException never, the file is in memory
+     */
+    public static void main(String[] args) throws IOException {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Set<String> proteins = new HashSet<String>();
+        String file = makeFile(lineCount, proteins);
+        System.out.println(lineCount + " lines, " + (file.length() >> 20) + " MB, "
+                + proteins.size() + " proteins kept");
+
+        Parser[] parsers = {new FormattedTextParserParser(), new SplitParser(),
+            new TabTokenizerParser()};
+        for (Parser parser : parsers) {
+            long checksum = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                checksum += parser.parse(file, proteins);
+            }
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                checksum += parser.parse(file, proteins);
+                long took = System.nanoTime() - start;
+                best = Math.min(best, took);
+                total += took;
+            }
+            System.out.println(String.format("%-20s %8.1f ns/line (best %.1f)  [%d]",
+                    parser.getClass().getSimpleName(), (double) total / rounds / lineCount,
+                    (double) best / lineCount, checksum));
+        }
+    }
+
+    // one line in 100 is for a protein in the set
+    private static String makeFile(int lineCount, Set<String> proteins) {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            String protein = "A0A" + (100000 + i / 8);
+            if (i / 8 % 100 == 0) {
+                proteins.add(protein);
+            }
+            sb.append(protein).append('\t');
+            sb.append("IPR").append(100000 + random.nextInt(50000)).append('\t');
+            sb.append("Domain of unknown function DUF").append(random.nextInt(5000)).append('\t');
+            sb.append("PF").append(10000 + random.nextInt(9000)).append('\t');
+            int start = random.nextInt(1000);
+            sb.append(start).append('\t').append(start + random.nextInt(300)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private interface Parser
+    {
+        // returns a number from the columns read, so the work can't be skipped
+        long parse(String file, Set<String> proteins) throws IOException;
+    }
+
+    private static class FormattedTextParserParser implements Parser
+    {
+        @Override
+        public long parse(String file, Set<String> proteins) throws IOException {
+            long checksum = 0;
+            Iterator<String[]> iter = FormattedTextParser.parseTabDelimitedReader(
+                    new StringReader(file));
+            while (iter.hasNext()) {
+                String[] cols = iter.next();
+                if (proteins.contains(cols[0])) {
+                    checksum += cols[1].length() + cols[3].length() + cols[4].length()
+                            + cols[5].length();
+                }
+            }
+            return checksum;
+        }
+    }
+
+    private static class SplitParser implements Parser
+    {
+        @Override
+        public long parse(String file, Set<String> proteins) throws IOException {
+            long checksum = 0;
+            BufferedReader br = new BufferedReader(new StringReader(file));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] cols = line.split("\t", -1);
+                if (proteins.contains(cols[0])) {
+                    checksum += cols[1].length() + cols[3].length() + cols[4].length()
+                            + cols[5].length();
+                }
+            }
+            return checksum;
+        }
+    }
+
+    private static class TabTokenizerParser implements Parser
+    {
+        @Override
+        public long parse(String file, Set<String> proteins) throws IOException {
+            long checksum = 0;
+            TabTokenizer tokenizer = new TabTokenizer(new StringReader(file));
+            while (tokenizer.next()) {
+                if (proteins.contains(tokenizer.getString(0))) {
+                    checksum += tokenizer.getString(1).length() + tokenizer.getString(3).length()
+                            + tokenizer.getString(4).length() + tokenizer.getString(5).length();
+                }
+            }
+            return checksum;
+        }
+    }
+}
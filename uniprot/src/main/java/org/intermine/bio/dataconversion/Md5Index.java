@@ -0,0 +1,208 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps MD5 checksums of sequences to item identifiers.
+ *
+ * A HashMap of 32 character hex strings to identifier strings costs a couple of hundred bytes
+ * per sequence, which adds up to gigabytes for TrEMBL.  Here each checksum is kept as two longs
+ * and each identifier ("alias_number") as a single long in open addressing arrays, about 32
+ * bytes per sequence.  Checksums or identifiers that can't be packed (which shouldn't happen)
+ * are kept in an ordinary map.
+ *
+ * Not thread safe.
+ */
+public class Md5Index
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ALIAS_SHIFT = 48;
+    private static final long NUMBER_MASK = (1L << ALIAS_SHIFT) - 1;
+
+    // two longs per slot, high and low half of the checksum
+    private long[] keys;
+    // packed identifier + 1 per slot, 0 means empty
+    private long[] values;
+    private int size = 0;
+    // the part of the identifiers before the underscore, ie. the class alias
+    private final List<String> aliases = new ArrayList<String>();
+    private final Map<String, String> others = new HashMap<String, String>();
+
+    /**
+     * Construct an empty index.
+     */
+    public Md5Index() {
+        keys = new long[INITIAL_CAPACITY * 2];
+        values = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @param md5checksum hex MD5 checksum
+     * @return true if the checksum is in the index
+     */
+    public boolean containsKey(String md5checksum) {
+        return get(md5checksum) != null;
+    }
+
+    /**
+     * @param md5checksum hex MD5 checksum
+     * @return identifier stored for the checksum or null
+     */
+    public String get(String md5checksum) {
+        if (!isPackable(md5checksum)) {
+            return others.get(md5checksum);
+        }
+        long high = parseHex(md5checksum, 0);
+        long low = parseHex(md5checksum, 16);
+        int slot = findSlot(keys, values, high, low);
+        if (values[slot] == 0) {
+            return others.isEmpty() ? null : others.get(md5checksum);
+        }
+        return unpack(values[slot] - 1);
+    }
+
+    /**
+     * Add a checksum, unless it is already in the index.
+     * @param md5checksum hex MD5 checksum
+     * @param identifier item identifier
+     * @return false if the checksum was already in the index
+     */
+    public boolean putIfAbsent(String md5checksum, String identifier) {
+        long packed = pack(identifier);
+        if (!isPackable(md5checksum) || packed < 0) {
+            if (get(md5checksum) != null) {
+                return false;
+            }
+            others.put(md5checksum, identifier);
+            return true;
+        }
+        long high = parseHex(md5checksum, 0);
+        long low = parseHex(md5checksum, 16);
+        int slot = findSlot(keys, values, high, low);
+        if (values[slot] != 0 || (!others.isEmpty() && others.containsKey(md5checksum))) {
+            return false;
+        }
+        keys[slot * 2] = high;
+        keys[slot * 2 + 1] = low;
+        values[slot] = packed + 1;
+        size++;
+        if (size * 4L >= values.length * 3L) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * @return number of checksums in the index
+     */
+    public int size() {
+        return size + others.size();
+    }
+
+    private static int findSlot(long[] keys, long[] values, long high, long low) {
+        int mask = values.length - 1;
+        int slot = hash(high, low) & mask;
+        while (values[slot] != 0
+                && (keys[slot * 2] != high || keys[slot * 2 + 1] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // checksums are already evenly distributed, just fold them
+    private static int hash(long high, long low) {
+        long h = high ^ low;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) {
+                long high = oldKeys[i * 2];
+                long low = oldKeys[i * 2 + 1];
+                int slot = findSlot(keys, values, high, low);
+                keys[slot * 2] = high;
+                keys[slot * 2 + 1] = low;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // identifiers are "alias_number", store the alias index in the top bits
+    private long pack(String identifier) {
+        if (identifier == null) {
+            return -1;
+        }
+        int underscore = identifier.lastIndexOf('_');
+        if (underscore < 0 || underscore == identifier.length() - 1
+                || identifier.length() - underscore > 15) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = underscore + 1; i < identifier.length(); i++) {
+            char c = identifier.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        if (number > NUMBER_MASK || (underscore + 1 < identifier.length() - 1
+                && identifier.charAt(underscore + 1) == '0')) {
+            // leading zeros wouldn't survive the round trip
+            return -1;
+        }
+        String alias = identifier.substring(0, underscore);
+        int aliasIndex = aliases.indexOf(alias);
+        if (aliasIndex < 0) {
+            if (aliases.size() >= (1 << (63 - ALIAS_SHIFT)) - 1) {
+                return -1;
+            }
+            aliases.add(alias);
+            aliasIndex = aliases.size() - 1;
+        }
+        return ((long) aliasIndex << ALIAS_SHIFT) | number;
+    }
+
+    private String unpack(long packed) {
+        return aliases.get((int) (packed >>> ALIAS_SHIFT)) + "_" + (packed & NUMBER_MASK);
+    }
+
+    private static boolean isPackable(String md5checksum) {
+        if (md5checksum == null || md5checksum.length() != 32) {
+            return false;
+        }
+        // only lower case, upper case checksums would be the same key as lower case ones
+        for (int i = 0; i < 32; i++) {
+            char c = md5checksum.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String s, int start) {
+        long result = 0;
+        for (int i = start; i < start + 16; i++) {
+            result = (result << 4) | Character.digit(s.charAt(i), 16);
+        }
+        return result;
+    }
+}
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -58,6 +59,23 @@ public class UniprotConfig
         return xrefs;
     }
 
+    /**
+     * @return dbReference types used to set gene identifiers for any organism, eg. FlyBase.
+     * These have to be read even if they aren't listed as cross references.
+     */
+    public Set<String> getGeneDbrefTypes() {
+        Set<String> types = new HashSet<String>();
+        for (ConfigEntry configEntry : entries.values()) {
+            for (IdentifierConfig identifierConfig : configEntry.identifiers.values()) {
+                String method = identifierConfig.getMethod();
+                if ("dbref".equals(method) || "gene-designation".equals(method)) {
+                    types.add(identifierConfig.getValue());
+                }
+            }
+        }
+        return types;
+    }
+
     /**
      * @param taxonId taxonid
      * @return the unique identifier for genes of this organism, eg. primaryIdentifier
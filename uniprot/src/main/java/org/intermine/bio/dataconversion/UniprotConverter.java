@@ -11,7 +11,6 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -23,6 +22,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -32,7 +47,9 @@ import org.intermine.metadata.Model;
 import org.intermine.metadata.StringUtil;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.util.SAXParser;
+import org.intermine.xml.full.Attribute;
 import org.intermine.xml.full.Item;
+import org.intermine.xml.full.Reference;
 import org.intermine.xml.full.ReferenceList;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -50,20 +67,18 @@ public class UniprotConverter extends BioDirectoryConverter
 {
     private static final UniprotConfig CONFIG = new UniprotConfig();
     private static final Logger LOG = Logger.getLogger(UniprotConverter.class);
+    // the maps below are shared by all taxa, only access them via the getters, which lock each
+    // map while they look up or add an item but store the item after letting go of the lock
     private Map<String, String> pubs = new HashMap<String, String>();
-    private Set<Item> synonymsAndXrefs = new HashSet<Item>();
-    // taxonId -> [md5Checksum -> stored protein identifier]
-    private Map<String, Map<String, String>> sequences = new HashMap<String, Map<String, String>>();
     // md5Checksum -> sequence item identifier  (ensure all sequences are unique across organisms)
-    private Map<String, String> allSequences = new HashMap<String, String>();
+    private Md5Index allSequences = new Md5Index();
     private Map<String, String> ontologies = new HashMap<String, String>();
     private Map<String, String> keywords = new HashMap<String, String>();
-    private Map<String, String> genes = new HashMap<String, String>();
     private Map<String, String> goterms = new HashMap<String, String>();
     private Map<String, String> goEvidenceCodes = new HashMap<String, String>();
     private Map<String, String> ecNumbers = new HashMap<String, String>();
-    private Map<String, String> proteins = new HashMap<String, String>();
     private static final int POSTGRES_INDEX_SIZE = 2712;
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
 
     // don't allow duplicate identifiers
     private Set<String> identifiers = null;
@@ -75,7 +90,32 @@ public class UniprotConverter extends BioDirectoryConverter
     private boolean loadtrembl = true;
     private Set<String> taxonIds = null;
 
+    // number of taxa to parse at once, 1 means process serially on the calling thread
+    private int threads = 1;
+    // number of threads converting entries into items, 0 means convert on the parsing thread
+    private int converterThreads = 0;
+    private static final int PIPELINE_QUEUE_SIZE = 1000;
+    private static final int PIPELINE_BATCH_SIZE = 100;
+    // when running in parallel all items are stored by this single thread, in submission order
+    private ThreadPoolExecutor storeExecutor = null;
+    // the thread of storeExecutor, stores made on it (eg. by the store hook) run straight away
+    private volatile Thread writerThread = null;
+    // items stored by a converter thread are collected here and written in batches
+    private final ThreadLocal<List<Item>> collectedItems = new ThreadLocal<List<Item>>();
+    // dataset of the entry each worker is currently processing
+    private final ThreadLocal<String> currentDataSet = new ThreadLocal<String>();
+    private final Object idLock = new Object();
+    private final Object organismLock = new Object();
+    private final Object dataSetLock = new Object();
+    private final Object identifierLock = new Object();
+    // parse with the SAX handler or the StAX reader
+    private boolean useStax = false;
+
     protected IdResolver rslv;
+    // remembers what rslv made of each fly gene
+    private CachingIdResolver resolvedIds = null;
+    private String resolverSnapshot = null;
+    private String resolverSnapshotSources = null;
     private static final String FLY = "7227";
     private String datasourceRefId = null;
     private static final Map<String, String> GENE_PREFIXES = new HashMap<String, String>();
@@ -92,6 +132,11 @@ public class UniprotConverter extends BioDirectoryConverter
 
     static {
         GENE_PREFIXES.put("10116", "RGD:");
+        // like the SAX parser, element names are matched without namespaces
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
     }
 
     /**
@@ -109,12 +154,54 @@ public class UniprotConverter extends BioDirectoryConverter
         }
         Map<String, File[]> taxonIdToFiles = parseFileNames(dataDir.listFiles());
 
-        // init id resolver
-        if (rslv == null) {
-            rslv = IdResolverService.getFlyIdResolver();
+        // init id resolver, it is made when it is first needed
+        if (resolvedIds == null) {
+            if (rslv != null) {
+                resolvedIds = new CachingIdResolver(rslv, CachingIdResolver.DEFAULT_SIZE);
+            } else {
+                resolvedIds = new CachingIdResolver(new CachingIdResolver.ResolverFactory() {
+                    @Override
+                    public IdResolver getResolver() {
+                        rslv = IdResolverService.getFlyIdResolver();
+                        return rslv;
+                    }
+                }, CachingIdResolver.DEFAULT_SIZE);
+            }
+            if (resolverSnapshot != null) {
+                resolvedIds.useSnapshot(new File(resolverSnapshot), "fly",
+                        resolverSnapshotSources == null ? "" : resolverSnapshotSources);
+            }
         }
 
+        if (threads > 1 || converterThreads > 0) {
+            storeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            writerThread = new Thread(r, "uniprot-writer");
+                            return writerThread;
+                        }
+                    });
+        }
+        try {
+            processTaxa(dataDir, taxonIdToFiles);
+        } finally {
+            if (storeExecutor != null) {
+                storeExecutor.shutdown();
+                storeExecutor = null;
+            }
+        }
+        resolvedIds.saveSnapshot();
+        LOG.info("Processed " + dataDir + ", " + resolvedIds);
+    }
+
+    private void processTaxa(File dataDir, Map<String, File[]> taxonIdToFiles)
+        throws Exception {
         if (taxonIds != null) {
+            if (threads > 1) {
+                processTaxaInParallel(taxonIdToFiles);
+                return;
+            }
             for (String taxonId : taxonIds) {
                 if (taxonIdToFiles.get(taxonId) == null) {
                     LOG.error("no files found for " + taxonId);
@@ -128,7 +215,8 @@ public class UniprotConverter extends BioDirectoryConverter
             File[] sortedFiles = new File[2];
             for (int i = 0; i < files.length; i++) {
                 File file = files[i];
-                String filename = file.getName();
+                // uniprot_sprot.xml, or compressed eg. uniprot_sprot.xml.gz
+                String filename = CompressedInput.getUncompressedName(file);
                 // process sprot, then trembl
                 if ("uniprot_sprot.xml".equals(filename)) {
                     sortedFiles[0] = file;
@@ -148,25 +236,207 @@ public class UniprotConverter extends BioDirectoryConverter
             LOG.error("no data files found ");
             return;
         }
+        // new organism, so start with empty per-organism maps
+        TaxonState taxonState = new TaxonState();
         for (int i = 0; i <= 1; i++) {
             File file = files[i];
             if (file == null) {
                 continue;
             }
-            UniprotHandler handler = new UniprotHandler();
+            UniprotHandler handler = new UniprotHandler(taxonState);
             try {
                 System .out.println("Processing file: " + file.getPath());
-                Reader reader = new FileReader(file);
-                SAXParser.parse(new InputSource(reader), handler);
+                Reader reader = CompressedInput.openReader(file);
+                try {
+                    if (converterThreads > 0) {
+                        handler.startPipeline();
+                    }
+                    if (useStax) {
+                        new UniprotStaxReader(handler).parse(reader);
+                    } else {
+                        SAXParser.parse(new InputSource(reader), handler);
+                    }
+                    handler.finishPipeline();
+                } finally {
+                    reader.close();
+                }
             } catch (Exception e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
         }
-        // reset all variables here, new organism
-        sequences = new HashMap<String, Map<String, String>>();
-        genes = new HashMap<String, String>();
-        proteins = new HashMap<String, String>();
+    }
+
+    /**
+     * Parse each organism on its own worker thread.  The sprot file of an organism is still
+     * processed before its trembl file, but different organisms are parsed at the same time.
+     * Items are handed to a single writer thread so the ItemWriter is only used by one thread.
+     */
+    private void processTaxaInParallel(final Map<String, File[]> taxonIdToFiles)
+        throws Exception {
+        int poolSize = Math.min(threads, taxonIds.size());
+        LOG.info("Processing " + taxonIds.size() + " organisms using " + poolSize + " threads");
+        ExecutorService workers = Executors.newFixedThreadPool(poolSize);
+        try {
+            Map<String, Future<?>> results = new HashMap<String, Future<?>>();
+            for (final String taxonId : taxonIds) {
+                if (taxonIdToFiles.get(taxonId) == null) {
+                    LOG.error("no files found for " + taxonId);
+                }
+                results.put(taxonId, workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.currentTimeMillis();
+                        processFiles(taxonIdToFiles.get(taxonId));
+                        LOG.info("Finished processing " + taxonId + " in "
+                                + (System.currentTimeMillis() - start) + " ms");
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("failed to process organism " + result.getKey(),
+                            e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Item createItem(String className) {
+        // the super constructor makes the data source and data set before the lock is set, on
+        // the only thread there is then
+        if (idLock == null) {
+            return super.createItem(className);
+        }
+        // item identifiers are generated from a shared counter
+        synchronized (idLock) {
+            return super.createItem(className);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer store(final Item item) throws ObjectStoreException {
+        if (storeExecutor == null) {
+            return super.store(item);
+        }
+        List<Item> collected = collectedItems.get();
+        if (collected != null) {
+            // converter thread, the item is written with the rest of its entry
+            collected.add(item);
+            return null;
+        }
+        final String dataSetRefId = currentDataSet.get();
+        return onWriterThread(new Callable<Integer>() {
+            @Override
+            public Integer call() throws ObjectStoreException {
+                if (dataSetRefId != null) {
+                    setDataSet(dataSetRefId);
+                }
+                return UniprotConverter.super.store(item);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store(final ReferenceList referenceList, final Integer itemId)
+        throws ObjectStoreException {
+        if (storeExecutor == null) {
+            super.store(referenceList, itemId);
+            return;
+        }
+        onWriterThread(new Callable<Void>() {
+            @Override
+            public Void call() throws ObjectStoreException {
+                UniprotConverter.super.store(referenceList, itemId);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store(final Reference reference, final Integer itemId)
+        throws ObjectStoreException {
+        if (storeExecutor == null) {
+            super.store(reference, itemId);
+            return;
+        }
+        onWriterThread(new Callable<Void>() {
+            @Override
+            public Void call() throws ObjectStoreException {
+                UniprotConverter.super.store(reference, itemId);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void store(final Attribute attribute, final Integer itemId)
+        throws ObjectStoreException {
+        if (storeExecutor == null) {
+            super.store(attribute, itemId);
+            return;
+        }
+        onWriterThread(new Callable<Void>() {
+            @Override
+            public Void call() throws ObjectStoreException {
+                UniprotConverter.super.store(attribute, itemId);
+                return null;
+            }
+        });
+    }
+
+    // run the store on the writer thread and wait for it, callers may need the object id
+    private <T> T onWriterThread(Callable<T> task) throws ObjectStoreException {
+        if (Thread.currentThread() == writerThread) {
+            // eg. the store hook storing an item while another is stored
+            try {
+                return task.call();
+            } catch (ObjectStoreException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            return storeExecutor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException("interrupted while storing item", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ObjectStoreException) {
+                throw (ObjectStoreException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // the store hook adds the current dataset to items, keep track of it per worker thread
+    private void useDataSet(String dataSetRefId) {
+        if (storeExecutor == null) {
+            setDataSet(dataSetRefId);
+        } else {
+            currentDataSet.set(dataSetRefId);
+        }
     }
 
     /**
@@ -188,7 +458,7 @@ public class UniprotConverter extends BioDirectoryConverter
             return null;
         }
         for (File file : fileList) {
-            String[] bits = file.getName().split("_");
+            String[] bits = CompressedInput.getUncompressedName(file).split("_");
             String taxonId = bits[0];
             if (bits.length != 3) {
                 LOG.info("Bad file found:  "  + file.getName()
@@ -282,6 +552,53 @@ public class UniprotConverter extends BioDirectoryConverter
     }
 
 
+    /**
+     * Number of organisms to process at the same time.  Only used when the organisms are
+     * set with setUniprotOrganisms().  Default is 1, process one organism after the other.
+     *
+     * @param threads number of worker threads
+     */
+    public void setThreads(String threads) {
+        try {
+            this.threads = Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("threads must be a number: " + threads);
+        }
+    }
+
+    /**
+     * Number of threads converting parsed entries into items.  If set, one thread parses the
+     * XML, these threads build the items and a single thread stores them.  Default is 0,
+     * entries are converted and stored by the thread parsing the XML.
+     *
+     * @param converterThreads number of converter threads
+     */
+    public void setConverterthreads(String converterThreads) {
+        try {
+            this.converterThreads = Math.max(0, Integer.parseInt(converterThreads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("converterthreads must be a number: "
+                    + converterThreads);
+        }
+    }
+
+    /**
+     * Which XML parser to use, "sax" (default) or "stax".  The StAX reader builds entries
+     * directly and skips features and cross references that aren't configured to be loaded.
+     *
+     * @param parser sax or stax
+     */
+    public void setParser(String parser) {
+        if ("stax".equalsIgnoreCase(parser)) {
+            useStax = true;
+        } else if ("sax".equalsIgnoreCase(parser)) {
+            useStax = false;
+        } else {
+            throw new IllegalArgumentException("Unknown parser: " + parser
+                    + ", expected sax or stax");
+        }
+    }
+
     /**
      * Sets the list of taxonIds that should be imported if using split input files.
      *
@@ -306,6 +623,27 @@ public class UniprotConverter extends BioDirectoryConverter
         }
     }
 
+    /**
+     * A file to save the resolved fly gene identifiers in, so the next run only needs to make
+     * the id resolver for genes that weren't in the files before.  Needs
+     * resolverSnapshotSources.
+     *
+     * @param resolverSnapshot the snapshot file
+     */
+    public void setResolverSnapshot(String resolverSnapshot) {
+        this.resolverSnapshot = resolverSnapshot.trim();
+    }
+
+    /**
+     * The files the fly id resolver is made from, or directories of them, separated by commas.
+     * The resolver snapshot isn't used if any of them have changed.
+     *
+     * @param resolverSnapshotSources files or directories
+     */
+    public void setResolverSnapshotSources(String resolverSnapshotSources) {
+        this.resolverSnapshotSources = resolverSnapshotSources;
+    }
+
     private void addStrains() {
         Set<String> originalTaxonIds = new HashSet<String>(taxonIds);
         for (String taxonId : originalTaxonIds) {
@@ -316,6 +654,50 @@ public class UniprotConverter extends BioDirectoryConverter
         }
     }
 
+    /**
+     * maps only valid for the organism being processed.  shared by the sprot and trembl
+     * handler of an organism, and by the converter threads if entries are converted in a
+     * pipeline.
+     */
+    private static class TaxonState
+    {
+        // taxonId -> [md5Checksum -> stored protein identifier], synchronize on the TaxonState
+        private Map<String, Md5Index> sequences = new HashMap<String, Md5Index>();
+        // synchronize on the map
+        private Map<String, String> genes = new HashMap<String, String>();
+        private Map<String, String> proteins = new ConcurrentHashMap<String, String>();
+    }
+
+    /**
+     * an entry that has been parsed and will be stored, waiting to be converted into items
+     */
+    private static class PreparedEntry
+    {
+        private final UniprotEntry entry;
+        private final Item protein;
+        private final Set<Item> synonymsAndXrefs;
+
+        PreparedEntry(UniprotEntry entry, Item protein, Set<Item> synonymsAndXrefs) {
+            this.entry = entry;
+            this.protein = protein;
+            this.synonymsAndXrefs = synonymsAndXrefs;
+        }
+    }
+
+    /**
+     * the items created for an entry, waiting to be stored
+     */
+    private static class ConvertedEntry
+    {
+        private final String dataSetRefId;
+        private final List<Item> items;
+
+        ConvertedEntry(String dataSetRefId, List<Item> items) {
+            this.dataSetRefId = dataSetRefId;
+            this.items = items;
+        }
+    }
+
     /* converts the XML into UniProt entry objects.  run once per file */
     private class UniprotHandler extends DefaultHandler
     {
@@ -323,8 +705,23 @@ public class UniprotConverter extends BioDirectoryConverter
         private Stack<String> stack = new Stack<String>();
         private String attName = null;
         private StringBuffer attValue = null;
-        private int entryCount = 0;
+        private AtomicInteger entryCount = new AtomicInteger();
         private DiseaseHolder disease = null;
+        // synonyms for duplicate proteins, stored with the next protein
+        private Set<Item> synonymsAndXrefs = new HashSet<Item>();
+        private UniprotEntryPipeline<PreparedEntry, ConvertedEntry> pipeline = null;
+        private final TaxonState taxonState;
+        private final Map<String, String> genes;
+        private final Map<String, String> proteins;
+
+        /**
+         * @param taxonState maps for the organism this file belongs to
+         */
+        UniprotHandler(TaxonState taxonState) {
+            this.taxonState = taxonState;
+            this.genes = taxonState.genes;
+            this.proteins = taxonState.proteins;
+        }
 
         /**
          * {@inheritDoc}
@@ -341,7 +738,7 @@ public class UniprotConverter extends BioDirectoryConverter
             if ("entry".equals(qName)) {
                 entry = new UniprotEntry();
                 String dataSetTitle = getAttrValue(attrs, "dataset") + " data set";
-                entry.setDatasetRefId(getDataSet(dataSetTitle, datasourceRefId));
+                entry.setDatasetRefId(getDataSetRefId(dataSetTitle));
             } else if ("fullName".equals(qName) && stack.search("protein") == 2
                     &&  ("recommendedName".equals(previousQName)
                             || "submittedName".equals(previousQName))) {
@@ -493,35 +890,7 @@ public class UniprotConverter extends BioDirectoryConverter
             } else if (StringUtils.isNotEmpty(attName) && "ecNumber".equals(attName)) {
                 entry.addECNumber(attValue.toString());
             } else if ("text".equals(qName) && "comment".equals(previousQName)) {
-                StringBuilder commentText = new StringBuilder();
-                commentText.append(attValue.toString());
-                if (commentText.length() > 0) {
-                    Item item = createItem("Comment");
-                    String commentType = entry.getCommentType();
-                    item.setAttribute("type", commentType);
-                    if (commentText.length() > POSTGRES_INDEX_SIZE) {
-                        // comment text is a string
-                        String ellipses = "...";
-                        String choppedComment = commentText.substring(
-                                0, POSTGRES_INDEX_SIZE - ellipses.length());
-                        item.setAttribute("description", choppedComment + ellipses);
-                    } else {
-                        if ("disease".equals(commentType) && disease != null) {
-                            item.setAttribute("description", disease.toString()
-                                    + commentText.toString());
-                        } else {
-                            item.setAttribute("description", commentText.toString());
-                        }
-                    }
-
-                    String refId = item.getIdentifier();
-                    try {
-                        Integer objectId = store(item);
-                        entry.addCommentRefId(refId, objectId);
-                    } catch (ObjectStoreException e) {
-                        throw new SAXException(e);
-                    }
-                }
+                storeComment(entry, attValue.toString(), disease);
             } else if ("name".equals(qName) && "gene".equals(previousQName)) {
                 entry.addGeneName(attName, attValue.toString());
             } else if ("keyword".equals(qName)) {
@@ -555,24 +924,7 @@ public class UniprotConverter extends BioDirectoryConverter
                     disease.setDisease("acronym", attValue.toString());
                 }
             } else if ("id".equals(qName) && "isoform".equals(previousQName)) {
-                String accession = attValue.toString();
-
-                // 119 isoforms have commas in their IDs
-                if (accession.contains(",")) {
-                    String[] accessions = accession.split("[, ]+");
-                    accession = accessions[0];
-                    for (int i = 1; i < accessions.length; i++) {
-                        entry.addIsoformSynonym(accessions[i]);
-                    }
-                }
-
-                // attribute should be empty, unless isoform has two <id>s
-                if (entry.getAttribute() == null) {
-                    entry.addAttribute(accession);
-                } else {
-                    // second <id> value is ignored and added as a synonym
-                    entry.addIsoformSynonym(accession);
-                }
+                addIsoformId(entry, attValue.toString());
             } else if ("comment".equals(qName)) {
                 // on closing a comment, make sure the disease holder is empty
                 disease = null;
@@ -581,20 +933,155 @@ public class UniprotConverter extends BioDirectoryConverter
                     entry.addIsoformSynonym(attValue.toString());
                 }
             } else if ("entry".equals(qName)) {
-                try {
-                    processCommentEvidence(entry);
-                    Set<UniprotEntry> isoforms = processEntry(entry);
-                    if (isoforms != null) {
-                        for (UniprotEntry isoform : isoforms) {
-                            processEntry(isoform);
+                finishEntry(entry);
+            }
+        }
+
+        /**
+         * Store the entry, its isoforms and the evidence for its comments.  If there is a
+         * pipeline the entry is queued to be converted by another thread.
+         * @param uniprotEntry entry read from the XML
+         * @throws SAXException if the items can't be stored
+         */
+        private void finishEntry(UniprotEntry uniprotEntry) throws SAXException {
+            entry = uniprotEntry;
+            // items stored on this thread belong to the entry's data set too, with a pipeline
+            // processEntry() sets the data set on the converter threads only
+            useDataSet(entry.getDatasetRefId());
+            try {
+                processCommentEvidence(entry);
+                // duplicates have to be checked in the order the entries are read
+                Item protein = prepareEntry(entry);
+                if (protein == null) {
+                    return;
+                }
+                PreparedEntry prepared = new PreparedEntry(entry, protein, synonymsAndXrefs);
+                synonymsAndXrefs = new HashSet<Item>();
+                if (pipeline == null) {
+                    convertEntry(prepared);
+                } else {
+                    pipeline.put(prepared);
+                }
+            } catch (ObjectStoreException e) {
+                throw new SAXException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException(e);
+            }
+        }
+
+        /**
+         * Start converter threads for this file.
+         */
+        private void startPipeline() {
+            pipeline = new UniprotEntryPipeline<PreparedEntry, ConvertedEntry>(converterThreads,
+                PIPELINE_QUEUE_SIZE, PIPELINE_BATCH_SIZE, storeExecutor,
+                new UniprotEntryPipeline.EntryConverter<PreparedEntry, ConvertedEntry>() {
+                    @Override
+                    public ConvertedEntry convert(PreparedEntry prepared) throws Exception {
+                        List<Item> items = new ArrayList<Item>();
+                        collectedItems.set(items);
+                        try {
+                            convertEntry(prepared);
+                        } finally {
+                            collectedItems.remove();
                         }
+                        return new ConvertedEntry(prepared.entry.getDatasetRefId(), items);
                     }
+                },
+                new UniprotEntryPipeline.BatchWriter<ConvertedEntry>() {
+                    @Override
+                    public void write(List<ConvertedEntry> batch) throws Exception {
+                        // runs on the writer thread, so store directly
+                        for (ConvertedEntry converted : batch) {
+                            setDataSet(converted.dataSetRefId);
+                            for (Item item : converted.items) {
+                                UniprotConverter.super.store(item);
+                            }
+                        }
+                    }
+                });
+        }
+
+        /**
+         * Wait for the converter threads to store all the entries in this file.
+         * @throws Exception if an entry couldn't be converted or stored
+         */
+        private void finishPipeline() throws Exception {
+            if (pipeline != null) {
+                pipeline.finish();
+                pipeline = null;
+            }
+        }
+
+        // create the items for the entry and then its isoforms
+        private void convertEntry(PreparedEntry prepared)
+            throws SAXException, ObjectStoreException {
+            UniprotEntry uniprotEntry = prepared.entry;
+            processEntry(uniprotEntry, prepared.protein, prepared.synonymsAndXrefs);
+            for (String isoformAccession: uniprotEntry.getIsoforms()) {
+                UniprotEntry isoform = uniprotEntry.createIsoformEntry(isoformAccession);
+                Item isoformProtein = prepareEntry(isoform);
+                if (isoformProtein != null) {
+                    processEntry(isoform, isoformProtein, new HashSet<Item>());
+                }
+            }
+        }
+
+        private void storeComment(UniprotEntry uniprotEntry, String text,
+                DiseaseHolder diseaseHolder) throws SAXException {
+            StringBuilder commentText = new StringBuilder();
+            commentText.append(text);
+            if (commentText.length() > 0) {
+                Item item = createItem("Comment");
+                String commentType = uniprotEntry.getCommentType();
+                item.setAttribute("type", commentType);
+                if (commentText.length() > POSTGRES_INDEX_SIZE) {
+                    // comment text is a string
+                    String ellipses = "...";
+                    String choppedComment = commentText.substring(
+                            0, POSTGRES_INDEX_SIZE - ellipses.length());
+                    item.setAttribute("description", choppedComment + ellipses);
+                } else {
+                    if ("disease".equals(commentType) && diseaseHolder != null) {
+                        item.setAttribute("description", diseaseHolder.toString()
+                                + commentText.toString());
+                    } else {
+                        item.setAttribute("description", commentText.toString());
+                    }
+                }
+
+                String refId = item.getIdentifier();
+                try {
+                    Integer objectId = store(item);
+                    uniprotEntry.addCommentRefId(refId, objectId);
                 } catch (ObjectStoreException e) {
                     throw new SAXException(e);
                 }
             }
         }
 
+        private void addIsoformId(UniprotEntry uniprotEntry, String isoformId) {
+            String accession = isoformId;
+
+            // 119 isoforms have commas in their IDs
+            if (accession.contains(",")) {
+                String[] accessions = accession.split("[, ]+");
+                accession = accessions[0];
+                for (int i = 1; i < accessions.length; i++) {
+                    uniprotEntry.addIsoformSynonym(accessions[i]);
+                }
+            }
+
+            // attribute should be empty, unless isoform has two <id>s
+            if (uniprotEntry.getAttribute() == null) {
+                uniprotEntry.addAttribute(accession);
+            } else {
+                // second <id> value is ignored and added as a synonym
+                uniprotEntry.addIsoformSynonym(accession);
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -634,122 +1121,128 @@ public class UniprotConverter extends BioDirectoryConverter
         }
 
 
-        private Set<UniprotEntry> processEntry(UniprotEntry uniprotEntry)
-            throws SAXException, ObjectStoreException {
-            entryCount++;
-            if (entryCount % 10000 == 0) {
-                LOG.info("Processed " + entryCount + " entries.");
+        /**
+         * Decide whether an entry is stored.  If the sequence has been seen before for this
+         * organism the accession is added as a synonym of the protein already stored.
+         * @param uniprotEntry entry or isoform
+         * @return the new protein item, or null if the entry isn't stored
+         */
+        private Item prepareEntry(UniprotEntry uniprotEntry) throws ObjectStoreException {
+            int count = entryCount.incrementAndGet();
+            if (count % 10000 == 0) {
+                LOG.info("Processed " + count + " entries.");
             }
-            Set<UniprotEntry> isoforms = new HashSet<UniprotEntry>();
             // have we already seen a protein for this organism with the same sequence?
             if (!uniprotEntry.isIsoform() && !allowduplicates
-                    && seenSequence(uniprotEntry.getTaxonId(), uniprotEntry.getMd5checksum())) {
+                    && seenSequence(taxonState, uniprotEntry.getTaxonId(),
+                            uniprotEntry.getMd5checksum())) {
                 // if we have seen this sequence before for this organism just add the
                 // primaryAccession of this protein as a synonym for the one already stored.
-                Map<String, String> orgSequences = sequences.get(uniprotEntry.getTaxonId());
-                if (orgSequences != null
-                        && orgSequences.containsKey(uniprotEntry.getMd5checksum())) {
-                    Item synonym = createSynonym(orgSequences.get(uniprotEntry.getMd5checksum()),
+                String proteinRefId = getSeenSequence(taxonState, uniprotEntry.getTaxonId(),
+                        uniprotEntry.getMd5checksum());
+                if (proteinRefId != null) {
+                    Item synonym = createSynonym(proteinRefId,
                             uniprotEntry.getPrimaryAccession(), false);
                     synonymsAndXrefs.add(synonym);
                 }
-                return isoforms;
+                return null;
             }
 
-            if (uniprotEntry.hasDatasetRefId() && uniprotEntry.hasPrimaryAccession()
-                    && !uniprotEntry.isDuplicate()) {
+            if (!uniprotEntry.hasDatasetRefId() || !uniprotEntry.hasPrimaryAccession()
+                    || uniprotEntry.isDuplicate()) {
+                return null;
+            }
+            if (!loadfragments && "true".equalsIgnoreCase(uniprotEntry.isFragment())) {
+                return null;
+            }
 
-                if (!loadfragments && "true".equalsIgnoreCase(uniprotEntry.isFragment())) {
-                    return Collections.emptySet();
-                }
+            Item protein = createItem("Protein");
 
-                setDataSet(uniprotEntry.getDatasetRefId());
-                for (String isoformAccession: uniprotEntry.getIsoforms()) {
-                    isoforms.add(uniprotEntry.createIsoformEntry(isoformAccession));
-                }
+            // record that we have seen this sequence for this organism
+            addSeenSequence(taxonState, uniprotEntry.getTaxonId(),
+                    uniprotEntry.getMd5checksum(), protein.getIdentifier());
 
-                Item protein = createItem("Protein");
+            if (!uniprotEntry.isIsoform()) {
+                /* canonical protein so isoforms can refer to it */
+                proteins.put(uniprotEntry.getPrimaryAccession(), protein.getIdentifier());
+            }
+            return protein;
+        }
 
-                /* primaryAccession, primaryIdentifier, name, etc */
-                processIdentifiers(protein, uniprotEntry);
+        private void processEntry(UniprotEntry uniprotEntry, Item protein,
+                Set<Item> synonymsAndXrefs) throws SAXException, ObjectStoreException {
+            useDataSet(uniprotEntry.getDatasetRefId());
 
-                processECNumbers(protein, uniprotEntry);
+            /* primaryAccession, primaryIdentifier, name, etc */
+            processIdentifiers(protein, uniprotEntry);
 
-                String isCanonical = (uniprotEntry.isIsoform() ? "false" : "true");
-                protein.setAttribute("isUniprotCanonical", isCanonical);
+            processECNumbers(protein, uniprotEntry);
 
-                /* sequence */
-                if (!uniprotEntry.isIsoform()) {
-                    processSequence(protein, uniprotEntry);
-                }
+            String isCanonical = (uniprotEntry.isIsoform() ? "false" : "true");
+            protein.setAttribute("isUniprotCanonical", isCanonical);
 
-                protein.setReference("organism", getOrganism(uniprotEntry.getTaxonId()));
+            /* sequence */
+            if (!uniprotEntry.isIsoform()) {
+                processSequence(protein, uniprotEntry);
+            }
 
-                /* publications */
-                if (uniprotEntry.getPubs() != null) {
-                    protein.setCollection("publications", uniprotEntry.getPubs());
-                }
+            protein.setReference("organism", getOrganismRefId(uniprotEntry.getTaxonId()));
 
-                /* comments */
-                if (uniprotEntry.hasComments()) {
-                    protein.setCollection("comments", uniprotEntry.getComments());
-                    processCommentEvidence(uniprotEntry);
-                }
+            /* publications */
+            if (uniprotEntry.getPubs() != null) {
+                protein.setCollection("publications", uniprotEntry.getPubs());
+            }
 
-                /* keywords */
-                if (uniprotEntry.getKeywords() != null) {
-                    protein.setCollection("keywords", uniprotEntry.getKeywords());
-                }
+            /* comments */
+            if (uniprotEntry.hasComments()) {
+                protein.setCollection("comments", uniprotEntry.getComments());
+                processCommentEvidence(uniprotEntry);
+            }
 
-                /* features */
-                processFeatures(protein, uniprotEntry);
+            /* keywords */
+            if (uniprotEntry.getKeywords() != null) {
+                protein.setCollection("keywords", uniprotEntry.getKeywords());
+            }
 
-                /* components */
-                if (uniprotEntry.getComponents() != null
-                        && !uniprotEntry.getComponents().isEmpty()) {
-                    processComponents(protein, uniprotEntry);
-                }
+            /* features */
+            processFeatures(protein, uniprotEntry);
 
-                // record that we have seen this sequence for this organism
-                addSeenSequence(uniprotEntry.getTaxonId(), uniprotEntry.getMd5checksum(),
-                        protein.getIdentifier());
+            /* components */
+            if (uniprotEntry.getComponents() != null
+                    && !uniprotEntry.getComponents().isEmpty()) {
+                processComponents(protein, uniprotEntry);
+            }
 
-                /* canonical */
-                if (uniprotEntry.isIsoform()) {
-                    // the uniprot accession is parsed in the getIdentifiers() method here
-                    // so don't move this
-                    String canonicalAccession = uniprotEntry.getUniprotAccession();
-                    String canonicalRefId = proteins.get(canonicalAccession);
-                    if (canonicalRefId == null) {
-                        throw new RuntimeException("parsing an isoform without a parent "
-                                + canonicalAccession);
-                    }
-                    protein.setReference("canonicalProtein", canonicalRefId);
-                } else {
-                    /* canonical protein so isoforms can refer to it */
-                    proteins.put(uniprotEntry.getPrimaryAccession(), protein.getIdentifier());
+            /* canonical */
+            if (uniprotEntry.isIsoform()) {
+                // the uniprot accession is parsed in the getIdentifiers() method here
+                // so don't move this
+                String canonicalAccession = uniprotEntry.getUniprotAccession();
+                String canonicalRefId = proteins.get(canonicalAccession);
+                if (canonicalRefId == null) {
+                    throw new RuntimeException("parsing an isoform without a parent "
+                            + canonicalAccession);
                 }
+                protein.setReference("canonicalProtein", canonicalRefId);
+            }
 
-                try {
-                    /* dbrefs (go terms, refseq) */
-                    processDbrefs(protein, uniprotEntry);
+            try {
+                /* dbrefs (go terms, refseq) */
+                processDbrefs(protein, uniprotEntry, synonymsAndXrefs);
 
-                    /* genes */
-                    if (creategenes) {
-                        processGene(protein, uniprotEntry);
-                    }
+                /* genes */
+                if (creategenes) {
+                    processGene(protein, uniprotEntry);
+                }
 
-                    store(protein);
+                store(protein);
 
-                    // create synonyms for accessions and store xrefs and synonyms we've collected
-                    processSynonyms(protein.getIdentifier(), uniprotEntry);
+                // create synonyms for accessions and store xrefs and synonyms we've collected
+                processSynonyms(protein.getIdentifier(), uniprotEntry, synonymsAndXrefs);
 
-                } catch (ObjectStoreException e) {
-                    throw new SAXException(e);
-                }
-                synonymsAndXrefs = new HashSet<Item>();
+            } catch (ObjectStoreException e) {
+                throw new SAXException(e);
             }
-            return isoforms;
         }
 
         private void processCommentEvidence(UniprotEntry uniprotEntry)
@@ -785,22 +1278,6 @@ public class UniprotConverter extends BioDirectoryConverter
             protein.setAttribute("md5checksum", uniprotEntry.getMd5checksum());
         }
 
-        private String getSequenceIdentfier(String md5Checksum, String residues, String length) {
-            if (!allSequences.containsKey(md5Checksum)) {
-                Item item = createItem("Sequence");
-                item.setAttribute("residues", residues);
-                item.setAttribute("length", length);
-                item.setAttribute("md5checksum", md5Checksum);
-                try {
-                    store(item);
-                } catch (ObjectStoreException e) {
-                    throw new RuntimeException(e);
-                }
-                allSequences.put(md5Checksum, item.getIdentifier());
-            }
-            return allSequences.get(md5Checksum);
-        }
-
         private void processIdentifiers(Item protein, UniprotEntry uniprotEntry) {
             protein.setAttribute("name", uniprotEntry.getName());
             protein.setAttribute("isFragment", uniprotEntry.isFragment());
@@ -826,20 +1303,7 @@ public class UniprotConverter extends BioDirectoryConverter
                 return;
             }
             for (String identifier : ecs) {
-                String refId = ecNumbers.get(identifier);
-
-                if (refId == null) {
-                    Item item = createItem("ECNumber");
-                    item.setAttribute("identifier", identifier);
-                    ecNumbers.put(identifier, item.getIdentifier());
-                    try {
-                        store(item);
-                    } catch (ObjectStoreException e) {
-                        throw new SAXException(e);
-                    }
-                    refId = item.getIdentifier();
-                }
-                protein.addToCollection("ecNumbers", refId);
+                protein.addToCollection("ecNumbers", getECNumber(identifier));
             }
         }
 
@@ -883,8 +1347,8 @@ public class UniprotConverter extends BioDirectoryConverter
             }
         }
 
-        private void processSynonyms(String proteinRefId, UniprotEntry uniprotEntry)
-            throws ObjectStoreException {
+        private void processSynonyms(String proteinRefId, UniprotEntry uniprotEntry,
+                Set<Item> synonymsAndXrefs) throws ObjectStoreException {
 
             // accessions
             for (String accession : uniprotEntry.getAccessions()) {
@@ -922,14 +1386,15 @@ public class UniprotConverter extends BioDirectoryConverter
             }
         }
 
-        private void processDbrefs(Item protein, UniprotEntry uniprotEntry)
-            throws ObjectStoreException {
+        private void processDbrefs(Item protein, UniprotEntry uniprotEntry,
+                Set<Item> synonymsAndXrefs) throws ObjectStoreException {
             Map<String, Set<String>> dbrefs = uniprotEntry.getDbrefs();
             for (Map.Entry<String, Set<String>> dbref : dbrefs.entrySet()) {
                 String key = dbref.getKey();
                 Set<String> values = dbref.getValue();
                 for (String identifier : values) {
-                    setCrossReference(protein.getIdentifier(), identifier, key, false);
+                    setCrossReference(protein.getIdentifier(), identifier, key,
+                            synonymsAndXrefs);
                 }
             }
 
@@ -938,10 +1403,10 @@ public class UniprotConverter extends BioDirectoryConverter
 
         // if cross references not listed in CONFIG, load all
         private void setCrossReference(String subjectId, String value, String dataSource,
-                boolean store) throws ObjectStoreException {
+                Set<Item> synonymsAndXrefs) throws ObjectStoreException {
             List<String> xrefs = CONFIG.getCrossReferences();
             if (xrefs.isEmpty() || xrefs.contains(dataSource)) {
-                Item item = createCrossReference(subjectId, value, dataSource, store);
+                Item item = createCrossReference(subjectId, value, dataSource, false);
                 if (item != null) {
                     synonymsAndXrefs.add(item);
                 }
@@ -956,7 +1421,7 @@ public class UniprotConverter extends BioDirectoryConverter
                 Set<String> values = dbref.getValue();
                 if ("GO".equalsIgnoreCase(key)) {
                     for (String goTerm : values) {
-                        String code = getGOEvidenceCode(entry.getGOEvidence(goTerm));
+                        String code = getGOEvidenceCode(uniprotEntry.getGOEvidence(goTerm));
                         Item goEvidence = createItem("GOEvidence");
                         goEvidence.setReference("code", code);
 
@@ -1062,11 +1527,19 @@ public class UniprotConverter extends BioDirectoryConverter
                 return null;
             }
 
-            String geneRefId = genes.get(identifier);
-            if (geneRefId == null) {
-                Item gene = createItem("Gene");
+            Item gene = null;
+            String geneRefId;
+            synchronized (genes) {
+                geneRefId = genes.get(identifier);
+                if (geneRefId == null) {
+                    gene = createItem("Gene");
+                    geneRefId = gene.getIdentifier();
+                    genes.put(identifier, geneRefId);
+                }
+            }
+            if (gene != null) {
                 gene.setAttribute(uniqueIdentifierField, identifier);
-                gene.setReference("organism", getOrganism(taxId));
+                gene.setReference("organism", getOrganismRefId(taxId));
                 if (creatego) {
                     try {
                         processGoAnnotation(uniprotEntry, gene);
@@ -1074,13 +1547,9 @@ public class UniprotConverter extends BioDirectoryConverter
                         LOG.error("couldn't process GO annotation for gene - " + identifier);
                     }
                 }
-                geneRefId = gene.getIdentifier();
-                genes.put(identifier, geneRefId);
-                protein.addToCollection("genes", geneRefId);
-                return gene;
             }
             protein.addToCollection("genes", geneRefId);
-            return null;
+            return gene;
         }
 
         private Set<String> getGeneIdentifiers(UniprotEntry uniprotEntry, String identifierField) {
@@ -1190,57 +1659,513 @@ public class UniprotConverter extends BioDirectoryConverter
         }
 
         private String resolveFlyGene(String taxId, String identifier) {
-            if (rslv == null || !rslv.hasTaxon(taxId)) {
+            if (resolvedIds == null || !resolvedIds.hasTaxon(taxId)) {
                 // no id resolver available, so return the original identifier
                 return identifier;
             }
-            int resCount = rslv.countResolutions(taxId, identifier);
-            if (resCount != 1) {
-                LOG.info("RESOLVER: failed to resolve gene to one identifier, ignoring gene: "
-                         + identifier + " count: " + resCount + " FBgn: "
-                         + rslv.resolveId(taxId, identifier));
+            return resolvedIds.resolveOne(taxId, identifier);
+        }
+    }
+
+    /**
+     * Pull parser alternative to UniprotHandler.  Reads each entry straight into a UniprotEntry
+     * without keeping a stack of element names, and skips the subtrees we don't load: features
+     * of types not listed in the config and cross references that aren't configured and aren't
+     * needed for genes or GO annotation.  Entries are handed to the handler to be stored.
+     * Run once per file.
+     */
+    private class UniprotStaxReader
+    {
+        private final UniprotHandler handler;
+        // null if all dbReference types are loaded
+        private final Set<String> dbrefTypes;
+        private final StringBuilder text = new StringBuilder();
+
+        /**
+         * @param handler handler for the organism, used to store the entries
+         */
+        UniprotStaxReader(UniprotHandler handler) {
+            this.handler = handler;
+            List<String> xrefs = CONFIG.getCrossReferences();
+            if (xrefs.isEmpty()) {
+                dbrefTypes = null;
+            } else {
+                dbrefTypes = new HashSet<String>(xrefs);
+                dbrefTypes.addAll(CONFIG.getGeneDbrefTypes());
+            }
+        }
+
+        /**
+         * @param reader the UniProt XML
+         * @throws XMLStreamException if the XML can't be read
+         * @throws SAXException if the entries can't be stored
+         */
+        void parse(Reader reader) throws XMLStreamException, SAXException {
+            XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(reader);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT
+                            && "entry".equals(xml.getLocalName())) {
+                        handler.finishEntry(readEntry(xml));
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        }
+
+        private UniprotEntry readEntry(XMLStreamReader xml)
+            throws XMLStreamException, SAXException {
+            UniprotEntry entry = new UniprotEntry();
+            entry.setDatasetRefId(getDataSetRefId(getAttrValue(xml, "dataset") + " data set"));
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                if ("accession".equals(qName)) {
+                    String accession = readText(xml);
+                    entry.addAccession(accession);
+                    if (accession.equals(entry.getPrimaryAccession())) {
+                        checkUniqueIdentifier(entry, accession);
+                    }
+                } else if ("name".equals(qName)) {
+                    entry.setPrimaryIdentifier(readText(xml));
+                } else if ("protein".equals(qName)) {
+                    readProtein(xml, entry);
+                } else if ("gene".equals(qName)) {
+                    entry.reset();
+                    readGene(xml, entry);
+                } else if ("organism".equals(qName)) {
+                    readOrganism(xml, entry);
+                } else if ("reference".equals(qName)) {
+                    readReference(xml, entry);
+                } else if ("comment".equals(qName)) {
+                    readComment(xml, entry);
+                } else if ("dbReference".equals(qName)) {
+                    readDbref(xml, entry);
+                } else if ("keyword".equals(qName)) {
+                    entry.addKeyword(getKeyword(readText(xml)));
+                } else if ("feature".equals(qName)) {
+                    readFeature(xml, entry);
+                } else if ("evidence".equals(qName)) {
+                    String evidenceCode = getAttrValue(xml, "key");
+                    String pubmedString = getAttrValue(xml, "attribute");
+                    if (StringUtils.isNotEmpty(evidenceCode)
+                            && StringUtils.isNotEmpty(pubmedString)) {
+                        entry.addPubEvidence(evidenceCode, getEvidence(pubmedString));
+                    }
+                    skip(xml);
+                } else if ("sequence".equals(qName)) {
+                    readSequence(xml, entry);
+                } else {
+                    skip(xml);
+                }
+            }
+            return entry;
+        }
+
+        private void readProtein(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                if ("recommendedName".equals(qName) || "submittedName".equals(qName)
+                        || "alternativeName".equals(qName)) {
+                    boolean isAlternative = "alternativeName".equals(qName);
+                    while (nextChild(xml)) {
+                        String field = xml.getLocalName();
+                        if ("fullName".equals(field)) {
+                            if (isAlternative) {
+                                entry.addProteinName(readText(xml));
+                            } else {
+                                entry.setName(readText(xml));
+                            }
+                        } else if ("shortName".equals(field)) {
+                            entry.addProteinName(readText(xml));
+                        } else if ("ecNumber".equals(field)) {
+                            entry.addECNumber(readText(xml));
+                        } else {
+                            skip(xml);
+                        }
+                    }
+                } else if ("component".equals(qName)) {
+                    while (nextChild(xml)) {
+                        if ("recommendedName".equals(xml.getLocalName())) {
+                            while (nextChild(xml)) {
+                                String field = xml.getLocalName();
+                                if ("fullName".equals(field)) {
+                                    entry.addComponent(readText(xml));
+                                } else if ("ecNumber".equals(field)) {
+                                    entry.addECNumber(readText(xml));
+                                } else {
+                                    skip(xml);
+                                }
+                            }
+                        } else {
+                            readECNumbers(xml, entry);
+                        }
+                    }
+                } else {
+                    readECNumbers(xml, entry);
+                }
+            }
+        }
+
+        // EC numbers are loaded wherever they are in the <protein> section
+        private void readECNumbers(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                if ("ecNumber".equals(xml.getLocalName())) {
+                    entry.addECNumber(readText(xml));
+                } else {
+                    readECNumbers(xml, entry);
+                }
+            }
+        }
+
+        private void readGene(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                String type = getAttrValue(xml, "type");
+                if ("name".equals(xml.getLocalName()) && type != null) {
+                    entry.addGeneName(type, readText(xml));
+                } else {
+                    skip(xml);
+                }
+            }
+        }
+
+        private void readOrganism(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                if ("dbReference".equals(xml.getLocalName())) {
+                    entry.setTaxonId(handler.parseTaxonId(getAttrValue(xml, "id")));
+                }
+                skip(xml);
+            }
+        }
+
+        private void readReference(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException, SAXException {
+            while (nextChild(xml)) {
+                if (!"citation".equals(xml.getLocalName())) {
+                    skip(xml);
+                    continue;
+                }
+                while (nextChild(xml)) {
+                    if ("dbReference".equals(xml.getLocalName())
+                            && "PubMed".equals(getAttrValue(xml, "type"))) {
+                        entry.addPub(getPub(getAttrValue(xml, "id")));
+                    }
+                    skip(xml);
+                }
+            }
+        }
+
+        private void readComment(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException, SAXException {
+            String type = getAttrValue(xml, "type");
+            if (StringUtils.isNotEmpty(type)) {
+                entry.setCommentType(type);
+            } else {
+                entry.reset();
+            }
+            DiseaseHolder disease = null;
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                if ("text".equals(qName)) {
+                    String commentEvidence = getAttrValue(xml, "evidence");
+                    if (StringUtils.isNotEmpty(commentEvidence)) {
+                        entry.setCommentEvidence(commentEvidence);
+                    }
+                    handler.storeComment(entry, readText(xml), disease);
+                } else if ("disease".equals(qName)) {
+                    disease = readDisease(xml);
+                } else if ("isoform".equals(qName)) {
+                    entry.reset();
+                    readIsoform(xml, entry);
+                } else {
+                    skip(xml);
+                }
+            }
+        }
+
+        private DiseaseHolder readDisease(XMLStreamReader xml) throws XMLStreamException {
+            DiseaseHolder disease = new DiseaseHolder();
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                if ("name".equals(qName) || "acronym".equals(qName)
+                        || "description".equals(qName)) {
+                    disease.setDisease(qName, readText(xml));
+                } else if ("dbReference".equals(qName)) {
+                    // <dbReference type="MIM" id="601665"/>
+                    disease.setIdentifier(getAttrValue(xml, "type") + ":"
+                            + getAttrValue(xml, "id"));
+                    skip(xml);
+                } else {
+                    skip(xml);
+                }
+            }
+            return disease;
+        }
+
+        private void readIsoform(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                if ("id".equals(qName)) {
+                    handler.addIsoformId(entry, readText(xml));
+                } else if ("name".equals(qName)) {
+                    String name = readText(xml);
+                    if (!name.matches("[0-9]+")) {
+                        entry.addIsoformSynonym(name);
+                    }
+                } else if ("sequence".equals(qName)) {
+                    String sequenceType = getAttrValue(xml, "type");
+                    // ignore "external" types
+                    if ("displayed".equals(sequenceType)) {
+                        entry.addCanonicalIsoform(entry.getAttribute());
+                    } else if ("described".equals(sequenceType)) {
+                        entry.addIsoform(entry.getAttribute());
+                    }
+                    skip(xml);
+                } else {
+                    skip(xml);
+                }
+            }
+        }
+
+        private void readDbref(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            String type = getAttrValue(xml, "type");
+            // GO terms are matched ignoring case, see processGoAnnotation()
+            if (dbrefTypes != null && !dbrefTypes.contains(type)
+                    && !(creatego && "GO".equalsIgnoreCase(type))) {
+                skip(xml);
+                return;
+            }
+            entry.addDbref(type, getAttrValue(xml, "id"));
+            String geneDesignation = CONFIG.getGeneDesignation(entry.getTaxonId());
+            while (nextChild(xml)) {
+                if ("property".equals(xml.getLocalName())) {
+                    String propertyType = getAttrValue(xml, "type");
+                    if (propertyType != null && propertyType.equals(geneDesignation)) {
+                        entry.addGeneDesignation(getAttrValue(xml, "value"));
+                    } else if ("evidence".equals(propertyType)) {
+                        entry.addGOEvidence(entry.getDbref(), getAttrValue(xml, "value"));
+                    }
+                }
+                skip(xml);
+            }
+        }
+
+        private void readFeature(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException, SAXException {
+            String type = getAttrValue(xml, "type");
+            if (type == null) {
+                skip(xml);
+                return;
+            }
+            // like the SAX handler every feature gets a keyword, processFeatures() then only
+            // stores the features of the configured types
+            entry.addFeature(getFeature(type, getAttrValue(xml, "description"),
+                    getAttrValue(xml, "status")));
+            readFeatureLocation(xml, entry);
+        }
+
+        private void readFeatureLocation(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            while (nextChild(xml)) {
+                String qName = xml.getLocalName();
+                String position = getAttrValue(xml, "position");
+                if (("begin".equals(qName) || "end".equals(qName)) && position != null) {
+                    entry.addFeatureLocation(qName, position);
+                    skip(xml);
+                } else if ("position".equals(qName) && position != null) {
+                    entry.addFeatureLocation("begin", position);
+                    entry.addFeatureLocation("end", position);
+                    skip(xml);
+                } else {
+                    readFeatureLocation(xml, entry);
+                }
+            }
+        }
+
+        private void readSequence(XMLStreamReader xml, UniprotEntry entry)
+            throws XMLStreamException {
+            String strLength = getAttrValue(xml, "length");
+            String strMass = getAttrValue(xml, "mass");
+            if (strLength != null) {
+                entry.setLength(strLength);
+            }
+            if (strMass != null) {
+                entry.setMolecularWeight(strMass);
+            }
+            entry.setFragment(getAttrValue(xml, "fragment") != null);
+            text.setLength(0);
+            while (xml.next() != XMLStreamConstants.END_ELEMENT) {
+                if (xml.isCharacters() && strLength != null) {
+                    // residues are split over several lines
+                    char[] chars = xml.getTextCharacters();
+                    int end = xml.getTextStart() + xml.getTextLength();
+                    for (int i = xml.getTextStart(); i < end; i++) {
+                        if (!Character.isWhitespace(chars[i])) {
+                            text.append(chars[i]);
+                        }
+                    }
+                }
+            }
+            entry.setSequence(text.toString());
+        }
+
+        // move to the next child element, false if the end of the current element was reached
+        private boolean nextChild(XMLStreamReader xml) throws XMLStreamException {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        // skip to the end of the current element, ignoring everything inside it
+        private void skip(XMLStreamReader xml) throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        // text content of the current element, ignoring any child elements
+        private String readText(XMLStreamReader xml) throws XMLStreamException {
+            text.setLength(0);
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (depth == 1 && xml.isCharacters()) {
+                    text.append(xml.getTextCharacters(), xml.getTextStart(),
+                            xml.getTextLength());
+                }
+            }
+            return text.toString().trim();
+        }
+    }
+
+    private void addSeenSequence(TaxonState taxonState, String taxonId, String md5checksum,
+            String proteinIdentifier) {
+        synchronized (taxonState) {
+            Md5Index orgSequences = taxonState.sequences.get(taxonId);
+            if (orgSequences == null) {
+                orgSequences = new Md5Index();
+                taxonState.sequences.put(taxonId, orgSequences);
+            }
+            orgSequences.putIfAbsent(md5checksum, proteinIdentifier);
+        }
+    }
+
+    private boolean seenSequence(TaxonState taxonState, String taxonId, String md5checksum) {
+        synchronized (taxonState) {
+            Md5Index orgSequences = taxonState.sequences.get(taxonId);
+            return orgSequences != null && orgSequences.containsKey(md5checksum);
+        }
+    }
+
+    // identifier of the protein already stored with this sequence
+    private String getSeenSequence(TaxonState taxonState, String taxonId, String md5checksum) {
+        synchronized (taxonState) {
+            Md5Index orgSequences = taxonState.sequences.get(taxonId);
+            if (orgSequences == null) {
                 return null;
             }
-            return rslv.resolveId(taxId, identifier).iterator().next();
+            return orgSequences.get(md5checksum);
         }
     }
 
-    private void addSeenSequence(String taxonId, String md5checksum, String proteinIdentifier) {
-        Map<String, String> orgSequences = sequences.get(taxonId);
-        if (orgSequences == null) {
-            orgSequences = new HashMap<String, String>();
-            sequences.put(taxonId, orgSequences);
+    // Store an item made by one of the getters below.  Other threads may already reference
+    // it, which is fine as references are only resolved once everything is stored
+    private void storeShared(Item item) throws SAXException {
+        try {
+            store(item);
+        } catch (ObjectStoreException e) {
+            throw new SAXException(e);
         }
-        if (!orgSequences.containsKey(md5checksum)) {
-            orgSequences.put(md5checksum, proteinIdentifier);
+    }
+
+    private String getSequenceIdentfier(String md5Checksum, String residues,
+            String length) {
+        Item item;
+        synchronized (allSequences) {
+            String refId = allSequences.get(md5Checksum);
+            if (refId != null) {
+                return refId;
+            }
+            item = createItem("Sequence");
+            item.setAttribute("residues", residues);
+            item.setAttribute("length", length);
+            item.setAttribute("md5checksum", md5Checksum);
+            allSequences.putIfAbsent(md5Checksum, item.getIdentifier());
+        }
+        try {
+            store(item);
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException(e);
         }
+        return item.getIdentifier();
     }
 
-    private boolean seenSequence(String taxonId, String md5checksum) {
-        Map<String, String> orgSequences = sequences.get(taxonId);
-        if (orgSequences == null) {
-            orgSequences = new HashMap<String, String>();
-            sequences.put(taxonId, orgSequences);
+    private String getECNumber(String identifier) throws SAXException {
+        Item item;
+        synchronized (ecNumbers) {
+            String refId = ecNumbers.get(identifier);
+            if (refId != null) {
+                return refId;
+            }
+            item = createItem("ECNumber");
+            item.setAttribute("identifier", identifier);
+            ecNumbers.put(identifier, item.getIdentifier());
+        }
+        storeShared(item);
+        return item.getIdentifier();
+    }
+
+    // getOrganism() and getDataSet() store their items themselves, but only once per taxon and
+    // data set, so holding these locks while they do is cheap
+    private String getOrganismRefId(String taxonId) {
+        synchronized (organismLock) {
+            return getOrganism(taxonId);
+        }
+    }
+
+    private String getDataSetRefId(String dataSetTitle) {
+        synchronized (dataSetLock) {
+            return getDataSet(dataSetTitle, datasourceRefId);
         }
-        return orgSequences.containsKey(md5checksum);
     }
 
     private String getKeyword(String title)
         throws SAXException {
-        String refId = keywords.get(title);
-        if (refId == null) {
-            Item item = createItem("OntologyTerm");
+        Item item;
+        synchronized (keywords) {
+            String refId = keywords.get(title);
+            if (refId != null) {
+                return refId;
+            }
+            item = createItem("OntologyTerm");
             item.setAttribute("name", title);
             item.setReference("ontology", ontologies.get("UniProtKeyword"));
-            refId = item.getIdentifier();
-            keywords.put(title, refId);
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new SAXException(e);
-            }
+            keywords.put(title, item.getIdentifier());
         }
-        return refId;
+        storeShared(item);
+        return item.getIdentifier();
     }
 
     // putting publications in map for later use
@@ -1261,21 +2186,18 @@ public class UniprotConverter extends BioDirectoryConverter
 
     private String getPub(String pubMedId)
         throws SAXException {
-        String refId = pubs.get(pubMedId);
-
-        if (refId == null) {
-            Item item = createItem("Publication");
+        Item item;
+        synchronized (pubs) {
+            String refId = pubs.get(pubMedId);
+            if (refId != null) {
+                return refId;
+            }
+            item = createItem("Publication");
             item.setAttribute("pubMedId", pubMedId);
             pubs.put(pubMedId, item.getIdentifier());
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new SAXException(e);
-            }
-            refId = item.getIdentifier();
         }
-
-        return refId;
+        storeShared(item);
+        return item.getIdentifier();
     }
 
     // value is NAS:FlyBase
@@ -1288,37 +2210,34 @@ public class UniprotConverter extends BioDirectoryConverter
         } else {
             code = bits[0];
         }
-        String refId = goEvidenceCodes.get(code);
-        if (refId == null) {
-            Item item = createItem("GOEvidenceCode");
-            item.setAttribute("code", code);
-            refId = item.getIdentifier();
-            goEvidenceCodes.put(code, refId);
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new SAXException(e);
+        Item item;
+        synchronized (goEvidenceCodes) {
+            String refId = goEvidenceCodes.get(code);
+            if (refId != null) {
+                return refId;
             }
-
+            item = createItem("GOEvidenceCode");
+            item.setAttribute("code", code);
+            goEvidenceCodes.put(code, item.getIdentifier());
         }
-        return refId;
+        storeShared(item);
+        return item.getIdentifier();
     }
 
     private String getGoTerm(String identifier)
         throws SAXException {
-        String refId = goterms.get(identifier);
-        if (refId == null) {
-            Item item = createItem("GOTerm");
-            item.setAttribute("identifier", identifier);
-            refId = item.getIdentifier();
-            goterms.put(identifier, refId);
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new SAXException(e);
+        Item item;
+        synchronized (goterms) {
+            String refId = goterms.get(identifier);
+            if (refId != null) {
+                return refId;
             }
+            item = createItem("GOTerm");
+            item.setAttribute("identifier", identifier);
+            goterms.put(identifier, item.getIdentifier());
         }
-        return refId;
+        storeShared(item);
+        return item.getIdentifier();
     }
 
     private String setOntology(String title)
@@ -1371,6 +2290,20 @@ public class UniprotConverter extends BioDirectoryConverter
         return null;
     }
 
+    /**
+     * Get a value from StAX attributes and trim() the returned string.
+     * @param xml reader positioned on a start element
+     * @param name the attribute to fetch
+     * @return attValue
+     */
+    private static String getAttrValue(XMLStreamReader xml, String name) {
+        String value = xml.getAttributeValue(null, name);
+        if (value != null) {
+            return value.trim();
+        }
+        return null;
+    }
+
     private void checkUniqueIdentifier(UniprotEntry entry, String identifier) {
         if (StringUtils.isNotEmpty(identifier)) {
             if (!isUniqueIdentifier(identifier)) {
@@ -1380,14 +2313,16 @@ public class UniprotConverter extends BioDirectoryConverter
     }
 
     private boolean isUniqueIdentifier(String identifier) {
-        if (identifiers == null) {
-            identifiers = new HashSet<String>();
-        } else if (identifiers.contains(identifier)) {
-            LOG.error("not assigning duplicate identifier:  " + identifier);
-            return false;
+        synchronized (identifierLock) {
+            if (identifiers == null) {
+                identifiers = new HashSet<String>();
+            } else if (identifiers.contains(identifier)) {
+                LOG.error("not assigning duplicate identifier:  " + identifier);
+                return false;
+            }
+            identifiers.add(identifier);
+            return true;
         }
-        identifiers.add(identifier);
-        return true;
     }
 
     /**
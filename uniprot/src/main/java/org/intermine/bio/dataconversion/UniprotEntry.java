@@ -942,6 +942,7 @@ public class UniprotEntry
         entry.setGeneNames(geneNames);
         entry.setGeneDesignations(geneDesignationToDbref);
         entry.setGOTerms(collections.get("goTerms"));
+        entry.goTermToEvidenceCode = goTermToEvidenceCode;
         return entry;
     }
 }
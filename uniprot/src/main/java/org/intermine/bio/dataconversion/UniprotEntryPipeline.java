@@ -0,0 +1,248 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded producer/consumer pipeline for UniProt entries.  The thread reading the XML puts
+ * each entry on a queue, a pool of converter threads turns entries into items, and the
+ * converted entries are handed in batches to a single writer thread.
+ *
+ * Queue depths and the number of entries through each stage are logged regularly, so it is
+ * possible to see which stage is the bottleneck.
+ *
+ * @param <S> a parsed entry
+ * @param <T> a converted entry, ie. the items to store for one entry
+ */
+public class UniprotEntryPipeline<S, T>
+{
+    private static final Logger LOG = Logger.getLogger(UniprotEntryPipeline.class);
+    private static final int LOG_INTERVAL = 10000;
+    // marks the end of the input for a converter thread
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> entries;
+    private final Semaphore pendingBatches;
+    private final ThreadPoolExecutor writer;
+    private final EntryConverter<S, T> converter;
+    private final BatchWriter<T> batchWriter;
+    private final int batchSize;
+    private final List<Thread> converterThreads = new ArrayList<Thread>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong parseWaitMillis = new AtomicLong();
+    private final AtomicLong convertMillis = new AtomicLong();
+    private final AtomicLong writeMillis = new AtomicLong();
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * Converts a single entry.  Called concurrently by the converter threads.
+     * @param <S> a parsed entry
+     * @param <T> a converted entry
+     */
+    public interface EntryConverter<S, T>
+    {
+        /**
+         * @param entry the parsed entry
+         * @return converted entry or null if there is nothing to store
+         * @throws Exception if the entry can't be converted
+         */
+        T convert(S entry) throws Exception;
+    }
+
+    /**
+     * Stores converted entries.  Only ever called on the writer thread.
+     * @param <T> a converted entry
+     */
+    public interface BatchWriter<T>
+    {
+        /**
+         * @param batch converted entries to store
+         * @throws Exception if the items can't be stored
+         */
+        void write(List<T> batch) throws Exception;
+    }
+
+    /**
+     * Start the converter threads.
+     *
+     * @param converterCount number of converter threads
+     * @param queueSize maximum number of parsed entries and of batches waiting to be written
+     * @param batchSize number of converted entries written at once
+     * @param writer single threaded executor that does all the storing
+     * @param converter turns entries into items
+     * @param batchWriter stores items, run on the writer thread
+     */
+    public UniprotEntryPipeline(int converterCount, int queueSize, int batchSize,
+            ThreadPoolExecutor writer, EntryConverter<S, T> converter,
+            BatchWriter<T> batchWriter) {
+        this.entries = new ArrayBlockingQueue<Object>(queueSize);
+        this.pendingBatches = new Semaphore(queueSize);
+        this.writer = writer;
+        this.converter = converter;
+        this.batchWriter = batchWriter;
+        this.batchSize = batchSize;
+        for (int i = 0; i < converterCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    convertEntries();
+                }
+            }, "uniprot-converter-" + i);
+            thread.setDaemon(true);
+            converterThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a parsed entry, waits if the converter threads are behind.
+     * @param entry parsed entry
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(S entry) throws InterruptedException {
+        checkFailure();
+        long waitStart = System.currentTimeMillis();
+        while (!entries.offer(entry, 1, TimeUnit.SECONDS)) {
+            checkFailure();
+        }
+        parseWaitMillis.addAndGet(System.currentTimeMillis() - waitStart);
+        if (parsed.incrementAndGet() % LOG_INTERVAL == 0) {
+            LOG.info(getStatus());
+        }
+    }
+
+    /**
+     * Wait for all queued entries to be converted and written.
+     * @throws Exception if any entry failed to be converted or written
+     */
+    public void finish() throws Exception {
+        // the converter threads take entries until they see END, even after a failure, so
+        // there is always room for it in the end
+        for (int i = 0; i < converterThreads.size(); i++) {
+            entries.put(END);
+        }
+        for (Thread thread : converterThreads) {
+            thread.join();
+        }
+        // all batches have been submitted, wait for the writer to store them
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        }).get();
+        checkFailure();
+        LOG.info("Finished. " + getStatus());
+    }
+
+    /**
+     * @return queue depths and throughput of each stage
+     */
+    public String getStatus() {
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        return String.format("parsed: %d (%.0f/s, %d ms waiting for converters),"
+                + " converted: %d (%.0f/s, %d ms in converters), written: %d (%.0f/s,"
+                + " %d ms writing), entry queue: %d, batches waiting to be written: %d",
+                parsed.get(), parsed.get() / seconds, parseWaitMillis.get(),
+                converted.get(), converted.get() / seconds, convertMillis.get(),
+                written.get(), written.get() / seconds, writeMillis.get(),
+                entries.size(), writer.getQueue().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void convertEntries() {
+        List<T> batch = new ArrayList<T>(batchSize);
+        try {
+            while (true) {
+                Object entry = entries.take();
+                if (entry == END) {
+                    break;
+                }
+                if (failure.get() != null) {
+                    // keep draining so the parser isn't blocked, the failure is reported there
+                    continue;
+                }
+                long convertStart = System.currentTimeMillis();
+                T result = converter.convert((S) entry);
+                convertMillis.addAndGet(System.currentTimeMillis() - convertStart);
+                converted.incrementAndGet();
+                if (result != null) {
+                    batch.add(result);
+                }
+                if (batch.size() >= batchSize) {
+                    submit(batch);
+                    batch = new ArrayList<T>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            // keep taking entries so the parser isn't blocked, but only up to this thread's END
+            // so that finish() still has one for each of the other threads
+            drain();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (entries.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(final List<T> batch) throws InterruptedException {
+        pendingBatches.acquire();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                long writeStart = System.currentTimeMillis();
+                try {
+                    if (failure.get() == null) {
+                        batchWriter.write(batch);
+                        written.addAndGet(batch.size());
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writeMillis.addAndGet(System.currentTimeMillis() - writeStart);
+                    pendingBatches.release();
+                }
+            }
+        });
+    }
+
+    private void checkFailure() {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new RuntimeException("Failed to process UniProt entries", t);
+        }
+    }
+}
@@ -20,7 +20,6 @@ import java.util.HashSet;
 import java.util.StringTokenizer;
 import java.util.Iterator;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -37,6 +36,8 @@ public class UniprotFilterTask extends Task
     protected FileSet fileSet;
     protected File tgtDir;
     protected Set organisms = new HashSet();
+    protected int threads = 1;
+    protected boolean splitByTaxon = false;
 
     /**
      * Set the source fileset.
@@ -65,6 +66,26 @@ public class UniprotFilterTask extends Task
         }
     }
 
+    /**
+     * Number of threads to filter each file with, default is 1.
+     * @param threads number of threads
+     */
+    public void setThreads(String threads) {
+        try {
+            this.threads = Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new BuildException("threads must be a number: " + threads);
+        }
+    }
+
+    /**
+     * If true write a file per organism, named like 7227_uniprot_sprot.xml, instead of one
+     * filtered file per input file.  The input is only read once.  Default is false.
+     * @param splitByTaxon "true" to split the output by organism
+     */
+    public void setSplitbytaxon(String splitByTaxon) {
+        this.splitByTaxon = Boolean.parseBoolean(splitByTaxon.trim());
+    }
 
     /**
      * {@inheritDoc}
@@ -101,13 +122,22 @@ public class UniprotFilterTask extends Task
                 File toRead = new File(ds.getBasedir(), files[i]);
                 System.err .println("Processing file " + toRead.toString());
 
-                String outName = toRead.getName().substring(0, toRead.getName().indexOf('.'))
-                    + "_filtered.xml";
-                File out = new File(tgtDir, outName);
-                BufferedWriter writer = new BufferedWriter(new FileWriter(out));
-                filter.filter(new BufferedReader(new FileReader(toRead)), writer);
-                writer.flush();
-                writer.close();
+                String baseName = toRead.getName().substring(0, toRead.getName().indexOf('.'));
+                if (splitByTaxon) {
+                    BufferedReader reader =
+                        new BufferedReader(CompressedInput.openReader(toRead));
+                    Set<String> taxonIds = filter.split(reader, tgtDir, baseName + ".xml");
+                    reader.close();
+                    System.err .println("Wrote files for " + taxonIds.size() + " organisms");
+                } else if (threads > 1) {
+                    filter.filter(toRead, new File(tgtDir, baseName + "_filtered.xml"), threads);
+                } else {
+                    File out = new File(tgtDir, baseName + "_filtered.xml");
+                    BufferedWriter writer = new BufferedWriter(new FileWriter(out));
+                    filter.filter(new BufferedReader(CompressedInput.openReader(toRead)), writer);
+                    writer.flush();
+                    writer.close();
+                }
 
             }
         } catch (Exception e) {
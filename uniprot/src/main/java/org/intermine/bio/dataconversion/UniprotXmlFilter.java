@@ -11,10 +11,32 @@ package org.intermine.bio.dataconversion;
  */
 import org.intermine.metadata.StringUtil;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Extract only entries for organisms of interest from UniProt XML dump files.  A
@@ -25,6 +47,18 @@ import java.io.IOException;
  */
 public class UniprotXmlFilter
 {
+    // size of the blocks read from the input, each block is filtered by one thread
+    private static final int BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final byte[] ENTRY = ascii("<entry");
+    private static final byte[] ORGANISM = ascii("<organism");
+    private static final byte[] ORGANISM_END = ascii("</organism");
+    private static final byte[] TAXON = ascii("<dbReference type=\"NCBI Taxonomy");
+    private static final byte[] ID = ascii("id=\"");
+    private static final byte[] FOOTER = ascii("</uniprot>");
+    private static final byte[] LINE_SEPARATOR = ascii(System.getProperty("line.separator"));
+    // maximum number of per-taxon files kept open when splitting
+    private static final int MAX_OPEN_FILES = 256;
+
     private Set organisms;
 
     /**
@@ -90,4 +124,393 @@ public class UniprotXmlFilter
         out.flush();
     }
 
+    /**
+     * Split a UniProt XML dump file by organism in one pass.  Each entry for an organism of
+     * interest is written to tgtDir/[TAXONID]_[fileName], eg. 7227_uniprot_sprot.xml, the
+     * file names UniprotConverter expects.  Every file gets the header and footer of the
+     * input.  If no organisms were given there is a file for every organism in the input.
+     * As with filter(), entries for more than one organism are ignored.
+     *
+     * @param in the UniProt XML dump
+     * @param tgtDir directory to write the files to
+     * @param fileName name of the files after the taxon id, eg. uniprot_sprot.xml
+     * @return taxon ids of the files written
+     * @throws IOException if problem with input or output
+     */
+    public Set<String> split(BufferedReader in, File tgtDir, String fileName)
+        throws IOException {
+        String lineSeparator = System.getProperty("line.separator");
+        StringBuilder header = new StringBuilder();
+        StringBuilder entry = new StringBuilder();
+        // anything after the last entry, ie. the copyright and closing uniprot element
+        StringBuilder footer = new StringBuilder();
+        boolean inEntry = false;
+        boolean seenEntry = false;
+        int organismCount = 0;
+        String taxonId = null;
+        // header is complete by the time the first file is created
+        TaxonWriters writers = new TaxonWriters(tgtDir, fileName, header);
+        String line = null;
+        try {
+            while ((line = in.readLine()) != null) {
+                String trimmed = StringUtil.trimLeft(line);
+                if (trimmed.startsWith("<entry")) {
+                    if (inEntry) {
+                        // previous entry wasn't closed
+                        writeEntry(writers, entry, organismCount == 1 ? taxonId : null);
+                    }
+                    entry.setLength(0);
+                    footer.setLength(0);
+                    inEntry = true;
+                    seenEntry = true;
+                    organismCount = 0;
+                    taxonId = null;
+                }
+                StringBuilder sb = inEntry ? entry : (seenEntry ? footer : header);
+                sb.append(StringUtil.escapeBackslash(line)).append(lineSeparator);
+                if (!inEntry) {
+                    continue;
+                }
+                if (trimmed.startsWith("<organism>") || trimmed.startsWith("<organism ")) {
+                    organismCount++;
+                    taxonId = null;
+                } else if (trimmed.startsWith("<dbReference type=\"NCBI Taxonomy")
+                        && organismCount > 0 && taxonId == null) {
+                    int start = trimmed.indexOf("id=\"") + 4;
+                    taxonId = trimmed.substring(start, trimmed.indexOf('"', start));
+                } else if (trimmed.startsWith("</entry")) {
+                    writeEntry(writers, entry, organismCount == 1 ? taxonId : null);
+                    inEntry = false;
+                }
+            }
+            if (inEntry) {
+                writeEntry(writers, entry, organismCount == 1 ? taxonId : null);
+            }
+            if (footer.length() == 0) {
+                footer.append("</uniprot>").append(lineSeparator);
+            }
+            writers.finish(footer.toString());
+            return writers.taxonIds;
+        } finally {
+            writers.close();
+        }
+    }
+
+    // taxonId is null if the entry doesn't have exactly one organism with a taxon id
+    private void writeEntry(TaxonWriters writers, StringBuilder entry, String taxonId)
+        throws IOException {
+        if (taxonId == null || (!organisms.isEmpty() && !organisms.contains(taxonId))) {
+            return;
+        }
+        writers.getWriter(taxonId).append(entry);
+    }
+
+    /**
+     * The per-taxon files being written by split().  Only the most recently used files are
+     * kept open, the others are reopened for appending if needed.
+     */
+    private static class TaxonWriters
+    {
+        private final File tgtDir;
+        private final String fileName;
+        private final CharSequence header;
+        private final Set<String> taxonIds = new HashSet<String>();
+        private final Map<String, BufferedWriter> open =
+            new LinkedHashMap<String, BufferedWriter>(16, 0.75f, true);
+
+        TaxonWriters(File tgtDir, String fileName, CharSequence header) {
+            this.tgtDir = tgtDir;
+            this.fileName = fileName;
+            this.header = header;
+        }
+
+        BufferedWriter getWriter(String taxonId) throws IOException {
+            BufferedWriter writer = open.get(taxonId);
+            if (writer != null) {
+                return writer;
+            }
+            if (open.size() >= MAX_OPEN_FILES) {
+                Iterator<BufferedWriter> eldest = open.values().iterator();
+                eldest.next().close();
+                eldest.remove();
+            }
+            boolean created = taxonIds.add(taxonId);
+            writer = new BufferedWriter(new FileWriter(getFile(taxonId), !created));
+            if (created) {
+                writer.append(header);
+            }
+            open.put(taxonId, writer);
+            return writer;
+        }
+
+        File getFile(String taxonId) {
+            return new File(tgtDir, taxonId + "_" + fileName);
+        }
+
+        void finish(String footer) throws IOException {
+            for (String taxonId : taxonIds) {
+                getWriter(taxonId).write(footer);
+            }
+        }
+
+        void close() throws IOException {
+            IOException failure = null;
+            for (BufferedWriter writer : open.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            open.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Filter a UniProt XML dump file using several threads.  The file is read in large blocks
+     * that are split at the start of an entry, the blocks are filtered in parallel and the
+     * entries kept are written in the original order.  Output is the same as
+     * filter(BufferedReader, BufferedWriter).
+     *
+     * @param in the UniProt XML dump, may be compressed
+     * @param out file to write output to
+     * @param threads number of threads filtering blocks
+     * @throws IOException if problem with input or output
+     */
+    public void filter(File in, File out, int threads) throws IOException {
+        filter(in, out, threads, BLOCK_SIZE);
+    }
+
+    /**
+     * Filter a file, splitting it into blocks of about blockSize bytes.
+     */
+    void filter(File in, File out, int threads, int blockSize) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        // blocks being filtered, in file order
+        Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        ReadableByteChannel channel;
+        if (CompressedInput.isCompressed(in)) {
+            channel = Channels.newChannel(CompressedInput.open(in));
+        } else {
+            channel = new FileInputStream(in).getChannel();
+        }
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+        try {
+            byte[] buf = new byte[blockSize];
+            int len = 0;
+            while (true) {
+                if (len == buf.length) {
+                    // one entry is bigger than the block
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int read = channel.read(ByteBuffer.wrap(buf, len, buf.length - len));
+                if (read < 0) {
+                    pending.add(executor.submit(new BlockFilter(buf, len, true)));
+                    break;
+                }
+                len += read;
+                if (len < buf.length) {
+                    continue;
+                }
+                int boundary = lastEntryStart(buf, len);
+                if (boundary <= 0) {
+                    continue;
+                }
+                pending.add(executor.submit(new BlockFilter(buf, boundary, false)));
+                byte[] next = new byte[Math.max(blockSize, (len - boundary) * 2)];
+                System.arraycopy(buf, boundary, next, 0, len - boundary);
+                buf = next;
+                len = len - boundary;
+                // don't read too far ahead of the writer
+                while (pending.size() > threads * 2) {
+                    os.write(getResult(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                os.write(getResult(pending.poll()));
+            }
+            os.flush();
+        } finally {
+            executor.shutdownNow();
+            channel.close();
+            os.close();
+        }
+    }
+
+    private static byte[] getResult(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // start of the last line in buf that begins an entry, or -1
+    private static int lastEntryStart(byte[] buf, int len) {
+        for (int i = len - 1; i > 0; i--) {
+            byte b = buf[i - 1];
+            if (b == '\n' || b == '\r') {
+                int trimmed = skipWhitespace(buf, i, len);
+                if (trimmed + ENTRY.length <= len && startsWith(buf, trimmed, len, ENTRY)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Filters one block of the file.  Blocks start at an entry, or at the start of the file,
+     * so each can be filtered without knowing about the others.
+     */
+    private class BlockFilter implements Callable<byte[]>
+    {
+        private final byte[] buf;
+        private final int len;
+        private final boolean last;
+        private byte[] result;
+        private int resultLen = 0;
+
+        BlockFilter(byte[] buf, int len, boolean last) {
+            this.buf = buf;
+            this.len = len;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            result = new byte[Math.max(1024, len / 16)];
+            boolean keep = true;
+            boolean inOrganism = false;
+            boolean foundTaxon = false;
+            // where the current entry starts in the result, dropped entries are cut off here
+            int entryStart = 0;
+            int lineStart = 0;
+            while (lineStart < len) {
+                int lineEnd = lineStart;
+                while (lineEnd < len && buf[lineEnd] != '\n' && buf[lineEnd] != '\r') {
+                    lineEnd++;
+                }
+                // same line separators as BufferedReader.readLine()
+                int next = lineEnd;
+                if (next < len) {
+                    if (buf[next] == '\r' && next + 1 < len && buf[next + 1] == '\n') {
+                        next += 2;
+                    } else {
+                        next++;
+                    }
+                }
+
+                int trimmed = skipWhitespace(buf, lineStart, lineEnd);
+                boolean drop = false;
+                if (startsWith(buf, trimmed, lineEnd, ENTRY)) {
+                    keep = true;
+                    inOrganism = false;
+                    foundTaxon = false;
+                    entryStart = resultLen;
+                } else if (startsWith(buf, trimmed, lineEnd, ORGANISM)) {
+                    inOrganism = true;
+                    foundTaxon = false;
+                } else if (inOrganism && startsWith(buf, trimmed, lineEnd, TAXON)) {
+                    // ignores the possibility of a protein being linked to multiple organisms
+                    foundTaxon = true;
+                    if (!organisms.contains(getTaxonId(trimmed, lineEnd))) {
+                        drop = true;
+                    }
+                } else if (inOrganism && !foundTaxon
+                        && startsWith(buf, trimmed, lineEnd, ORGANISM_END)) {
+                    // if the organism has no taxon defined then we don't want it
+                    drop = true;
+                }
+                if (drop && keep) {
+                    keep = false;
+                    resultLen = entryStart;
+                }
+                if (keep) {
+                    append(lineStart, lineEnd);
+                }
+                lineStart = next;
+            }
+            if (last && !keep) {
+                appendBytes(FOOTER);
+            }
+            return Arrays.copyOf(result, resultLen);
+        }
+
+        private String getTaxonId(int from, int to) {
+            int start = indexOf(buf, from, to, ID);
+            if (start < 0) {
+                return "";
+            }
+            start += ID.length;
+            int end = start;
+            while (end < to && buf[end] != '"') {
+                end++;
+            }
+            return new String(buf, start, end - start);
+        }
+
+        // copy a line, backslashes become forward slashes as in StringUtil.escapeBackslash()
+        private void append(int from, int to) {
+            ensureCapacity(to - from + LINE_SEPARATOR.length);
+            for (int i = from; i < to; i++) {
+                byte b = buf[i];
+                result[resultLen++] = (b == '\\') ? (byte) '/' : b;
+            }
+            appendBytes(LINE_SEPARATOR);
+        }
+
+        private void appendBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, result, resultLen, bytes.length);
+            resultLen += bytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (resultLen + extra > result.length) {
+                result = Arrays.copyOf(result, Math.max(result.length * 2, resultLen + extra));
+            }
+        }
+    }
+
+    // first character that isn't whitespace on this line, as in StringUtil.trimLeft()
+    private static int skipWhitespace(byte[] buf, int from, int to) {
+        int i = from;
+        while (i < to && buf[i] >= 0 && buf[i] != '\n' && buf[i] != '\r'
+                && Character.isWhitespace((char) buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(byte[] buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte[] target) {
+        for (int i = from; i + target.length <= to; i++) {
+            if (startsWith(buf, i, to, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 }
@@ -0,0 +1,194 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.bio.Gene;
+import org.intermine.model.bio.Protein;
+import org.intermine.model.bio.Publication;
+import org.intermine.model.bio.Transcript;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for the CollectionPropagator class, as used by UniprotPostProcess for the
+ * publications of proteins and by BarTairGffPostProcess for those of transcripts.
+ */
+public class CollectionPropagatorTest extends TestCase
+{
+    private ObjectStoreWriter osw;
+    private List<InterMineObject> toStore = new ArrayList<InterMineObject>();
+
+    public void setUp() throws Exception {
+        super.setUp();
+        osw = ObjectStoreWriterFactory.getObjectStoreWriter("osw.bio-test");
+        osw.getObjectStore().flushObjectById();
+        deleteAll();
+        setUpData();
+    }
+
+    public void tearDown() throws Exception {
+        if (osw.isInTransaction()) {
+            osw.abortTransaction();
+        }
+        deleteAll();
+        osw.close();
+    }
+
+    public void testPropagateProteinPublications() throws Exception {
+        CollectionPropagator propagator = new CollectionPropagator(osw);
+        // GENE1 already has 1, so only 2 and 3 are new, and 1 for GENE2
+        assertEquals(3, propagator.propagate(Gene.class, "proteins", "publications"));
+
+        Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+        expected.put("GENE1", Arrays.asList("1", "2", "3", "4"));
+        expected.put("GENE2", Arrays.asList("1"));
+        expected.put("GENE3", Arrays.asList("4"));
+        expected.put("GENE4", Arrays.asList("3"));
+        assertEquals(expected, getGenePublications());
+
+        // everything is there now
+        assertEquals(0, propagator.propagate(Gene.class, "proteins", "publications"));
+        assertEquals(expected, getGenePublications());
+    }
+
+    public void testPropagateTranscriptPublications() throws Exception {
+        CollectionPropagator propagator = new CollectionPropagator(osw);
+        assertEquals(1, propagator.propagate(Gene.class, "transcripts", "publications"));
+
+        Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+        expected.put("GENE1", Arrays.asList("1", "4"));
+        expected.put("GENE2", Collections.<String>emptyList());
+        expected.put("GENE3", Arrays.asList("4"));
+        expected.put("GENE4", Arrays.asList("2", "3"));
+        assertEquals(expected, getGenePublications());
+    }
+
+    public void testNotManyToMany() throws Exception {
+        // Gene.transcripts is one to many
+        assertEquals(0, new CollectionPropagator(osw).propagate(Gene.class, "proteins",
+                    "transcripts"));
+    }
+
+    private void setUpData() throws Exception {
+        Publication pub1 = createPublication("1");
+        Publication pub2 = createPublication("2");
+        Publication pub3 = createPublication("3");
+        Publication pub4 = createPublication("4");
+
+        // proteins with overlapping publications, one of which the gene already has
+        Gene gene1 = createGene("GENE1", pub1, pub4);
+        createProtein(gene1, pub1, pub2);
+        createProtein(gene1, pub2, pub3);
+        Gene gene2 = createGene("GENE2");
+        createProtein(gene2, pub1);
+        // no proteins
+        createGene("GENE3", pub4);
+
+        Gene gene4 = createGene("GENE4", pub3);
+        createTranscript(gene4, pub2);
+        createTranscript(gene4, pub3);
+
+        osw.beginTransaction();
+        for (InterMineObject o : toStore) {
+            osw.store(o);
+        }
+        osw.commitTransaction();
+    }
+
+    private Publication createPublication(String pubMedId) {
+        Publication pub = (Publication) DynamicUtil.createObject(
+                Collections.singleton(Publication.class));
+        pub.setPubMedId(pubMedId);
+        toStore.add(pub);
+        return pub;
+    }
+
+    private Gene createGene(String identifier, Publication... pubs) {
+        Gene gene = (Gene) DynamicUtil.createObject(Collections.singleton(Gene.class));
+        gene.setPrimaryIdentifier(identifier);
+        for (Publication pub : pubs) {
+            gene.addPublications(pub);
+        }
+        toStore.add(gene);
+        return gene;
+    }
+
+    private void createProtein(Gene gene, Publication... pubs) {
+        Protein protein = (Protein) DynamicUtil.createObject(Collections.singleton(Protein.class));
+        protein.addGenes(gene);
+        for (Publication pub : pubs) {
+            protein.addPublications(pub);
+        }
+        toStore.add(protein);
+    }
+
+    private void createTranscript(Gene gene, Publication... pubs) {
+        Transcript transcript = (Transcript) DynamicUtil.createObject(
+                Collections.singleton(Transcript.class));
+        transcript.setGene(gene);
+        for (Publication pub : pubs) {
+            transcript.addPublications(pub);
+        }
+        toStore.add(transcript);
+    }
+
+    // the PubMed ids of the publications of each gene, in order
+    private Map<String, List<String>> getGenePublications() throws Exception {
+        osw.getObjectStore().flushObjectById();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Gene.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        Map<String, List<String>> genePublications = new TreeMap<String, List<String>>();
+        Iterator<?> resIter = res.iterator();
+        while (resIter.hasNext()) {
+            Gene gene = (Gene) resIter.next();
+            List<String> pubMedIds = new ArrayList<String>();
+            for (Publication pub : gene.getPublications()) {
+                pubMedIds.add(pub.getPubMedId());
+            }
+            Collections.sort(pubMedIds);
+            genePublications.put(gene.getPrimaryIdentifier(), pubMedIds);
+        }
+        return genePublications;
+    }
+
+    private void deleteAll() throws ObjectStoreException {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        Iterator<?> resIter = res.iterator();
+        osw.beginTransaction();
+        while (resIter.hasNext()) {
+            osw.delete((InterMineObject) resIter.next());
+        }
+        osw.commitTransaction();
+    }
+}
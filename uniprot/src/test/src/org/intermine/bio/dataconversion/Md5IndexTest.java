@@ -0,0 +1,53 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Util;
+
+public class Md5IndexTest extends TestCase
+{
+    public void testPutAndGet() throws Exception {
+        Md5Index index = new Md5Index();
+        String md5 = Util.getMd5checksum("MSTAVLENPGLGRKLSDFGQ");
+        assertFalse(index.containsKey(md5));
+        assertTrue(index.putIfAbsent(md5, "3_17"));
+        assertFalse(index.putIfAbsent(md5, "3_18"));
+        assertEquals("3_17", index.get(md5));
+        assertEquals(1, index.size());
+    }
+
+    public void testGrow() throws Exception {
+        Md5Index index = new Md5Index();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.putIfAbsent(Util.getMd5checksum("SEQ" + i), (i % 3) + "_" + i));
+        }
+        assertEquals(10000, index.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals((i % 3) + "_" + i, index.get(Util.getMd5checksum("SEQ" + i)));
+        }
+        assertNull(index.get(Util.getMd5checksum("SEQ10000")));
+    }
+
+    public void testUnpackable() throws Exception {
+        Md5Index index = new Md5Index();
+        String md5 = Util.getMd5checksum("MKV");
+        assertTrue(index.putIfAbsent(null, "0_1"));
+        assertTrue(index.putIfAbsent("not a checksum", "0_2"));
+        assertTrue(index.putIfAbsent(md5, "protein_007"));
+        assertFalse(index.putIfAbsent(md5, "0_3"));
+        assertEquals("0_1", index.get(null));
+        assertEquals("0_2", index.get("not a checksum"));
+        assertEquals("protein_007", index.get(md5));
+        assertEquals(3, index.size());
+    }
+}
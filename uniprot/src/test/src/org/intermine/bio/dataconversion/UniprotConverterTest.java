@@ -11,8 +11,12 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 import org.intermine.dataconversion.ItemsTestCase;
@@ -30,15 +34,53 @@ public class UniprotConverterTest extends ItemsTestCase
     }
 
     public void setUp() throws Exception {
+        newConverter();
+        super.setUp();
+    }
+
+    private void newConverter() {
         itemWriter = new MockItemWriter(new HashMap<String, Item>());
         converter = new UniprotConverter(itemWriter, Model.getInstanceByName("genomic"));
         converter.rslv = IdResolverService.getMockIdResolver("Gene");
         converter.rslv.addResolverEntry("7227", "FBgn0000001", Collections.singleton("CG1111"));
         converter.rslv.addResolverEntry("7227", "FBgn0000002", Collections.singleton("CG2222"));
-        super.setUp();
     }
 
     public void testProcess() throws Exception {
+        processTestFile();
+
+        // uncomment to write out a new target items file
+        //writeItemsFile(itemWriter.getItems(), "uniprot-tgt-items.xml");
+
+        Set<org.intermine.xml.full.Item> expected = readItemSet("UniprotConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+
+    /**
+     * Entries converted by other threads give the same items, though the items may be made in
+     * another order so they are compared by their contents.
+     */
+    public void testProcessConverterThreads() throws Exception {
+        converter.setConverterthreads("2");
+        processTestFile();
+
+        assertEquals(ItemDescriber.describe(readItemSet("UniprotConverterTest_tgt.xml")),
+                ItemDescriber.describe(itemWriter.getItems()));
+    }
+
+    /**
+     * The StAX reader gives the same items as the SAX handler.
+     */
+    public void testProcessStax() throws Exception {
+        converter.setParser("stax");
+        processTestFile();
+
+        assertEquals(ItemDescriber.describe(readItemSet("UniprotConverterTest_tgt.xml")),
+                ItemDescriber.describe(itemWriter.getItems()));
+    }
+
+    private void processTestFile() throws Exception {
         // use test file to get /resources directory. there is probably a better
         // way to do this somehow
         File tmp = new File(getClass().getClassLoader()
@@ -48,13 +90,61 @@ public class UniprotConverterTest extends ItemsTestCase
         converter.setUniprotOrganisms("7227");
         converter.process(datadir);
         converter.close();
+    }
 
-        // uncomment to write out a new target items file
-        //writeItemsFile(itemWriter.getItems(), "uniprot-tgt-items.xml");
+    /**
+     * Two organisms parsed at the same time must give the same items as parsing them one after
+     * the other.  The item identifiers depend on the order items are made in, so the items are
+     * compared by their contents.
+     */
+    public void testProcessParallel() throws Exception {
+        File datadir = makeTwoTaxaDir();
+        try {
+            converter.setCreatego("true");
+            converter.setUniprotOrganisms("7227 7230");
+            converter.process(datadir);
+            converter.close();
+            List<String> serial = ItemDescriber.describe(itemWriter.getItems());
 
-        Set<org.intermine.xml.full.Item> expected = readItemSet("UniprotConverterTest_tgt.xml");
+            newConverter();
+            converter.setCreatego("true");
+            converter.setThreads("2");
+            converter.setUniprotOrganisms("7227 7230");
+            converter.process(datadir);
+            converter.close();
 
-        assertEquals(expected, itemWriter.getItems());
+            assertEquals(serial, ItemDescriber.describe(itemWriter.getItems()));
+        } finally {
+            deleteDir(datadir);
+        }
+    }
+
+    // the test file, and a copy of it for another fly with its own accessions and genes
+    private File makeTwoTaxaDir() throws IOException, java.net.URISyntaxException {
+        File source = new File(getClass().getClassLoader()
+                .getResource("7227_testing_sprot.xml").toURI());
+        File datadir = Files.createTempDirectory("uniprot").toFile();
+        String xml = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+        Files.write(new File(datadir, "7227_testing_sprot.xml").toPath(),
+                xml.getBytes(StandardCharsets.UTF_8));
+        String other = xml.replace("id=\"7227\"", "id=\"7230\"")
+            .replace("Q1234", "Q7230").replace("_DROME", "_DROMA")
+            .replace("P12821", "P72301").replace("P22966", "P72302")
+            .replace("FBgn000000", "FBgn723000").replace("CG1111", "CG7231")
+            .replace("CG2222", "CG7232");
+        Files.write(new File(datadir, "7230_testing_sprot.xml").toPath(),
+                other.getBytes(StandardCharsets.UTF_8));
+        return datadir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
     }
 
 //    public void testLoadTrembl() throws Exception {
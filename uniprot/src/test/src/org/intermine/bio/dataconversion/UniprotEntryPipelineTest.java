@@ -0,0 +1,108 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+public class UniprotEntryPipelineTest extends TestCase
+{
+    private ThreadPoolExecutor writer;
+    private List<Integer> written;
+
+    public void setUp() {
+        writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        written = Collections.synchronizedList(new ArrayList<Integer>());
+    }
+
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    public void testConvertAndWrite() throws Exception {
+        UniprotEntryPipeline<Integer, Integer> pipeline = newPipeline(4, -1);
+        for (int i = 0; i < 200; i++) {
+            pipeline.put(i);
+        }
+        pipeline.finish();
+
+        List<Integer> sorted = new ArrayList<Integer>(written);
+        Collections.sort(sorted);
+        assertEquals(200, sorted.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Integer.valueOf(i * 2), sorted.get(i));
+        }
+    }
+
+    /**
+     * A failed converter thread has to leave the other threads their END, or finish() waits
+     * for them for ever.
+     */
+    public void testConverterFails() throws Exception {
+        // room for all the entries and the ENDs, so they are all queued before the failure
+        final UniprotEntryPipeline<Integer, Integer> pipeline = newPipeline(100, 15);
+        for (int i = 0; i < 20; i++) {
+            pipeline.put(i);
+        }
+        ExecutorService finisher = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> finished = finisher.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    pipeline.finish();
+                    return null;
+                }
+            });
+            finished.get(30, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertEquals("entry 15", e.getCause().getCause().getMessage());
+        } catch (TimeoutException e) {
+            fail("finish() didn't return after a converter failed");
+        } finally {
+            finisher.shutdownNow();
+        }
+    }
+
+    // a pipeline that slowly doubles each entry, failing for the entry given
+    private UniprotEntryPipeline<Integer, Integer> newPipeline(int queueSize, final int failOn) {
+        return new UniprotEntryPipeline<Integer, Integer>(3, queueSize, 2, writer,
+            new UniprotEntryPipeline.EntryConverter<Integer, Integer>() {
+                @Override
+                public Integer convert(Integer entry) throws InterruptedException {
+                    Thread.sleep(5);
+                    if (entry.intValue() == failOn) {
+                        throw new IllegalStateException("entry " + entry);
+                    }
+                    return entry * 2;
+                }
+            },
+            new UniprotEntryPipeline.BatchWriter<Integer>() {
+                @Override
+                public void write(List<Integer> batch) {
+                    written.addAll(batch);
+                }
+            });
+    }
+}
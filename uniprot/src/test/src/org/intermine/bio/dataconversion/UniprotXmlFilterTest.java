@@ -57,6 +57,80 @@ public class UniprotXmlFilterTest extends XMLTestCase
         assertXMLEqual(expectedReader, new FileReader(tmpFile));
     }
 
+    public void testFilterParallel() throws Exception {
+        Set organisms = new HashSet();
+        organisms.add("7227");
+        UniprotXmlFilter filter = new UniprotXmlFilter(organisms);
+
+        File srcFile = new File(getClass().getClassLoader()
+                                .getResource("test/UniprotXmlFilterTest_src.xml").toURI());
+        File serialFile = File.createTempFile("uniprot_filter_serial", "");
+        try {
+            BufferedWriter out = new BufferedWriter(new FileWriter(serialFile));
+            filter.filter(new BufferedReader(new FileReader(srcFile)), out);
+            out.close();
+            String expected = readFile(serialFile);
+
+            // small blocks so that the file is split between several threads
+            for (int blockSize : new int[] {64, 500, 1000000}) {
+                filter.filter(srcFile, tmpFile, 3, blockSize);
+                assertEquals("block size " + blockSize, expected, readFile(tmpFile));
+            }
+        } finally {
+            serialFile.delete();
+        }
+    }
+
+    public void testSplit() throws Exception {
+        Set organisms = new HashSet();
+        organisms.add("7227");
+        UniprotXmlFilter filter = new UniprotXmlFilter(organisms);
+
+        File tgtDir = tmpFile;
+        tgtDir.delete();
+        tgtDir.mkdir();
+        try {
+            BufferedReader srcReader = new BufferedReader(new InputStreamReader(getClass()
+                    .getClassLoader().getResourceAsStream("test/UniprotXmlFilterTest_src.xml")));
+            Set<String> taxonIds = filter.split(srcReader, tgtDir, "uniprot_sprot.xml");
+            assertEquals(organisms, taxonIds);
+            assertEquals(1, tgtDir.listFiles().length);
+
+            InputStreamReader expectedReader = new InputStreamReader(getClass().getClassLoader()
+                    .getResourceAsStream("test/UniprotXmlFilterTest_tgt.xml"));
+            assertXMLEqual(expectedReader,
+                    new FileReader(new File(tgtDir, "7227_uniprot_sprot.xml")));
+
+            // no organisms means all of them, entries for two organisms are still skipped
+            filter = new UniprotXmlFilter(new HashSet());
+            srcReader = new BufferedReader(new InputStreamReader(getClass()
+                    .getClassLoader().getResourceAsStream("test/UniprotXmlFilterTest_src.xml")));
+            taxonIds = filter.split(srcReader, tgtDir, "uniprot_sprot.xml");
+            Set<String> expectedIds = new HashSet<String>();
+            expectedIds.add("5875");
+            expectedIds.add("7227");
+            assertEquals(expectedIds, taxonIds);
+            assertTrue(readFile(new File(tgtDir, "5875_uniprot_sprot.xml"))
+                       .trim().endsWith("</uniprot>"));
+        } finally {
+            for (File file : tgtDir.listFiles()) {
+                file.delete();
+            }
+        }
+    }
+
+    private String readFile(File file) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        FileReader reader = new FileReader(file);
+        char[] buf = new char[1024];
+        int read;
+        while ((read = reader.read(buf)) > 0) {
+            sb.append(buf, 0, read);
+        }
+        reader.close();
+        return sb.toString();
+    }
+
     public void testEscape() throws Exception {
         String in ="Novel protein\\n\\";
 